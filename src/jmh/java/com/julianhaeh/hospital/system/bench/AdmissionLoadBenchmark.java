@@ -0,0 +1,137 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+/**
+ * Overload test of admission control. 240 threads flood the server with lists of 1000
+ * patients while 16 threads register patients, on a server with 64 handler threads.
+ * SampleTime reports the latency percentiles of each side (p0.99 in the JSON results).
+ * A rejected client backs off for 10 ms before its next call, like a retrying client
+ * would; the rejections are counted in the rejected counter.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class AdmissionLoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"false", "true"})
+        public boolean admission;
+
+        ConfigurableApplicationContext context;
+        ManagedChannel channel;
+        HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+        ListPatientsRequest listPatients;
+        List<Long> patientIds;
+        long registrationHospitalId;
+        final AtomicInteger registrars = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = AppState.boot(
+                "hospital.grpc.executor=platform",
+                "hospital.grpc.platform-threads=64",
+                "hospital.admission.enabled=" + admission,
+                // every registration after the first is a duplicate key, don't log each one
+                "logging.level.org.hibernate.engine.jdbc.spi.SqlExceptionHelper=OFF");
+            channel = AppState.channel();
+            stub = HospitalServiceGrpc.newBlockingStub(channel);
+
+            HospitalServiceImpl service = context.getBean(HospitalServiceImpl.class);
+            List<Long> hospitalIds = Fixtures.createHospitals(service, 2);
+            patientIds = Fixtures.createPatients(service, 1000);
+            Fixtures.register(service, patientIds, hospitalIds.subList(0, 1));
+            listPatients = ListPatientsRequest.newBuilder().setHospitalId(hospitalIds.get(0)).build();
+            registrationHospitalId = hospitalIds.get(1);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            channel.shutdownNow();
+            context.close();
+        }
+    }
+
+    // Each writer registers its own patient, so the writers don't wait for each other's patient lock
+    @State(Scope.Thread)
+    public static class Registrar {
+        RegisterPatientRequest register;
+
+        @Setup(Level.Trial)
+        public void pickPatient(Server server) {
+            // registering again is a write that always succeeds
+            register = RegisterPatientRequest.newBuilder()
+                .setPatientId(server.patientIds.get(server.registrars.getAndIncrement()))
+                .setHospitalId(server.registrationHospitalId)
+                .build();
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Rejections {
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rejected = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("overload")
+    @GroupThreads(240)
+    public Object flood(Server server, Rejections rejections) {
+        return call(() -> server.stub.listPatientsOfHospital(server.listPatients), rejections);
+    }
+
+    @Benchmark
+    @Group("overload")
+    @GroupThreads(16)
+    public Object register(Server server, Registrar registrar, Rejections rejections) {
+        return call(() -> server.stub.registerPatient(registrar.register), rejections);
+    }
+
+    private static Object call(Supplier<Object> call, Rejections rejections) {
+        try {
+            return call.get();
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() != Status.Code.RESOURCE_EXHAUSTED) {
+                throw e;
+            }
+            rejections.rejected++;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            return e;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.HospitalSystemApplication;
+import com.julianhaeh.hospital.system.grpc.HospitalServiceGrpc;
+import com.julianhaeh.hospital.system.grpc.HospitalServiceImpl;
+
+/**
+ * Boots the application once per trial and calls it either directly on the service
+ * bean or through an in-process gRPC channel, which adds marshalling and call setup.
+ */
+@State(Scope.Benchmark)
+public class AppState {
+
+    public enum Transport { DIRECT, GRPC }
+
+    private static final String IN_PROCESS_NAME = "hospital-bench";
+
+    @Param({"DIRECT", "GRPC"})
+    public Transport transport;
+
+    ConfigurableApplicationContext context;
+    HospitalServiceImpl service;
+    HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+    private ManagedChannel channel;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = boot();
+        service = context.getBean(HospitalServiceImpl.class);
+        channel = channel();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+    }
+
+    // Application with only the in-process gRPC server, no web server and no network port.
+    // The extra properties are passed as command line arguments, builder properties are only
+    // defaults and would lose against application.properties.
+    static ConfigurableApplicationContext boot(String... extraProperties) {
+        return new SpringApplicationBuilder(HospitalSystemApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties(
+                "grpc.server.port=-1",
+                "grpc.server.in-process-name=" + IN_PROCESS_NAME,
+                "logging.level.root=WARN")
+            .run(Arrays.stream(extraProperties).map(p -> "--" + p).toArray(String[]::new));
+    }
+
+    static ManagedChannel channel() {
+        return InProcessChannelBuilder.forName(IN_PROCESS_NAME)
+            .directExecutor()
+            // the 100k fan-out lists are larger than the default 4 MiB limit
+            .maxInboundMessageSize(Integer.MAX_VALUE)
+            .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        channel.shutdownNow();
+        context.close();
+    }
+
+    // Unary call through the transport selected by the parameter
+    <Q, R> R call(BiConsumer<Q, StreamObserver<R>> direct, Function<Q, R> grpc, Q req) {
+        if (transport == Transport.GRPC) {
+            return grpc.apply(req);
+        }
+        DirectObserver<R> obs = new DirectObserver<>();
+        direct.accept(req, obs);
+        return obs.get();
+    }
+
+    // The service completes unary calls on the calling thread, so no waiting is needed
+    static class DirectObserver<T> implements StreamObserver<T> {
+        private T value;
+        private Throwable error;
+
+        @Override
+        public void onNext(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            this.error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        T get() {
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.Empty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+/**
+ * Create, modify, delete and register, each a single unary call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrudBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Existing {
+        long hospitalId;
+        long patientId;
+        int counter;
+
+        @Setup(Level.Trial)
+        public void seed(AppState app) {
+            hospitalId = Fixtures.createHospitals(app.service, 1).get(0);
+            patientId  = Fixtures.createPatients(app.service, 1).get(0);
+        }
+    }
+
+    // A patient nobody has touched yet, for calls that consume it
+    @State(Scope.Thread)
+    public static class FreshPatient {
+        long patientId;
+
+        @Setup(Level.Invocation)
+        public void create(AppState app) {
+            patientId = app.call(app.service::createPatient, app.stub::createPatient, Fixtures.patient(0)).getId();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FreshHospital {
+        long hospitalId;
+
+        @Setup(Level.Invocation)
+        public void create(AppState app) {
+            hospitalId = app.call(app.service::createHospital, app.stub::createHospital, Fixtures.hospital(0)).getId();
+        }
+    }
+
+    @Benchmark
+    public Hospital createHospital(AppState app) {
+        return app.call(app.service::createHospital, app.stub::createHospital, Fixtures.hospital(0));
+    }
+
+    @Benchmark
+    public Patient createPatient(AppState app) {
+        return app.call(app.service::createPatient, app.stub::createPatient, Fixtures.patient(0));
+    }
+
+    @Benchmark
+    public Hospital modifyHospital(AppState app, Existing existing) {
+        ModifyHospitalRequest req = ModifyHospitalRequest.newBuilder()
+            .setHospitalId(existing.hospitalId)
+            .setName("Klinik " + (existing.counter++ & 1023))
+            .setAddress("Musterweg 1")
+            .build();
+        return app.call(app.service::modifyHospital, app.stub::modifyHospital, req);
+    }
+
+    @Benchmark
+    public Patient modifyPatient(AppState app, Existing existing) {
+        ModifyPatientRequest req = ModifyPatientRequest.newBuilder()
+            .setPatientId(existing.patientId)
+            .setFirstName("Max" + (existing.counter++ & 1023))
+            .setLastName("Mustermann")
+            .setBirthDate("1990-01-01")
+            .build();
+        return app.call(app.service::modifyPatient, app.stub::modifyPatient, req);
+    }
+
+    @Benchmark
+    public Empty deletePatient(AppState app, FreshPatient fresh) {
+        DeletePatientRequest req = DeletePatientRequest.newBuilder()
+            .setPatientId(fresh.patientId)
+            .build();
+        return app.call(app.service::deletePatient, app.stub::deletePatient, req);
+    }
+
+    @Benchmark
+    public Registration registerPatient(AppState app, Existing existing, FreshPatient fresh) {
+        RegisterPatientRequest req = RegisterPatientRequest.newBuilder()
+            .setPatientId(fresh.patientId)
+            .setHospitalId(existing.hospitalId)
+            .build();
+        return app.call(app.service::registerPatient, app.stub::registerPatient, req);
+    }
+
+    @Benchmark
+    public Empty deleteHospital(AppState app, FreshHospital fresh) {
+        DeleteHospitalRequest req = DeleteHospitalRequest.newBuilder()
+            .setHospitalId(fresh.hospitalId)
+            .build();
+        return app.call(app.service::deleteHospital, app.stub::deleteHospital, req);
+    }
+}
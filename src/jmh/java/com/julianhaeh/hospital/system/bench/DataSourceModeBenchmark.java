@@ -0,0 +1,147 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.grpc.HospitalServiceImpl;
+import com.julianhaeh.hospital.system.grpc.ListPatientsRequest;
+import com.julianhaeh.hospital.system.grpc.Patient;
+import com.julianhaeh.hospital.system.grpc.PatientList;
+
+/**
+ * Compares the datasource modes: the default in-memory H2, the prod profile with a
+ * file-backed H2 and the prod,postgres profiles. Without -Dbench.postgres.url the
+ * postgres mode runs against H2 in PostgreSQL mode, so it only shows the effect of
+ * the profile settings, not of the database.
+ *
+ * coldStart boots a fresh JVM per sample, the other benchmarks measure steady state.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DataSourceModeBenchmark {
+
+    public enum DataSourceMode { MEMORY, FILE, POSTGRES }
+
+    private static final String POSTGRES_STAND_IN =
+        "jdbc:h2:mem:hospital;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH";
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"MEMORY", "FILE", "POSTGRES"})
+        public DataSourceMode mode;
+
+        Path dataDir;
+
+        ConfigurableApplicationContext boot() {
+            try {
+                dataDir = Files.createTempDirectory("hospital-bench");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return switch (mode) {
+                case MEMORY -> AppState.boot();
+                case FILE -> AppState.boot(
+                    "spring.profiles.active=prod",
+                    "hospital.data-dir=" + dataDir);
+                case POSTGRES -> AppState.boot(
+                    "spring.profiles.active=prod,postgres",
+                    "spring.datasource.url=" + System.getProperty("bench.postgres.url", POSTGRES_STAND_IN));
+            };
+        }
+
+        void deleteDataDir() throws IOException {
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ColdStart {
+        ConfigurableApplicationContext context;
+
+        @TearDown(Level.Iteration)
+        public void stop(Database db) throws IOException {
+            context.close();
+            db.deleteDataDir();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        ConfigurableApplicationContext context;
+        HospitalServiceImpl service;
+        ListPatientsRequest listPatients;
+
+        @Setup(Level.Trial)
+        public void start(Database db) {
+            context = db.boot();
+            service = context.getBean(HospitalServiceImpl.class);
+            List<Long> hospitalIds = Fixtures.createHospitals(service, 1);
+            Fixtures.register(service, Fixtures.createPatients(service, 100), hospitalIds);
+            listPatients = ListPatientsRequest.newBuilder().setHospitalId(hospitalIds.get(0)).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop(Database db) throws IOException {
+            context.close();
+            db.deleteDataDir();
+        }
+    }
+
+    // Time until the context is refreshed, schema creation and registration index warm-up included
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public void coldStart(Database db, ColdStart state) {
+        state.context = db.boot();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Threads(8)
+    @Fork(1)
+    public Patient createPatient(Server server) {
+        AppState.DirectObserver<Patient> obs = new AppState.DirectObserver<>();
+        server.service.createPatient(Fixtures.patient(0), obs);
+        return obs.get();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Threads(8)
+    @Fork(1)
+    public PatientList listPatientsOfHospital(Server server) {
+        AppState.DirectObserver<PatientList> obs = new AppState.DirectObserver<>();
+        server.service.listPatientsOfHospital(server.listPatients, obs);
+        return obs.get();
+    }
+}
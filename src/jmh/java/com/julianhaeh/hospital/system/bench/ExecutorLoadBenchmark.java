@@ -0,0 +1,78 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+/**
+ * Load test of the gRPC server executor modes. 256 client threads keep far more calls
+ * in flight than the connection pool has connections. SampleTime reports throughput
+ * together with the latency percentiles (p0.99 in the JSON results).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(256)
+@Fork(1)
+public class ExecutorLoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"platform", "virtual"})
+        public String executor;
+
+        ConfigurableApplicationContext context;
+        ManagedChannel channel;
+        HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+        ListPatientsRequest listPatients;
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = AppState.boot("hospital.grpc.executor=" + executor);
+            channel = AppState.channel();
+            stub = HospitalServiceGrpc.newBlockingStub(channel);
+
+            HospitalServiceImpl service = context.getBean(HospitalServiceImpl.class);
+            List<Long> hospitalIds = Fixtures.createHospitals(service, 1);
+            Fixtures.register(service, Fixtures.createPatients(service, 100), hospitalIds);
+            listPatients = ListPatientsRequest.newBuilder().setHospitalId(hospitalIds.get(0)).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            channel.shutdownNow();
+            context.close();
+        }
+    }
+
+    // A write, blocks on JDBC for the insert and the commit
+    @Benchmark
+    public Patient createPatient(Server server) {
+        return server.stub.createPatient(Fixtures.patient(0));
+    }
+
+    // A read of 100 registrations
+    @Benchmark
+    public PatientList listPatientsOfHospital(Server server) {
+        return server.stub.listPatientsOfHospital(server.listPatients);
+    }
+}
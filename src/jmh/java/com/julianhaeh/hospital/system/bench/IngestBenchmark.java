@@ -0,0 +1,169 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.julianhaeh.hospital.system.grpc.CreatePatientRequest;
+import com.julianhaeh.hospital.system.grpc.HospitalServiceGrpc;
+import com.julianhaeh.hospital.system.grpc.IngestProgress;
+import com.julianhaeh.hospital.system.grpc.Patient;
+import com.julianhaeh.hospital.system.grpc.PatientList;
+import com.julianhaeh.hospital.system.grpc.RegisterPatientRequest;
+import com.julianhaeh.hospital.system.grpc.SearchPatientsRequest;
+import com.julianhaeh.hospital.system.index.PatientSearchIndex;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+import com.julianhaeh.hospital.system.ingest.IngestService;
+
+/**
+ * A partner file of {@code rows} admissions, two per patient at different hospitals, where
+ * half of the patients exist already: ingested as a file, or the way a separate tool does
+ * it today, with a search, a CreatePatient if needed and a RegisterPatient per row.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestBenchmark {
+
+    private static final int HOSPITALS = 1000;
+    private static final int ROWS_PER_PATIENT = 2;
+
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({"100000"})
+        public int rows;
+
+        ConfigurableApplicationContext context;
+        IngestService ingest;
+        JdbcTemplate jdbc;
+        ManagedChannel channel;
+        HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+        Path file;
+        int existingPatients;
+
+        @Setup(Level.Trial)
+        public void seed() throws IOException {
+            context = AppState.boot();
+            ingest = context.getBean(IngestService.class);
+            jdbc = context.getBean(JdbcTemplate.class);
+            channel = AppState.channel();
+            stub = HospitalServiceGrpc.newBlockingStub(channel);
+            int patients = rows / ROWS_PER_PATIENT;
+            existingPatients = patients / 2;
+            jdbc.update("insert into hospital (id, name, address)"
+                + " select x, 'Klinik ' || x, 'Musterweg ' || x from system_range(1, ?)", HOSPITALS);
+            jdbc.execute("alter sequence patient_seq restart with " + (existingPatients + 1000));
+            file = Files.createTempFile("ingest-bench", ".csv");
+            try (BufferedWriter out = Files.newBufferedWriter(file)) {
+                out.write("first_name,last_name,birth_date,hospital_id\n");
+                for (int row = 0; row < rows; row++) {
+                    int p = row % patients;
+                    out.write("Max" + p + ",Mustermann," + birthDate(p) + "," + ((p + row / patients) % HOSPITALS + 1) + "\n");
+                }
+            }
+            System.out.println("\nFile of " + rows + " rows: " + Files.size(file) + " bytes");
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            channel.shutdownNow();
+            context.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Before every run: only the existing half of the patients, no registrations
+    @State(Scope.Benchmark)
+    public static class ExistingPatients {
+        @Setup(Level.Invocation)
+        public void reset(Dataset data) {
+            data.jdbc.execute("truncate table registration");
+            data.jdbc.execute("delete from patient");
+            data.jdbc.update("insert into patient (id, first_name, last_name, birth_date)"
+                + " select x + 1, 'Max' || x, 'Mustermann', dateadd(day, mod(x, 20000), date '1950-01-01')"
+                + " from system_range(0, ?)", data.existingPatients - 1);
+            data.context.getBean(RegistrationIndex.class).reload();
+            data.context.getBean(PatientSearchIndex.class).reload();
+        }
+    }
+
+    private static LocalDate birthDate(int p) {
+        return LocalDate.of(1950, 1, 1).plusDays(p % 20000);
+    }
+
+    @Benchmark
+    public IngestProgress ingestFile(Dataset data, ExistingPatients existing) throws IOException {
+        IngestProgress done = data.ingest.ingest(data.file, progress -> {});
+        if (done.getRegistrationsCreated() != data.rows) {
+            throw new IllegalStateException("Ingested " + done);
+        }
+        return done;
+    }
+
+    @Benchmark
+    public int rowByRowRpcs(Dataset data, ExistingPatients existing) throws IOException {
+        int registered = 0;
+        try (BufferedReader in = Files.newBufferedReader(data.file)) {
+            in.readLine();
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] columns = line.split(",");
+                long patientId = findOrCreate(data.stub, columns[0], columns[1], columns[2]);
+                data.stub.registerPatient(RegisterPatientRequest.newBuilder()
+                    .setPatientId(patientId)
+                    .setHospitalId(Long.parseLong(columns[3]))
+                    .build());
+                registered++;
+            }
+        }
+        return registered;
+    }
+
+    // The search matches name prefixes, so the exact names are checked here
+    private static long findOrCreate(HospitalServiceGrpc.HospitalServiceBlockingStub stub,
+                                     String firstName, String lastName, String birthDate) {
+        Iterator<PatientList> lists = stub.searchPatients(SearchPatientsRequest.newBuilder()
+            .setLastName(lastName)
+            .setFirstName(firstName)
+            .setBornFrom(birthDate)
+            .setBornTo(birthDate)
+            .build());
+        // read to the end, an abandoned stream would keep its call open
+        long found = 0;
+        while (lists.hasNext()) {
+            for (Patient p : lists.next().getPatientsList()) {
+                if (found == 0 && p.getFirstName().equals(firstName) && p.getLastName().equals(lastName)) {
+                    found = p.getId();
+                }
+            }
+        }
+        return found != 0 ? found : stub.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName(firstName)
+            .setLastName(lastName)
+            .setBirthDate(birthDate)
+            .build()).getId();
+    }
+}
@@ -0,0 +1,62 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+/**
+ * The two list RPCs at different registration fan-outs: one hospital with
+ * {@code fanout} patients, and one patient registered in {@code fanout} hospitals.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ListBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Registered {
+        @Param({"10", "1000", "100000"})
+        public int fanout;
+
+        ListPatientsRequest listPatients;
+        ListHospitalsRequest listHospitals;
+
+        @Setup(Level.Trial)
+        public void seed(AppState app) {
+            List<Long> hospitalIds = Fixtures.createHospitals(app.service, fanout);
+            List<Long> patientIds  = Fixtures.createPatients(app.service, fanout);
+            // first hospital gets every patient, first patient gets every hospital
+            Fixtures.register(app.service, patientIds, hospitalIds.subList(0, 1));
+            Fixtures.register(app.service, patientIds.subList(0, 1), hospitalIds.subList(1, hospitalIds.size()));
+
+            listPatients  = ListPatientsRequest.newBuilder().setHospitalId(hospitalIds.get(0)).build();
+            listHospitals = ListHospitalsRequest.newBuilder().setPatientId(patientIds.get(0)).build();
+        }
+    }
+
+    @Benchmark
+    public PatientList listPatientsOfHospital(AppState app, Registered data) {
+        return app.call(app.service::listPatientsOfHospital, app.stub::listPatientsOfHospital, data.listPatients);
+    }
+
+    @Benchmark
+    public HospitalList listHospitalsOfPatient(AppState app, Registered data) {
+        return app.call(app.service::listHospitalsOfPatient, app.stub::listHospitalsOfPatient, data.listHospitals);
+    }
+}
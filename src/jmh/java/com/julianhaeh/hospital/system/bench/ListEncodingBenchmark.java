@@ -0,0 +1,83 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+/**
+ * ListPatientsOfHospital over a loopback Netty connection, with the Patient messages built
+ * from a warm cache (CACHED), built from the database with the cache off (UNCACHED), or
+ * the rows encoded straight into the response (ENCODED). Run with -prof gc: the client's
+ * parse is the same in all three, the differences in gc.alloc.rate.norm are the server's.
+ * The in-process transport would hand the built PatientList to the client unserialized,
+ * hence the real connection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ListEncodingBenchmark {
+
+    public enum Path { CACHED, UNCACHED, ENCODED }
+
+    private static final int PORT = 19091;
+
+    @Param({"CACHED", "UNCACHED", "ENCODED"})
+    public Path path;
+
+    @Param({"1000", "100000"})
+    public int patients;
+
+    private ConfigurableApplicationContext context;
+    private ManagedChannel channel;
+    private HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+    private ListPatientsRequest request;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = AppState.boot("grpc.server.port=" + PORT,
+            "hospital.list.encode-threshold=" + (path == Path.ENCODED ? 0 : Integer.MAX_VALUE),
+            "hospital.cache.patients.maximum-size=" + (path == Path.UNCACHED ? 0 : patients));
+        channel = ManagedChannelBuilder.forAddress("localhost", PORT)
+            .usePlaintext()
+            .maxInboundMessageSize(Integer.MAX_VALUE)
+            .build();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+
+        HospitalServiceImpl service = context.getBean(HospitalServiceImpl.class);
+        List<Long> hospitalIds = Fixtures.createHospitals(service, 1);
+        Fixtures.register(service, Fixtures.createPatients(service, patients), hospitalIds);
+        request = ListPatientsRequest.newBuilder().setHospitalId(hospitalIds.get(0)).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        channel.shutdownNow();
+        context.close();
+    }
+
+    @Benchmark
+    public PatientList listPatientsOfHospital() {
+        return stub.listPatientsOfHospital(request);
+    }
+}
@@ -0,0 +1,119 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.julianhaeh.hospital.system.repository.RegistrationRepository;
+
+/**
+ * Registration lookups on a large table, with and without the secondary indexes of
+ * RegistrationEntity. The query plans are printed during setup.
+ * The data is generated with H2's SYSTEM_RANGE, so this only runs against H2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RegistrationQueryBenchmark {
+
+    private static final int HOSPITALS = 1000;
+    private static final int PER_PATIENT = 100;
+    private static final int CHUNK = 1_000_000;
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"10000000"})
+        public int registrations;
+
+        @Param({"true", "false"})
+        public boolean secondaryIndexes;
+
+        ConfigurableApplicationContext context;
+        RegistrationRepository registrationRepo;
+        JdbcTemplate jdbc;
+        int patients;
+
+        @Setup(Level.Trial)
+        public void seed() {
+            context = AppState.boot();
+            registrationRepo = context.getBean(RegistrationRepository.class);
+            jdbc = context.getBean(JdbcTemplate.class);
+            patients = registrations / PER_PATIENT;
+
+            jdbc.update("insert into hospital (id, name, address) "
+                + "select x, 'Klinik', 'Musterweg' from system_range(1, ?)", HOSPITALS);
+            jdbc.update("insert into patient (id, first_name, last_name, birth_date) "
+                + "select x, 'Max', 'Mustermann', date '1990-01-01' from system_range(1, ?)", patients);
+            // every patient in 100 distinct hospitals, one registration per second from EPOCH on
+            for (int from = 0; from < registrations; from += CHUNK) {
+                jdbc.update("insert into registration (patient_id, hospital_id, registered_at) "
+                    + "select x / 100 + 1, mod(x, 100) * 10 + mod(x / 100, 10) + 1, "
+                    + "dateadd('SECOND', x, timestamp '2020-01-01 00:00:00') "
+                    + "from system_range(?, ?)", from, Math.min(from + CHUNK, registrations) - 1);
+            }
+            if (!secondaryIndexes) {
+                jdbc.execute("drop index idx_registration_patient_hospital");
+                jdbc.execute("drop index idx_registration_registered_at");
+            }
+            jdbc.execute("analyze");
+
+            explain("select hospital_id from registration where patient_id = 4711");
+            explain("select patient_id from registration where hospital_id = 42 order by patient_id");
+            explain("select count(*) from registration where registered_at between "
+                + "timestamp '2020-01-02 00:00:00' and timestamp '2020-01-02 01:00:00'");
+        }
+
+        private void explain(String sql) {
+            List<String> plan = jdbc.queryForList("explain " + sql, String.class);
+            System.out.println("[secondaryIndexes=" + secondaryIndexes + "] " + String.join(" ", plan));
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public List<Long> hospitalIdsOfPatient(Data data) {
+        long patientId = ThreadLocalRandom.current().nextInt(data.patients) + 1;
+        return data.registrationRepo.findHospitalIdsByPatientId(patientId);
+    }
+
+    @Benchmark
+    public List<Long> patientIdsOfHospital(Data data) {
+        long hospitalId = ThreadLocalRandom.current().nextInt(HOSPITALS) + 1;
+        return data.registrationRepo.findPatientIdsByHospitalId(hospitalId);
+    }
+
+    // One hour of registrations at a random offset
+    @Benchmark
+    public Long registrationsInHour(Data data) {
+        long offset = ThreadLocalRandom.current().nextLong(data.registrations - 3600);
+        LocalDateTime from = EPOCH.plusSeconds(offset);
+        return data.jdbc.queryForObject(
+            "select count(*) from registration where registered_at between ? and ?",
+            Long.class, Timestamp.valueOf(from), Timestamp.valueOf(from.plusHours(1)));
+    }
+}
@@ -0,0 +1,124 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.julianhaeh.hospital.system.index.PatientSearchIndex;
+import com.julianhaeh.hospital.system.repository.PatientQuery;
+import com.julianhaeh.hospital.system.repository.PatientRepository;
+import com.julianhaeh.hospital.system.service.HospitalService;
+
+/**
+ * Search latency over 1M and 10M patients with the PatientSearchIndex, and the database
+ * query it replaces for comparison. Names are built from syllables, about 10,000 distinct
+ * last names and 50 first names, birth dates spread over 90 years.
+ * The data is generated with H2's SYSTEM_RANGE, so this only runs against H2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class SearchBenchmark {
+
+    private static final int CHUNK = 1_000_000;
+    private static final int LIMIT = 1000;
+    private static final String[] PREFIXES = { "Schm", "Müll", "Wag", "Hoffm", "Kler", "Neub" };
+    private static final String[] TYPOS = { "Schmit", "Muler", "Wagener", "Hofman", "Kleber", "Neuber" };
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"1000000", "10000000"})
+        public int patients;
+
+        ConfigurableApplicationContext context;
+        HospitalService service;
+        PatientRepository patientRepo;
+
+        @Setup(Level.Trial)
+        public void seed() {
+            context = AppState.boot();
+            service = context.getBean(HospitalService.class);
+            patientRepo = context.getBean(PatientRepository.class);
+            JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+
+            for (int from = 1; from <= patients; from += CHUNK) {
+                jdbc.update("insert into patient (id, first_name, last_name, birth_date) select x, "
+                    + "array_get(array['Anna','Max','Lena','Paul','Marie','Felix','Emma','Jonas','Mia','Leon'], "
+                    + "  mod(x * 7, 10) + 1) || array_get(array['','a','e','i','o'], mod(x * 13, 5) + 1), "
+                    + "array_get(array['Mül','Schm','Schn','Fi','We','Mey','Wa','Be','Schu','Hoff',"
+                    + "  'Ko','Ri','Kl','Wo','Neu','Schw','Zi','Kr','Lang','Hart'], mod(x, 20) + 1) "
+                    + "|| array_get(array['ler','id','ei','sch','ber','er','gn','ck','lz','man',"
+                    + "  'ch','ter','in','lf','mai','ar','mm','a','en','o'], mod(x / 20, 20) + 1) "
+                    + "|| array_get(array['','n','t','s','er','ert','mann','dt','ke','ner','ing','el','au',"
+                    + "  'ow','itz','berg','feld','hof','ski','st','ze','e','i','ohl','rich'], mod(x / 400, 25) + 1), "
+                    + "dateadd('DAY', mod(x * 31, 32870), date '1930-01-01') "
+                    + "from system_range(?, ?)", from, Math.min(from + CHUNK - 1, patients));
+            }
+            context.getBean(PatientSearchIndex.class).reload();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    private static String any(String[] values) {
+        return values[ThreadLocalRandom.current().nextInt(values.length)];
+    }
+
+    @Benchmark
+    public long[] lastNamePrefix(Data data) {
+        return data.service.searchPatientIds(
+            new PatientQuery(any(PREFIXES), null, false, null, null, 0), LIMIT);
+    }
+
+    @Benchmark
+    public long[] lastNameFuzzy(Data data) {
+        return data.service.searchPatientIds(
+            new PatientQuery(any(TYPOS), null, true, null, null, 0), LIMIT);
+    }
+
+    // One week at a random point
+    @Benchmark
+    public long[] birthDateRange(Data data) {
+        LocalDate from = LocalDate.of(1930, 1, 1).plusDays(ThreadLocalRandom.current().nextInt(32000));
+        return data.service.searchPatientIds(
+            new PatientQuery(null, null, false, from, from.plusDays(6), 0), LIMIT);
+    }
+
+    // The front desk case: part of the last name and the birth year
+    @Benchmark
+    public long[] lastNamePrefixAndBirthYear(Data data) {
+        LocalDate from = LocalDate.of(1930 + ThreadLocalRandom.current().nextInt(90), 1, 1);
+        return data.service.searchPatientIds(
+            new PatientQuery(any(PREFIXES), null, false, from, from.plusYears(1).minusDays(1), 0), LIMIT);
+    }
+
+    // The same search as SQL, a LIKE on lower(last_name) can't use an index
+    @Benchmark
+    public List<Long> databaseLastNamePrefixAndBirthYear(Data data) {
+        LocalDate from = LocalDate.of(1930 + ThreadLocalRandom.current().nextInt(90), 1, 1);
+        return data.patientRepo.searchIds(
+            new PatientQuery(any(PREFIXES), null, false, from, from.plusYears(1).minusDays(1), 0), LIMIT);
+    }
+}
@@ -0,0 +1,116 @@
+package com.julianhaeh.hospital.system.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.julianhaeh.hospital.system.grpc.HospitalServiceImpl;
+import com.julianhaeh.hospital.system.grpc.SnapshotSummary;
+import com.julianhaeh.hospital.system.snapshot.SnapshotService;
+
+/**
+ * Restoring a dataset of {@code registrations} registrations (4 per patient, 1000
+ * hospitals): from a snapshot, or by replaying it through the bulk RPCs. The data is
+ * seeded with plain SQL, which is much faster than any RPC.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotBenchmark {
+
+    private static final int HOSPITALS = 1000;
+    private static final int REGISTRATIONS_PER_PATIENT = 4;
+
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({"1000000"})
+        public int registrations;
+
+        ConfigurableApplicationContext context;
+        HospitalServiceImpl service;
+        SnapshotService snapshots;
+        JdbcTemplate jdbc;
+        Path file;
+        int patients;
+
+        @Setup(Level.Trial)
+        public void seed() throws IOException {
+            context = AppState.boot("logging.level.org.hibernate.engine.jdbc.spi.SqlExceptionHelper=OFF");
+            service = context.getBean(HospitalServiceImpl.class);
+            snapshots = context.getBean(SnapshotService.class);
+            jdbc = context.getBean(JdbcTemplate.class);
+            patients = registrations / REGISTRATIONS_PER_PATIENT;
+            jdbc.update("insert into hospital (id, name, address)"
+                + " select x, 'Klinik ' || x, 'Musterweg ' || x from system_range(1, ?)", HOSPITALS);
+            jdbc.update("insert into patient (id, first_name, last_name, birth_date)"
+                + " select x, 'Max' || x, 'Mustermann', dateadd(day, mod(x, 20000), date '1950-01-01')"
+                + " from system_range(1, ?)", patients);
+            jdbc.update("insert into registration (patient_id, hospital_id, registered_at)"
+                + " select p.x, mod(p.x + r.x * 97, ?) + 1, dateadd(second, p.x, timestamp '2024-01-01 00:00:00')"
+                + " from system_range(1, ?) p, system_range(0, ?) r",
+                HOSPITALS, patients, REGISTRATIONS_PER_PATIENT - 1);
+            file = Files.createTempFile("snapshot-bench", ".snap");
+            SnapshotSummary exported = snapshots.export(file);
+            System.out.println("\nSnapshot of " + exported.getRegistrations() + " registrations: "
+                + exported.getBytes() + " bytes");
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            context.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Empty tables before every restore
+    @State(Scope.Benchmark)
+    public static class EmptyTables {
+        @Setup(Level.Invocation)
+        public void truncate(Dataset data) {
+            data.jdbc.execute("set referential_integrity false");
+            data.jdbc.execute("truncate table registration");
+            data.jdbc.execute("truncate table patient");
+            data.jdbc.execute("truncate table hospital");
+            data.jdbc.execute("set referential_integrity true");
+        }
+    }
+
+    @Benchmark
+    public SnapshotSummary exportSnapshot(Dataset data) throws IOException {
+        return data.snapshots.export(data.file);
+    }
+
+    @Benchmark
+    public SnapshotSummary importSnapshot(Dataset data, EmptyTables empty) throws IOException {
+        return data.snapshots.importFrom(data.file);
+    }
+
+    // The same amount of rows through BulkCreateHospitals, BulkCreatePatients and BulkRegister
+    @Benchmark
+    public int replayBulkRpcs(Dataset data, EmptyTables empty) {
+        List<Long> hospitalIds = Fixtures.createHospitals(data.service, HOSPITALS);
+        List<Long> patientIds = Fixtures.createPatients(data.service, data.patients);
+        Fixtures.register(data.service, patientIds, hospitalIds.subList(0, REGISTRATIONS_PER_PATIENT));
+        return patientIds.size();
+    }
+}
@@ -3,10 +3,20 @@ package com.julianhaeh.hospital.system;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import com.julianhaeh.hospital.system.ingest.IngestCli;
+import com.julianhaeh.hospital.system.snapshot.SnapshotCli;
+
 @SpringBootApplication
 public class HospitalSystemApplication {
 
 	public static void main(String[] args) {
+		// export-snapshot / import-snapshot / ingest FILE run once and exit instead of starting the server
+		if (SnapshotCli.handles(args)) {
+			System.exit(SnapshotCli.run(HospitalSystemApplication.class, args));
+		}
+		if (IngestCli.handles(args)) {
+			System.exit(IngestCli.run(HospitalSystemApplication.class, args));
+		}
 		SpringApplication.run(HospitalSystemApplication.class, args);
 	}
 
@@ -0,0 +1,93 @@
+package com.julianhaeh.hospital.system.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit that adapts to the observed latency (a gradient limit, as in Netflix'
+ * concurrency-limits).
+ *
+ * Every completed call compares its latency with the lowest latency seen recently, the
+ * latency without queueing. Within tolerance times that minimum the limit grows by about
+ * its square root, beyond it shrinks in proportion to the excess; every change is smoothed.
+ * The minimum is forgotten every window calls, so a slower baseline (a bigger database) is
+ * picked up again.
+ *
+ * Lock-free: acquiring is a CAS on the in-flight count, a sample a CAS on the limit.
+ */
+public class AdaptiveLimiter {
+
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_RTT_WINDOW = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // the limit as double bits
+    private final AtomicLong limit;
+    private final AtomicLong minRtt = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong samples = new AtomicLong();
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit  = minLimit;
+        this.maxLimit  = maxLimit;
+        this.tolerance = tolerance;
+        this.limit     = new AtomicLong(Double.doubleToLongBits(initialLimit));
+    }
+
+    public int limit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    // Admits the call if the calls in flight are below the share of the limit of its priority
+    public boolean tryAcquire(Priority priority) {
+        int allowed = Math.max(1, (int) (limit() * priority.share));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Ends an admitted call, a negative rtt (a cancelled call) is not a sample
+    public void release(long rttNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        if (rttNanos >= 0) {
+            sample(Math.max(1, rttNanos), inFlightBefore);
+        }
+    }
+
+    private void sample(long rtt, int inFlightBefore) {
+        long min;
+        if (samples.incrementAndGet() % MIN_RTT_WINDOW == 0) {
+            minRtt.set(rtt);
+            min = rtt;
+        } else {
+            min = minRtt.accumulateAndGet(rtt, Math::min);
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * min / rtt));
+        while (true) {
+            long bits = limit.get();
+            double current = Double.longBitsToDouble(bits);
+            if (gradient == 1.0 && inFlightBefore < current / 2) {
+                // far below the limit, fast calls say nothing about a higher one
+                return;
+            }
+            double target = current * gradient + Math.sqrt(current);
+            double next = Math.max(minLimit, Math.min(maxLimit, current * (1 - SMOOTHING) + target * SMOOTHING));
+            if (next == current || limit.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+}
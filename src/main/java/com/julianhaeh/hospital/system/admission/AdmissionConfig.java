@@ -0,0 +1,97 @@
+package com.julianhaeh.hospital.system.admission;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.grpc.MethodDescriptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.julianhaeh.hospital.system.grpc.HospitalServiceGrpc;
+
+/**
+ * Admission control (hospital.admission.enabled). Registrations are critical, the other
+ * writes come next, then reads; bulk imports and statistics are shed first. WatchChanges
+ * is not limited, its calls stay open for as long as the client watches. Streams,
+ * snapshots and ingests share hospital.admission.long-running-limit slots instead of the
+ * adaptive limit.
+ */
+@Configuration
+@ConditionalOnProperty(name = "hospital.admission.enabled", havingValue = "true")
+public class AdmissionConfig {
+
+    @Bean
+    public AdaptiveLimiter adaptiveLimiter(
+            @Value("${hospital.admission.initial-limit:50}") int initialLimit,
+            @Value("${hospital.admission.min-limit:10}") int minLimit,
+            @Value("${hospital.admission.max-limit:1000}") int maxLimit,
+            @Value("${hospital.admission.latency-tolerance:2.0}") double tolerance) {
+        return new AdaptiveLimiter(initialLimit, minLimit, maxLimit, tolerance);
+    }
+
+    @Bean
+    @GrpcGlobalServerInterceptor
+    public AdmissionInterceptor admissionInterceptor(
+            AdaptiveLimiter limiter,
+            MeterRegistry registry,
+            @Value("${hospital.admission.client-rate:0}") double clientRate,
+            @Value("${hospital.admission.client-burst:100}") int clientBurst,
+            @Value("${hospital.admission.long-running-limit:8}") int longRunningLimit) {
+        ClientRateLimiter rateLimiter = clientRate > 0 ? new ClientRateLimiter(clientRate, clientBurst) : null;
+        return new AdmissionInterceptor(limiter, rateLimiter, priorities(), longRunning(), longRunningLimit, registry);
+    }
+
+    private static Set<String> longRunning() {
+        return Stream.of(
+                HospitalServiceGrpc.getBulkCreateHospitalsMethod(),
+                HospitalServiceGrpc.getBulkCreatePatientsMethod(),
+                HospitalServiceGrpc.getBulkRegisterMethod(),
+                HospitalServiceGrpc.getStreamPatientsOfHospitalMethod(),
+                HospitalServiceGrpc.getStreamHospitalsOfPatientMethod(),
+                HospitalServiceGrpc.getExportSnapshotMethod(),
+                HospitalServiceGrpc.getImportSnapshotMethod(),
+                HospitalServiceGrpc.getIngestFileMethod())
+            .map(MethodDescriptor::getFullMethodName)
+            .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static Map<String, Priority> priorities() {
+        Map<String, Priority> priorities = new HashMap<>();
+        for (MethodDescriptor<?, ?> method : HospitalServiceGrpc.getServiceDescriptor().getMethods()) {
+            priorities.put(method.getFullMethodName(), Priority.READ);
+        }
+        put(priorities, Priority.CRITICAL,
+            HospitalServiceGrpc.getRegisterPatientMethod(),
+            HospitalServiceGrpc.getUnregisterPatientMethod());
+        put(priorities, Priority.WRITE,
+            HospitalServiceGrpc.getCreateHospitalMethod(),
+            HospitalServiceGrpc.getModifyHospitalMethod(),
+            HospitalServiceGrpc.getDeleteHospitalMethod(),
+            HospitalServiceGrpc.getCreatePatientMethod(),
+            HospitalServiceGrpc.getModifyPatientMethod(),
+            HospitalServiceGrpc.getDeletePatientMethod());
+        put(priorities, Priority.BULK,
+            HospitalServiceGrpc.getBulkCreateHospitalsMethod(),
+            HospitalServiceGrpc.getBulkCreatePatientsMethod(),
+            HospitalServiceGrpc.getBulkRegisterMethod(),
+            HospitalServiceGrpc.getHospitalStatsMethod(),
+            HospitalServiceGrpc.getExportSnapshotMethod(),
+            HospitalServiceGrpc.getImportSnapshotMethod(),
+            HospitalServiceGrpc.getIngestFileMethod());
+        priorities.remove(HospitalServiceGrpc.getWatchChangesMethod().getFullMethodName());
+        return priorities;
+    }
+
+    private static void put(Map<String, Priority> priorities, Priority priority, MethodDescriptor<?, ?>... methods) {
+        for (MethodDescriptor<?, ?> method : methods) {
+            priorities.put(method.getFullMethodName(), priority);
+        }
+    }
+}
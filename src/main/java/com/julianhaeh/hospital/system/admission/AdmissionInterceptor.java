@@ -0,0 +1,173 @@
+package com.julianhaeh.hospital.system.admission;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.julianhaeh.hospital.system.replica.ReadYourWrites;
+
+/**
+ * Admission control in front of the service. A call is admitted if
+ * <ul>
+ *   <li>its client has a token left ({@link ClientRateLimiter}, if configured), and</li>
+ *   <li>the calls in flight are below its priority's share of the adaptive concurrency
+ *       limit ({@link AdaptiveLimiter}).</li>
+ * </ul>
+ * Otherwise it fails at once with RESOURCE_EXHAUSTED instead of queuing for a thread or a
+ * connection. Clients are told apart by the x-client-id header, or their remote address.
+ * Methods without a priority, like the long-lived WatchChanges, are not limited.
+ *
+ * Only unary calls are latency samples for the adaptive limit. Long-running methods (bulk
+ * streams, snapshots, ingests) take a slot of a fixed limit of their own instead, their
+ * duration says nothing about queueing and their slots would starve the short calls.
+ */
+public class AdmissionInterceptor implements ServerInterceptor {
+
+    private final AdaptiveLimiter limiter;
+    private final ClientRateLimiter rateLimiter;
+    private final Map<String, Priority> priorities;
+    private final Set<String> longRunning;
+    private final Semaphore longRunningSlots;
+    private final Counter rateLimited;
+    private final Map<Priority, Counter> shed = new EnumMap<>(Priority.class);
+
+    // rateLimiter may be null, methods missing from priorities are not limited
+    public AdmissionInterceptor(AdaptiveLimiter limiter,
+                                ClientRateLimiter rateLimiter,
+                                Map<String, Priority> priorities,
+                                Set<String> longRunning,
+                                int longRunningLimit,
+                                MeterRegistry registry) {
+        this.limiter          = limiter;
+        this.rateLimiter      = rateLimiter;
+        this.priorities       = priorities;
+        this.longRunning      = longRunning;
+        this.longRunningSlots = new Semaphore(longRunningLimit);
+        Gauge.builder("hospital.admission.limit", limiter, AdaptiveLimiter::limit)
+            .register(registry);
+        Gauge.builder("hospital.admission.in.flight", limiter, AdaptiveLimiter::inFlight)
+            .register(registry);
+        Gauge.builder("hospital.admission.long.running.in.flight", longRunningSlots,
+                slots -> longRunningLimit - slots.availablePermits())
+            .register(registry);
+        this.rateLimited = Counter.builder("hospital.admission.rejected")
+            .tag("reason", "rate")
+            .register(registry);
+        for (Priority priority : Priority.values()) {
+            shed.put(priority, Counter.builder("hospital.admission.rejected")
+                .tag("reason", "limit")
+                .tag("priority", priority.name())
+                .register(registry));
+        }
+    }
+
+    @Override
+    public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call,
+                                                      Metadata headers,
+                                                      ServerCallHandler<Q, R> next) {
+        MethodDescriptor<Q, R> method = call.getMethodDescriptor();
+        Priority priority = priorities.get(method.getFullMethodName());
+        if (priority == null) {
+            return next.startCall(call, headers);
+        }
+        if (rateLimiter != null && !rateLimiter.tryAcquire(client(call, headers))) {
+            rateLimited.increment();
+            return reject(call, "Rate limit exceeded");
+        }
+        boolean fixed = longRunning.contains(method.getFullMethodName());
+        if (fixed ? !longRunningSlots.tryAcquire() : !limiter.tryAcquire(priority)) {
+            shed.get(priority).increment();
+            return reject(call, "Server overloaded");
+        }
+        AdmittedCall<Q, R> admitted = new AdmittedCall<>(call, fixed,
+            !fixed && method.getType() == MethodDescriptor.MethodType.UNARY);
+        ServerCall.Listener<Q> listener;
+        try {
+            listener = next.startCall(admitted, headers);
+        } catch (RuntimeException e) {
+            admitted.release(false);
+            throw e;
+        }
+        return new SimpleForwardingServerCallListener<>(listener) {
+            @Override
+            public void onHalfClose() {
+                try {
+                    super.onHalfClose();
+                } catch (RuntimeException e) {
+                    // the server closes the call itself, AdmittedCall.close doesn't see it
+                    admitted.release(false);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                admitted.release(false);
+                super.onCancel();
+            }
+
+            @Override
+            public void onComplete() {
+                admitted.release(false);
+                super.onComplete();
+            }
+        };
+    }
+
+    private static String client(ServerCall<?, ?> call, Metadata headers) {
+        String client = headers.get(ReadYourWrites.CLIENT_ID_HEADER);
+        return client != null ? client : String.valueOf(call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR));
+    }
+
+    private static <Q, R> ServerCall.Listener<Q> reject(ServerCall<Q, R> call, String reason) {
+        call.close(Status.RESOURCE_EXHAUSTED.withDescription(reason), new Metadata());
+        return new ServerCall.Listener<>() {};
+    }
+
+    // Gives the slot back on close, cancellation or the end of the call, whichever comes first
+    private final class AdmittedCall<Q, R> extends SimpleForwardingServerCall<Q, R> {
+
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final boolean longRunning;
+        private final boolean sampled;
+
+        AdmittedCall(ServerCall<Q, R> call, boolean longRunning, boolean sampled) {
+            super(call);
+            this.longRunning = longRunning;
+            this.sampled     = sampled;
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            release(sampled);
+            super.close(status, trailers);
+        }
+
+        void release(boolean sample) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (longRunning) {
+                longRunningSlots.release();
+            } else {
+                limiter.release(sample ? System.nanoTime() - start : -1);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.julianhaeh.hospital.system.admission;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Token bucket per client: rate calls per second, up to burst at once.
+ *
+ * Implemented as the generic cell rate algorithm, the whole bucket is one timestamp, the
+ * theoretical arrival time of the next call, advanced with a CAS. Buckets of clients that
+ * stay away long enough to refill are dropped.
+ */
+public class ClientRateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final Cache<String, AtomicLong> buckets;
+
+    public ClientRateLimiter(double rate, int burst) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.burstNanos    = (Math.max(1, burst) - 1) * intervalNanos;
+        this.buckets = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(Duration.ofNanos(Math.max(burstNanos + intervalNanos, TimeUnit.MINUTES.toNanos(1))))
+            .build();
+    }
+
+    public boolean tryAcquire(String client) {
+        AtomicLong arrival = buckets.get(client, c -> new AtomicLong(System.nanoTime()));
+        long now = System.nanoTime();
+        while (true) {
+            long theoretical = arrival.get();
+            long start = theoretical - now > 0 ? theoretical : now;
+            if (start - now > burstNanos) {
+                return false;
+            }
+            if (arrival.compareAndSet(theoretical, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.julianhaeh.hospital.system.admission;
+
+/**
+ * Priority class of an RPC. A class is admitted while the calls in flight stay below its
+ * share of the concurrency limit, so under load the lower classes are shed first and
+ * registrations last.
+ */
+public enum Priority {
+
+    CRITICAL(1.0),
+    WRITE(0.9),
+    READ(0.75),
+    BULK(0.5);
+
+    final double share;
+
+    Priority(double share) {
+        this.share = share;
+    }
+}
@@ -0,0 +1,42 @@
+package com.julianhaeh.hospital.system.cache;
+
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Bounded, expiring caches for patients and hospitals.
+ * Stats are recorded, actuator publishes them as cache.gets / cache.evictions metrics.
+ */
+@Configuration
+public class CacheConfig {
+
+    public static final String PATIENTS  = "patients";
+    public static final String HOSPITALS = "hospitals";
+
+    @Bean
+    public CacheManager cacheManager(
+            @Value("${hospital.cache.patients.maximum-size:100000}") long patientsMaximumSize,
+            @Value("${hospital.cache.patients.expire-after-write:10m}") Duration patientsTtl,
+            @Value("${hospital.cache.hospitals.maximum-size:10000}") long hospitalsMaximumSize,
+            @Value("${hospital.cache.hospitals.expire-after-write:1h}") Duration hospitalsTtl) {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        manager.setAllowNullValues(false);
+        manager.registerCustomCache(PATIENTS, Caffeine.newBuilder()
+            .maximumSize(patientsMaximumSize)
+            .expireAfterWrite(patientsTtl)
+            .recordStats()
+            .build());
+        manager.registerCustomCache(HOSPITALS, Caffeine.newBuilder()
+            .maximumSize(hospitalsMaximumSize)
+            .expireAfterWrite(hospitalsTtl)
+            .recordStats()
+            .build());
+        return manager;
+    }
+}
@@ -0,0 +1,225 @@
+package com.julianhaeh.hospital.system.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.grpc.Hospital;
+import com.julianhaeh.hospital.system.grpc.Patient;
+import com.julianhaeh.hospital.system.grpc.ProtoMapper;
+import com.julianhaeh.hospital.system.replica.ReplicaRoutingDataSource;
+import com.julianhaeh.hospital.system.repository.HospitalProjection;
+import com.julianhaeh.hospital.system.repository.HospitalRepository;
+import com.julianhaeh.hospital.system.repository.PatientProjection;
+import com.julianhaeh.hospital.system.repository.PatientRepository;
+import com.julianhaeh.hospital.system.repository.ProjectionRepository;
+
+/**
+ * Read-through cache in front of PatientRepository.findById and HospitalRepository.findById.
+ * Holds the immutable proto messages, so cached values can be shared between calls.
+ * Writers must evict the id after modifying or deleting an entity.
+ *
+ * A load that started before an eviction of its id may have read the old row, so it is
+ * returned but not cached. With read replicas a load may see data up to max-lag old, so ids
+ * evicted within the last two max-lag periods are not cached at all.
+ */
+@Component
+public class EntityCache {
+
+    private static final int LOAD_CHUNK_SIZE = 1000;
+    // evictions are remembered at least this long, longer than any load takes
+    private static final Duration EVICTION_WINDOW = Duration.ofSeconds(10);
+
+    private final PatientRepository patientRepo;
+    private final HospitalRepository hospitalRepo;
+    private final ProjectionRepository projections;
+    private final Cache patients;
+    private final Cache hospitals;
+    private final boolean replicated;
+    private final AtomicLong evictions = new AtomicLong();
+    // ids evicted recently, by the value of evictions after their eviction
+    private final Map<Long, Long> recentPatientEvictions;
+    private final Map<Long, Long> recentHospitalEvictions;
+
+    public EntityCache(PatientRepository patientRepo,
+                       HospitalRepository hospitalRepo,
+                       ProjectionRepository projections,
+                       CacheManager cacheManager,
+                       ObjectProvider<ReplicaRoutingDataSource> replicas) {
+        this.patientRepo  = patientRepo;
+        this.hospitalRepo = hospitalRepo;
+        this.projections  = projections;
+        this.patients     = cacheManager.getCache(CacheConfig.PATIENTS);
+        this.hospitals    = cacheManager.getCache(CacheConfig.HOSPITALS);
+        ReplicaRoutingDataSource replicaRouting = replicas.getIfAvailable();
+        Duration window = replicaRouting == null
+            ? EVICTION_WINDOW
+            : max(EVICTION_WINDOW, replicaRouting.maxLag().multipliedBy(2));
+        this.replicated              = replicaRouting != null;
+        this.recentPatientEvictions  = recentEvictions(window);
+        this.recentHospitalEvictions = recentEvictions(window);
+    }
+
+    private static Map<Long, Long> recentEvictions(Duration window) {
+        return Caffeine.newBuilder()
+            .expireAfterWrite(window)
+            .<Long, Long>build()
+            .asMap();
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    public Optional<Patient> findPatient(long id) {
+        Patient cached = patients.get(id, Patient.class);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        // misses are not cached, a new patient never reuses an id
+        long loadStart = evictions.get();
+        Optional<Patient> loaded = patientRepo.findById(id).map(ProtoMapper::toProto);
+        loaded.ifPresent(p -> put(patients, recentPatientEvictions, loadStart, id, p));
+        return loaded;
+    }
+
+    public Optional<Hospital> findHospital(long id) {
+        Hospital cached = hospitals.get(id, Hospital.class);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long loadStart = evictions.get();
+        Optional<Hospital> loaded = hospitalRepo.findById(id).map(ProtoMapper::toProto);
+        loaded.ifPresent(h -> put(hospitals, recentHospitalEvictions, loadStart, id, h));
+        return loaded;
+    }
+
+    // Resolves all ids in order, misses are loaded with findAllById in chunks
+    public List<Patient> findPatients(long[] ids) {
+        return findAll(patients, Patient.class, ids, p -> p, missing -> {
+            Map<Long, Patient> loaded = new HashMap<>();
+            long loadStart = evictions.get();
+            for (PatientEntity entity : patientRepo.findAllById(missing)) {
+                Patient p = ProtoMapper.toProto(entity);
+                put(patients, recentPatientEvictions, loadStart, p.getId(), p);
+                loaded.put(p.getId(), p);
+            }
+            return loaded;
+        });
+    }
+
+    // Only the given fields. Hits are masked copies, misses are loaded as projections and
+    // not cached, they are incomplete.
+    public List<Patient> findPatients(long[] ids, Set<PatientProjection.Field> fields) {
+        if (fields.containsAll(PatientProjection.ALL)) {
+            return findPatients(ids);
+        }
+        return findAll(patients, Patient.class, ids, p -> ProtoMapper.mask(p, fields), missing -> {
+            Map<Long, Patient> loaded = new HashMap<>();
+            for (PatientProjection row : projections.findPatients(missing, fields)) {
+                loaded.put(row.id(), ProtoMapper.toProto(row, fields));
+            }
+            return loaded;
+        });
+    }
+
+    public List<Hospital> findHospitals(long[] ids) {
+        return findAll(hospitals, Hospital.class, ids, h -> h, missing -> {
+            Map<Long, Hospital> loaded = new HashMap<>();
+            long loadStart = evictions.get();
+            for (HospitalEntity entity : hospitalRepo.findAllById(missing)) {
+                Hospital h = ProtoMapper.toProto(entity);
+                put(hospitals, recentHospitalEvictions, loadStart, h.getId(), h);
+                loaded.put(h.getId(), h);
+            }
+            return loaded;
+        });
+    }
+
+    public List<Hospital> findHospitals(long[] ids, Set<HospitalProjection.Field> fields) {
+        if (fields.containsAll(HospitalProjection.ALL)) {
+            return findHospitals(ids);
+        }
+        return findAll(hospitals, Hospital.class, ids, h -> ProtoMapper.mask(h, fields), missing -> {
+            Map<Long, Hospital> loaded = new HashMap<>();
+            for (HospitalProjection row : projections.findHospitals(missing, fields)) {
+                loaded.put(row.id(), ProtoMapper.toProto(row, fields));
+            }
+            return loaded;
+        });
+    }
+
+    public void evictPatient(long id) {
+        // remembered before the evict, so a put that comes after the evict sees it
+        recentPatientEvictions.put(id, evictions.incrementAndGet());
+        patients.evict(id);
+    }
+
+    public void evictHospital(long id) {
+        recentHospitalEvictions.put(id, evictions.incrementAndGet());
+        hospitals.evict(id);
+    }
+
+    // loadStart is the value of evictions before the load
+    private void put(Cache cache, Map<Long, Long> recentEvictions, long loadStart, long id, Object value) {
+        if (!cacheable(recentEvictions, loadStart, id)) {
+            return;
+        }
+        cache.put(id, value);
+        // an eviction between the check and the put did not remove the value
+        if (!cacheable(recentEvictions, loadStart, id)) {
+            cache.evict(id);
+        }
+    }
+
+    private boolean cacheable(Map<Long, Long> recentEvictions, long loadStart, long id) {
+        Long evictedAt = recentEvictions.get(id);
+        return evictedAt == null || (!replicated && evictedAt <= loadStart);
+    }
+
+    // loader resolves a chunk of missing ids, by id
+    private static <P> List<P> findAll(Cache cache,
+                                       Class<P> type,
+                                       long[] ids,
+                                       UnaryOperator<P> onHit,
+                                       Function<List<Long>, Map<Long, P>> loader) {
+        Map<Long, P> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (long id : ids) {
+            P cached = cache.get(id, type);
+            if (cached != null) {
+                found.put(id, onHit.apply(cached));
+            } else {
+                missing.add(id);
+            }
+        }
+        // keep IN lists below the bind parameter limits of the drivers
+        for (int from = 0; from < missing.size(); from += LOAD_CHUNK_SIZE) {
+            List<Long> chunk = missing.subList(from, Math.min(from + LOAD_CHUNK_SIZE, missing.size()));
+            found.putAll(loader.apply(chunk));
+        }
+        List<P> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            P p = found.get(id);
+            if (p != null) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,398 @@
+package com.julianhaeh.hospital.system.changes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.julianhaeh.hospital.system.grpc.ChangeEvent;
+import com.julianhaeh.hospital.system.grpc.ChangeType;
+import com.julianhaeh.hospital.system.grpc.Hospital;
+import com.julianhaeh.hospital.system.grpc.Patient;
+
+/**
+ * Append-only log of committed changes in memory-mapped segment files under
+ * hospital.changes.dir, off if that is empty.
+ *
+ * An offset is the position of an event in the log: segment n covers the offsets
+ * n * segment-size up to (n + 1) * segment-size. A record is its length, a CRC32C and the
+ * serialized ChangeEvent; a length of -1 marks the unused rest of a segment. The length is
+ * written last, so a record torn by a crash reads as the end of the log at startup.
+ *
+ * Readers read straight from the mapped segments, the log keeps no events on the heap.
+ * Only the newest max-segments segments are kept, older offsets are out of range.
+ * Writes reach the page cache, they survive a crash of the process but not of the machine.
+ */
+@Component
+public final class ChangeLog implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeLog.class);
+
+    private static final int HEADER = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SUFFIX = ".log";
+
+    private record Segment(long base, Path file, MappedByteBuffer buffer) {}
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService notifier;
+    private final Counter events;
+
+    // offset after the last complete record, everything below it can be read
+    private volatile long end;
+    // guarded by this
+    private Segment current;
+
+    public ChangeLog(MeterRegistry meterRegistry,
+                     @Value("${hospital.changes.dir:}") String dir,
+                     @Value("${hospital.changes.segment-size:64MB}") DataSize segmentSize,
+                     @Value("${hospital.changes.max-segments:16}") int maxSegments) {
+        this.dir         = dir.isBlank() ? null : Path.of(dir);
+        this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+        this.maxSegments = maxSegments;
+        this.events = Counter.builder("hospital.changes.events")
+            .register(meterRegistry);
+        Gauge.builder("hospital.changes.end.offset", this, ChangeLog::endOffset)
+            .register(meterRegistry);
+        Gauge.builder("hospital.changes.watchers", subscriptions, List::size)
+            .register(meterRegistry);
+        if (this.dir == null) {
+            this.notifier = null;
+            return;
+        }
+        this.notifier = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "change-notifier");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the change log in " + dir, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    // Oldest offset that can still be read
+    public long firstOffset() {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        return first == null ? 0 : first.getKey();
+    }
+
+    public long endOffset() {
+        return end;
+    }
+
+    // --- Events, appended after the commit ---
+
+    public void hospitalCreated(Hospital hospital) {
+        hospitalChanged(ChangeType.HOSPITAL_CREATED, hospital);
+    }
+
+    public void hospitalModified(Hospital hospital) {
+        hospitalChanged(ChangeType.HOSPITAL_MODIFIED, hospital);
+    }
+
+    public void hospitalDeleted(long hospitalId) {
+        if (isEnabled()) {
+            append(event(ChangeType.HOSPITAL_DELETED).setHospitalId(hospitalId).build());
+        }
+    }
+
+    public void patientCreated(Patient patient) {
+        patientChanged(ChangeType.PATIENT_CREATED, patient);
+    }
+
+    public void patientModified(Patient patient) {
+        patientChanged(ChangeType.PATIENT_MODIFIED, patient);
+    }
+
+    public void patientDeleted(long patientId) {
+        if (isEnabled()) {
+            append(event(ChangeType.PATIENT_DELETED).setPatientId(patientId).build());
+        }
+    }
+
+    public void registered(long patientId, long hospitalId) {
+        if (isEnabled()) {
+            append(event(ChangeType.REGISTERED).setPatientId(patientId).setHospitalId(hospitalId).build());
+        }
+    }
+
+    public void unregistered(long patientId, long hospitalId) {
+        if (isEnabled()) {
+            append(event(ChangeType.UNREGISTERED).setPatientId(patientId).setHospitalId(hospitalId).build());
+        }
+    }
+
+    private void hospitalChanged(ChangeType type, Hospital hospital) {
+        if (isEnabled()) {
+            append(event(type).setHospitalId(hospital.getId()).setHospital(hospital).build());
+        }
+    }
+
+    private void patientChanged(ChangeType type, Patient patient) {
+        if (isEnabled()) {
+            append(event(type).setPatientId(patient.getId()).setPatient(patient).build());
+        }
+    }
+
+    private static ChangeEvent.Builder event(ChangeType type) {
+        return ChangeEvent.newBuilder()
+            .setType(type)
+            .setTimeMillis(System.currentTimeMillis());
+    }
+
+    // --- Writing ---
+
+    // Returns the offset of the event
+    public long append(ChangeEvent event) {
+        int length = event.getSerializedSize();
+        if (HEADER + length > segmentSize - Integer.BYTES) {
+            throw new IllegalArgumentException("Change event of " + length + " bytes exceeds the segment size");
+        }
+        long offset;
+        synchronized (this) {
+            int pos = (int) (end - current.base());
+            if (pos + HEADER + length > segmentSize) {
+                if (pos + Integer.BYTES <= segmentSize) {
+                    current.buffer().putInt(pos, END_OF_SEGMENT);
+                }
+                roll(current.base() + segmentSize);
+                pos = 0;
+            }
+            MappedByteBuffer buffer = current.buffer();
+            ByteBuffer payload = buffer.slice(pos + HEADER, length);
+            try {
+                event.writeTo(CodedOutputStream.newInstance(payload));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.putInt(pos + Integer.BYTES, crc(buffer, pos + HEADER, length));
+            buffer.putInt(pos, length);
+            offset = current.base() + pos;
+            end = offset + HEADER + length;
+        }
+        events.increment();
+        subscriptions.forEach(Subscription::signal);
+        return offset;
+    }
+
+    private void roll(long base) {
+        try {
+            current = map(base);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create change log segment " + base, e);
+        }
+        segments.put(base, current);
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            // readers still holding the mapping can finish reading it
+            try {
+                Files.deleteIfExists(oldest.file());
+            } catch (IOException e) {
+                log.warn("Could not delete change log segment {}", oldest.file(), e);
+            }
+        }
+    }
+
+    private Segment map(long base) throws IOException {
+        Path file = dir.resolve(String.format("%020d%s", base, SUFFIX));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(base, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    // Maps the existing segments and finds the end of the last one
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).toList()) {
+                String name = file.getFileName().toString();
+                long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                if (Files.size(file) != segmentSize) {
+                    throw new IllegalStateException("Change log segment " + file + " was written with another segment size");
+                }
+                segments.put(base, map(base));
+            }
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+            end = 0;
+            return;
+        }
+        current = segments.lastEntry().getValue();
+        MappedByteBuffer buffer = current.buffer();
+        int pos = 0;
+        while (pos + HEADER <= segmentSize) {
+            int length = buffer.getInt(pos);
+            if (length == END_OF_SEGMENT) {
+                pos = segmentSize;
+                break;
+            }
+            if (length <= 0 || pos + HEADER + length > segmentSize
+                    || buffer.getInt(pos + Integer.BYTES) != crc(buffer, pos + HEADER, length)) {
+                // not written yet or torn, appends continue here
+                buffer.putInt(pos, 0);
+                break;
+            }
+            pos += HEADER + length;
+        }
+        end = current.base() + pos;
+        if (pos + HEADER > segmentSize) {
+            if (pos + Integer.BYTES <= segmentSize) {
+                buffer.putInt(pos, END_OF_SEGMENT);
+            }
+            roll(current.base() + segmentSize);
+            end = current.base();
+        }
+        log.info("Opened change log {} from offset {} to {}", dir, firstOffset(), end);
+    }
+
+    // --- Reading ---
+
+    /**
+     * Reads up to max events starting at offset into the list and returns the offset after
+     * the last one read. An offset of 0 starts with the oldest event kept.
+     *
+     * @throws OffsetOutOfRangeException if the offset is not kept (any more) or beyond the end
+     * @throws IllegalArgumentException if the offset is not the start of an event
+     */
+    public long read(long offset, int max, List<ChangeEvent> out) {
+        if (offset == 0) {
+            offset = firstOffset();
+        }
+        long readableEnd = end;
+        checkOffset(offset, readableEnd);
+        int read = 0;
+        while (read < max && offset < readableEnd) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+            if (entry == null || offset < firstOffset()) {
+                throw new OffsetOutOfRangeException("Offset " + offset + " is no longer kept, the oldest is " + firstOffset());
+            }
+            Segment segment = entry.getValue();
+            int pos = (int) (offset - segment.base());
+            int length = pos + Integer.BYTES <= segmentSize ? segment.buffer().getInt(pos) : END_OF_SEGMENT;
+            if (length == END_OF_SEGMENT || pos + HEADER > segmentSize) {
+                offset = segment.base() + segmentSize;
+                continue;
+            }
+            if (length <= 0 || pos + HEADER + length > segmentSize
+                    || segment.buffer().getInt(pos + Integer.BYTES) != crc(segment.buffer(), pos + HEADER, length)) {
+                throw new IllegalArgumentException("Offset " + offset + " is not the start of a change event");
+            }
+            long next = offset + HEADER + length;
+            try {
+                out.add(ChangeEvent.parseFrom(CodedInputStream.newInstance(segment.buffer().slice(pos + HEADER, length)))
+                    .toBuilder()
+                    .setOffset(offset)
+                    .setNextOffset(next)
+                    .build());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Offset " + offset + " is not the start of a change event", e);
+            }
+            offset = next;
+            read++;
+        }
+        return offset;
+    }
+
+    // Throws unless reading can start at the offset
+    public void checkOffset(long offset) {
+        checkOffset(offset == 0 ? firstOffset() : offset, end);
+    }
+
+    private void checkOffset(long offset, long readableEnd) {
+        if (offset < firstOffset()) {
+            throw new OffsetOutOfRangeException("Offset " + offset + " is no longer kept, the oldest is " + firstOffset());
+        }
+        if (offset > readableEnd) {
+            throw new OffsetOutOfRangeException("Offset " + offset + " is beyond the end of the log at " + readableEnd);
+        }
+    }
+
+    private static int crc(ByteBuffer buffer, int from, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(from, length));
+        return (int) crc.getValue();
+    }
+
+    // --- Subscriptions ---
+
+    /**
+     * Calls the listener on a notifier thread after events have been appended. Signals
+     * arriving while the listener is pending or running are merged into one call.
+     */
+    public Subscription subscribe(Runnable listener) {
+        Subscription subscription = new Subscription(listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public final class Subscription implements AutoCloseable {
+
+        private final Runnable listener;
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        private Subscription(Runnable listener) {
+            this.listener = listener;
+        }
+
+        private void signal() {
+            if (pending.compareAndSet(false, true)) {
+                notifier.execute(() -> {
+                    pending.set(false);
+                    listener.run();
+                });
+            }
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (notifier != null) {
+            notifier.shutdownNow();
+            synchronized (this) {
+                segments.values().forEach(s -> s.buffer().force());
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.julianhaeh.hospital.system.changes;
+
+/**
+ * The requested offset is no longer kept in the change log, or not yet written.
+ */
+public class OffsetOutOfRangeException extends RuntimeException {
+
+    public OffsetOutOfRangeException(String message) {
+        super(message);
+    }
+}
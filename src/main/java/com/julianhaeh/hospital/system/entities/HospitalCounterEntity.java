@@ -0,0 +1,44 @@
+package com.julianhaeh.hospital.system.entities;
+
+import jakarta.persistence.*;
+
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+// Number of patients registered at a hospital, one row per hospital. Only maintained with
+// hospital.stats.counter-table=true, see HospitalCounters.
+@Entity
+@Table(name = "hospital_counter")
+public class HospitalCounterEntity {
+
+    @Id
+    @Column(name = "hospital_id")
+    private Long hospitalId;
+
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @MapsId
+    @JoinColumn(name = "hospital_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private HospitalEntity hospital;
+
+    @Column(nullable = false)
+    private long patients;
+
+    public HospitalCounterEntity() {}
+
+    public HospitalCounterEntity(HospitalEntity hospital) {
+        this.hospital = hospital;
+    }
+
+    public Long getHospitalId() {
+        return hospitalId;
+    }
+
+    public HospitalEntity getHospital() {
+        return hospital;
+    }
+
+    public long getPatients() {
+        return patients;
+    }
+}
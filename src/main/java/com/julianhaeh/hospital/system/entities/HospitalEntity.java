@@ -7,7 +7,9 @@ import jakarta.persistence.*;
 public class HospitalEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence with pooled allocation, IDENTITY would disable JDBC insert batching
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hospital_seq")
+    @SequenceGenerator(name = "hospital_seq", sequenceName = "hospital_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
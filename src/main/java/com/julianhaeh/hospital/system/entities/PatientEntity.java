@@ -3,12 +3,17 @@ package com.julianhaeh.hospital.system.entities;
 import jakarta.persistence.*;
 import java.time.LocalDate;
 
+// The index serves the lookups of patients by name and birth date, see PatientKey
 @Entity
-@Table(name = "patient")
+@Table(name = "patient", indexes = {
+    @Index(name = "idx_patient_name_birth_date", columnList = "last_name, first_name, birth_date")
+})
 public class PatientEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence with pooled allocation, IDENTITY would disable JDBC insert batching
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "patient_seq")
+    @SequenceGenerator(name = "patient_seq", sequenceName = "patient_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "first_name", nullable = false)
@@ -8,8 +8,13 @@ import java.util.Objects;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
+// The primary key is (hospital_id, patient_id), Hibernate orders the embedded id columns by
+// name. It already serves lookups by hospital, the index below covers lookups by patient.
 @Entity
-@Table(name = "registration")
+@Table(name = "registration", indexes = {
+    @Index(name = "idx_registration_patient_hospital", columnList = "patient_id, hospital_id"),
+    @Index(name = "idx_registration_registered_at",    columnList = "registered_at")
+})
 public class RegistrationEntity {
 
     @EmbeddedId
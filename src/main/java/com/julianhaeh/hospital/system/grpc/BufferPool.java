@@ -0,0 +1,29 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A few reusable byte arrays for encoding responses. Arrays larger than maxRetained are
+ * left to the garbage collector, so one huge response doesn't pin its buffer forever.
+ */
+final class BufferPool {
+
+    private final ArrayBlockingQueue<byte[]> free;
+    private final int maxRetained;
+
+    BufferPool(int buffers, int maxRetained) {
+        this.free        = new ArrayBlockingQueue<>(Math.max(1, buffers));
+        this.maxRetained = maxRetained;
+    }
+
+    byte[] acquire(int minSize) {
+        byte[] buffer = free.poll();
+        return buffer != null && buffer.length >= minSize ? buffer : new byte[minSize];
+    }
+
+    void release(byte[] buffer) {
+        if (buffer.length > 0 && buffer.length <= maxRetained) {
+            free.offer(buffer);
+        }
+    }
+}
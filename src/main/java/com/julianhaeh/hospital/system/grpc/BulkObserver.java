@@ -0,0 +1,109 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import io.grpc.stub.StreamObserver;
+import org.springframework.core.NestedExceptionUtils;
+
+/**
+ * Request side of a client-streaming bulk RPC.
+ * Rows are validated as they arrive and written in batches of a fixed size. If a
+ * batch fails, its rows are retried one by one so the summary can name the bad rows.
+ */
+class BulkObserver<R, E> implements StreamObserver<R> {
+
+    @FunctionalInterface
+    interface BatchWriter<E> {
+        // returns the generated ids, or an empty list if the rows have none
+        List<Long> write(List<E> batch);
+    }
+
+    private final StreamObserver<BulkSummary> resp;
+    private final Function<R, E> mapper;
+    private final BatchWriter<E> writer;
+    private final int batchSize;
+
+    private final List<R> pending = new ArrayList<>();
+    private final List<Long> pendingRows = new ArrayList<>();
+    private final BulkSummary.Builder summary = BulkSummary.newBuilder();
+    private long row = 0;
+
+    BulkObserver(StreamObserver<BulkSummary> resp,
+                 Function<R, E> mapper,
+                 BatchWriter<E> writer,
+                 int batchSize) {
+        this.resp      = resp;
+        this.mapper    = mapper;
+        this.writer    = writer;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void onNext(R value) {
+        long current = row++;
+        summary.setReceived(summary.getReceived() + 1);
+        try {
+            mapper.apply(value);
+        } catch (RuntimeException e) {
+            addError(current, e);
+            return;
+        }
+        pending.add(value);
+        pendingRows.add(current);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // client aborted, batches committed so far stay committed
+        pending.clear();
+        pendingRows.clear();
+    }
+
+    @Override
+    public void onCompleted() {
+        flush();
+        resp.onNext(summary.build());
+        resp.onCompleted();
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // map again for every attempt, entities of a rolled back batch can't be persisted twice
+        try {
+            List<E> batch = new ArrayList<>(pending.size());
+            for (R r : pending) {
+                batch.add(mapper.apply(r));
+            }
+            succeeded(writer.write(batch), pending.size());
+        } catch (RuntimeException batchFailure) {
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    succeeded(writer.write(List.of(mapper.apply(pending.get(i)))), 1);
+                } catch (RuntimeException e) {
+                    addError(pendingRows.get(i), e);
+                }
+            }
+        }
+        pending.clear();
+        pendingRows.clear();
+    }
+
+    private void succeeded(List<Long> ids, int count) {
+        summary.setSucceeded(summary.getSucceeded() + count);
+        summary.addAllCreatedIds(ids);
+    }
+
+    private void addError(long failedRow, RuntimeException e) {
+        summary.addErrors(BulkRowError.newBuilder()
+            .setRow(failedRow)
+            .setMessage(String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()))
+            .build());
+    }
+}
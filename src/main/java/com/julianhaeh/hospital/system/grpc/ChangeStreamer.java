@@ -0,0 +1,90 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import com.julianhaeh.hospital.system.changes.ChangeLog;
+import com.julianhaeh.hospital.system.changes.OffsetOutOfRangeException;
+
+/**
+ * Streams the change log from an offset on, and new events as they are appended, until
+ * the client cancels. Reads from the log only while the transport is ready, so a slow
+ * client falls behind in the log instead of in the server's memory.
+ */
+class ChangeStreamer {
+
+    private final StreamObserver<ChangeEvent> resp;
+    private final ChangeLog changeLog;
+    private final Set<ChangeType> types;
+    private final int chunkSize;
+
+    private long cursor;
+    private boolean done = false;
+    private volatile boolean cancelled = false;
+    private ChangeLog.Subscription subscription;
+
+    // an empty set of types means all of them
+    ChangeStreamer(StreamObserver<ChangeEvent> resp,
+                   ChangeLog changeLog,
+                   long fromOffset,
+                   Set<ChangeType> types,
+                   int chunkSize) {
+        this.resp      = resp;
+        this.changeLog = changeLog;
+        this.cursor    = fromOffset;
+        this.types     = types;
+        this.chunkSize = chunkSize;
+    }
+
+    void start() {
+        subscription = changeLog.subscribe(this::drain);
+        if (resp instanceof ServerCallStreamObserver<ChangeEvent> call) {
+            call.setOnCancelHandler(() -> {
+                cancelled = true;
+                subscription.close();
+            });
+            call.setOnReadyHandler(this::drain);
+        }
+        drain();
+    }
+
+    private boolean isReady() {
+        if (resp instanceof ServerCallStreamObserver<ChangeEvent> call) {
+            return call.isReady();
+        }
+        return true;
+    }
+
+    private synchronized void drain() {
+        List<ChangeEvent> events = new ArrayList<>(chunkSize);
+        try {
+            while (!done && !cancelled && isReady()) {
+                events.clear();
+                cursor = changeLog.read(cursor, chunkSize, events);
+                if (events.isEmpty()) {
+                    // caught up, the subscription calls again after the next append
+                    return;
+                }
+                for (ChangeEvent event : events) {
+                    if (types.isEmpty() || types.contains(event.getType())) {
+                        resp.onNext(event);
+                    }
+                }
+            }
+        } catch (OffsetOutOfRangeException e) {
+            fail(io.grpc.Status.OUT_OF_RANGE.withDescription(e.getMessage()));
+        } catch (RuntimeException e) {
+            fail(io.grpc.Status.INTERNAL.withDescription("Streaming failed").withCause(e));
+        }
+    }
+
+    private void fail(io.grpc.Status status) {
+        done = true;
+        subscription.close();
+        resp.onError(status.asRuntimeException());
+    }
+}
@@ -0,0 +1,94 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+
+/**
+ * A response message that is already serialized, in a buffer from a {@link BufferPool}.
+ * gRPC drains it straight into its transport buffers, after that the buffer goes back to
+ * the pool.
+ */
+public final class EncodedMessage {
+
+    private final byte[] buffer;
+    private final int size;
+    private final BufferPool pool;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    EncodedMessage(byte[] buffer, int size, BufferPool pool) {
+        this.buffer = buffer;
+        this.size   = size;
+        this.pool   = pool;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // A copy of the bytes, the buffer itself may be reused
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    InputStream stream() {
+        return new Stream();
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            pool.release(buffer);
+        }
+    }
+
+    private final class Stream extends InputStream implements KnownLength, Drainable {
+
+        private int position;
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int n = size - position;
+            target.write(buffer, position, n);
+            position = size;
+            release();
+            return n;
+        }
+
+        @Override
+        public int read() {
+            if (position == size) {
+                release();
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == size) {
+                release();
+                return -1;
+            }
+            int n = Math.min(len, size - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return size - position;
+        }
+
+        @Override
+        public void close() {
+            position = size;
+            release();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selects the executor the gRPC server runs its handlers on (hospital.grpc.executor):
+ * <ul>
+ *   <li>default: grpc-java's own cached thread pool</li>
+ *   <li>platform: a fixed pool of hospital.grpc.platform-threads threads</li>
+ *   <li>virtual: one virtual thread per task</li>
+ * </ul>
+ * Every handler blocks on JDBC, so in virtual mode the number of tasks running at once is
+ * capped at the connection pool size. Excess calls park cheaply on the semaphore instead of
+ * queuing inside Hikari, where they would time out after connectionTimeout.
+ */
+@Configuration
+public class GrpcExecutorConfig {
+
+    @Bean(name = "grpcExecutor", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "hospital.grpc.executor", havingValue = "platform")
+    public ExecutorService platformGrpcExecutor(@Value("${hospital.grpc.platform-threads:200}") int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    @Bean(name = "grpcExecutor", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "hospital.grpc.executor", havingValue = "virtual")
+    public ExecutorService virtualGrpcExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    public GrpcServerConfigurer grpcExecutorConfigurer(
+            @Qualifier("grpcExecutor") ObjectProvider<ExecutorService> grpcExecutor,
+            @Value("${hospital.grpc.executor:default}") String mode,
+            @Value("${hospital.grpc.max-concurrent-calls:0}") int maxConcurrentCalls,
+            DataSource dataSource) {
+        return serverBuilder -> grpcExecutor.ifAvailable(executor -> {
+            if ("virtual".equals(mode)) {
+                int limit = maxConcurrentCalls > 0 ? maxConcurrentCalls : connectionPoolSize(dataSource);
+                serverBuilder.executor(new LimitingExecutor(executor, limit));
+            } else {
+                serverBuilder.executor(executor);
+            }
+        });
+    }
+
+    private static int connectionPoolSize(DataSource dataSource) {
+        try {
+            // unwrap, with read replicas the DataSource is a proxy in front of the primary pool
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            }
+        } catch (SQLException e) {
+            // fall through to the default
+        }
+        // Hikari's default
+        return 10;
+    }
+
+    /**
+     * Runs each task only while holding one of a fixed number of permits.
+     */
+    static final class LimitingExecutor implements Executor {
+
+        private final Executor delegate;
+        private final Semaphore permits;
+
+        LimitingExecutor(Executor delegate, int limit) {
+            this.delegate = delegate;
+            this.permits  = new Semaphore(limit);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            delegate.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+}
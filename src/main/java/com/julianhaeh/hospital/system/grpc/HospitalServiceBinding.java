@@ -0,0 +1,51 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.stub.ServerCalls;
+import net.devh.boot.grpc.server.service.GrpcService;
+
+/**
+ * The HospitalService as registered with the server: the generated binding of
+ * {@link HospitalServiceImpl}, except for ListPatientsOfHospital, whose responses may be
+ * {@link EncodedMessage}s (see {@link HospitalServiceImpl#listPatientsOfHospitalEncoded}).
+ * The generated bindService() is final, hence the wrapper.
+ */
+@GrpcService
+public class HospitalServiceBinding implements BindableService {
+
+    private final HospitalServiceImpl impl;
+
+    public HospitalServiceBinding(HospitalServiceImpl impl) {
+        this.impl = impl;
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        ServerServiceDefinition generated = impl.bindService();
+        MethodDescriptor<ListPatientsRequest, PatientList> generatedList =
+            HospitalServiceGrpc.getListPatientsOfHospitalMethod();
+        MethodDescriptor<ListPatientsRequest, Object> list = generatedList
+            .toBuilder(generatedList.getRequestMarshaller(), new PatientListMarshaller())
+            .build();
+
+        ServiceDescriptor generatedService = generated.getServiceDescriptor();
+        ServiceDescriptor.Builder service = ServiceDescriptor.newBuilder(generatedService.getName())
+            .setSchemaDescriptor(generatedService.getSchemaDescriptor());
+        for (MethodDescriptor<?, ?> method : generatedService.getMethods()) {
+            service.addMethod(method == generatedList ? list : method);
+        }
+
+        ServerServiceDefinition.Builder definition = ServerServiceDefinition.builder(service.build())
+            .addMethod(list, ServerCalls.asyncUnaryCall(impl::listPatientsOfHospitalEncoded));
+        for (ServerMethodDefinition<?, ?> method : generated.getMethods()) {
+            if (method.getMethodDescriptor() != generatedList) {
+                definition.addMethod(method);
+            }
+        }
+        return definition.build();
+    }
+}
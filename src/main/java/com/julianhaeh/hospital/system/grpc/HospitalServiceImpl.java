@@ -1,237 +1,748 @@
 package com.julianhaeh.hospital.system.grpc;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.Optional;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import io.grpc.stub.StreamObserver;
-import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 import com.google.protobuf.Empty;
+import com.google.protobuf.FieldMask;
+import com.julianhaeh.hospital.system.changes.ChangeLog;
+import com.julianhaeh.hospital.system.changes.OffsetOutOfRangeException;
 import com.julianhaeh.hospital.system.entities.*;
-import com.julianhaeh.hospital.system.repository.*;
+import com.julianhaeh.hospital.system.ingest.IngestService;
+import com.julianhaeh.hospital.system.repository.DayCount;
+import com.julianhaeh.hospital.system.repository.HospitalCount;
+import com.julianhaeh.hospital.system.repository.HospitalProjection;
+import com.julianhaeh.hospital.system.repository.PatientProjection;
+import com.julianhaeh.hospital.system.repository.PatientQuery;
+import com.julianhaeh.hospital.system.service.HospitalService;
+import com.julianhaeh.hospital.system.service.NotFoundException;
+import com.julianhaeh.hospital.system.service.RegistrationPipeline;
+import com.julianhaeh.hospital.system.snapshot.SnapshotService;
 
-@GrpcService
+// Registered with the server through HospitalServiceBinding
+@Component
 public class HospitalServiceImpl extends HospitalServiceGrpc.HospitalServiceImplBase {
 
-    private final HospitalRepository hospitalRepo;
-    private final PatientRepository patientRepo;
-    private final RegistrationRepository registrationRepo;
+    private static final int DEFAULT_STATS_DAYS = 30;
+    private static final int DEFAULT_STATS_TOP = 10;
 
-    public HospitalServiceImpl(HospitalRepository hospitalRepo,
-                               PatientRepository  patientRepo,
-                               RegistrationRepository registrationRepo) {
-        this.hospitalRepo     = hospitalRepo;
-        this.patientRepo      = patientRepo;
-        this.registrationRepo = registrationRepo;
+    private final HospitalService service;
+    private final RegistrationPipeline registrationPipeline;
+    private final ChangeLog changeLog;
+    private final SnapshotService snapshots;
+    private final IngestService ingest;
+    // Chunk size for streamed lists and upper bound for requested page sizes
+    private final int pageSize;
+    // Rows per transaction in the bulk RPCs
+    private final int bulkBatchSize;
+    // Upper bound for the results of one search
+    private final int maxSearchResults;
+    // Patients from which ListPatientsOfHospital encodes the rows directly
+    private final int encodeThreshold;
+    private final BufferPool encodeBuffers;
+
+    public HospitalServiceImpl(HospitalService service,
+                               RegistrationPipeline registrationPipeline,
+                               ChangeLog changeLog,
+                               SnapshotService snapshots,
+                               IngestService ingest,
+                               @Value("${hospital.list.page-size:500}") int pageSize,
+                               @Value("${hospital.bulk.batch-size:1000}") int bulkBatchSize,
+                               @Value("${hospital.search.max-results:1000}") int maxSearchResults,
+                               @Value("${hospital.list.encode-threshold:1000}") int encodeThreshold,
+                               @Value("${hospital.list.encode-buffers:4}") int encodeBuffers,
+                               @Value("${hospital.list.encode-buffer-max-size:16MB}") DataSize encodeBufferMaxSize) {
+        this.service              = service;
+        this.registrationPipeline = registrationPipeline;
+        this.changeLog            = changeLog;
+        this.snapshots            = snapshots;
+        this.ingest               = ingest;
+        this.pageSize             = pageSize;
+        this.bulkBatchSize        = bulkBatchSize;
+        this.maxSearchResults     = maxSearchResults;
+        this.encodeThreshold      = encodeThreshold;
+        this.encodeBuffers        = new BufferPool(encodeBuffers, (int) encodeBufferMaxSize.toBytes());
     }
 
     @Override
     public void createHospital(CreateHospitalRequest req,
                                   StreamObserver<Hospital> resp) {
-        HospitalEntity h = new HospitalEntity();
-        h.setName(req.getName());
-        h.setAddress(req.getAddress());
-        HospitalEntity saved = hospitalRepo.save(h);
-        Hospital reply = Hospital.newBuilder()
-            .setName(saved.getName())
-            .setAddress(saved.getAddress())
-            .setId(saved.getId())
-            .build();
-        resp.onNext(reply);
+        resp.onNext(service.createHospital(req.getName(), req.getAddress()));
         resp.onCompleted();
     }
 
-   @Override
-    public void deleteHospital(DeleteHospitalRequest req, 
+    @Override
+    public void deleteHospital(DeleteHospitalRequest req,
                                  StreamObserver<Empty> resp) {
-    long id = req.getHospitalId();
-    if (hospitalRepo.existsById(id)) {
-        hospitalRepo.deleteById(id);
+        try {
+            service.deleteHospital(req.getHospitalId());
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
+            return;
+        }
         resp.onNext(Empty.newBuilder().build());
-    } else {
-        resp.onError(io.grpc.Status.NOT_FOUND
-            .withDescription("Hospital not found with id: " + id)
-            .asRuntimeException());
-        return;
-            }
-    resp.onCompleted();
-    }   
+        resp.onCompleted();
+    }
 
     @Override
     public void modifyHospital(ModifyHospitalRequest req,
-                                  StreamObserver<Hospital> resp){
-    long id = req.getHospitalId();
-    Optional<HospitalEntity> optional = hospitalRepo.findById(id);
-    if (optional.isPresent()) {
-    HospitalEntity h = optional.get();
-    h.setName(req.getName());
-    h.setAddress(req.getAddress());
-    HospitalEntity saved = hospitalRepo.save(h);
-        Hospital reply = Hospital.newBuilder()
-            .setId(saved.getId())
-            .setAddress(saved.getAddress())
-            .setName(saved.getName()).
-            build();
-    resp.onNext(reply);
-    } else {
-        resp.onError(io.grpc.Status.NOT_FOUND
-            .withDescription("Hospital not found with id: " + id)
-            .asRuntimeException());
-        return;
-    }
-    resp.onCompleted();
+                                  StreamObserver<Hospital> resp) {
+        Hospital reply;
+        try {
+            reply = service.modifyHospital(req.getHospitalId(), req.getName(), req.getAddress());
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
+            return;
+        }
+        resp.onNext(reply);
+        resp.onCompleted();
     }
 
     @Override
     public void createPatient(CreatePatientRequest req,
-                                 StreamObserver<Patient> resp){
-    PatientEntity p = new PatientEntity();
-    p.setFirstName(req.getFirstName());
-    p.setLastName(req.getLastName());
-    p.setBirthDate(LocalDate.parse(req.getBirthDate()));
-    PatientEntity saved = patientRepo.save(p);
-    Patient reply = Patient.newBuilder()
-            .setFirstName(saved.getFirstName())
-            .setLastName(saved.getLastName())
-            .setId(saved.getId())
-            .setBirthDate(saved.getBirthDate().toString())
-            .build();
-    resp.onNext(reply);
-    resp.onCompleted();
+                                 StreamObserver<Patient> resp) {
+        resp.onNext(service.createPatient(
+            req.getFirstName(), req.getLastName(), LocalDate.parse(req.getBirthDate())));
+        resp.onCompleted();
     }
 
     @Override
     public void modifyPatient(ModifyPatientRequest req,
-                                StreamObserver<Patient> resp){
-    long id = req.getPatientId();
-    Optional<PatientEntity> optional = patientRepo.findById(id);
-    if (optional.isPresent()) {
-    PatientEntity p = optional.get();
-    p.setFirstName(req.getFirstName());
-    p.setLastName(req.getLastName());
-    p.setBirthDate(LocalDate.parse(req.getBirthDate()));
-    PatientEntity saved = patientRepo.save(p);
-        Patient reply = Patient.newBuilder()
-            .setId(saved.getId())
-            .setFirstName(saved.getFirstName())
-            .setLastName(saved.getLastName()).
-            build();
-    resp.onNext(reply);
-    } else {
-        resp.onError(io.grpc.Status.NOT_FOUND
-            .withDescription("Patient not found with id: " + id)
-            .asRuntimeException());
-        return;
-    }
-    resp.onCompleted();
-    }
-
-    @Override
-    public void deletePatient(DeletePatientRequest req,  
+                                StreamObserver<Patient> resp) {
+        Patient reply;
+        try {
+            reply = service.modifyPatient(req.getPatientId(),
+                req.getFirstName(), req.getLastName(), LocalDate.parse(req.getBirthDate()));
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
+            return;
+        }
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    @Override
+    public void deletePatient(DeletePatientRequest req,
                                  StreamObserver<Empty> resp) {
-        long id = req.getPatientId();
-        if (patientRepo.existsById(id)) {
-            patientRepo.deleteById(id);
-            resp.onNext(Empty.newBuilder().build());
-        } else {
-            resp.onError(io.grpc.Status.NOT_FOUND
-                .withDescription("Patient not found with id: " + id)
-                .asRuntimeException());
+        try {
+            service.deletePatient(req.getPatientId());
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
             return;
         }
+        resp.onNext(Empty.newBuilder().build());
         resp.onCompleted();
     }
 
+    @Override
+    public void getPatient(GetPatientRequest req,
+                              StreamObserver<Patient> resp) {
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
+        }
+        Patient reply;
+        try {
+            reply = service.getPatient(req.getPatientId(), fields);
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
+            return;
+        }
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    @Override
+    public void getHospital(GetHospitalRequest req,
+                               StreamObserver<Hospital> resp) {
+        Set<HospitalProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::hospitalFields, resp);
+        if (fields == null) {
+            return;
+        }
+        Hospital reply;
+        try {
+            reply = service.getHospital(req.getHospitalId(), fields);
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
+            return;
+        }
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    @Override
+    public void batchGetPatients(BatchGetPatientsRequest req,
+                                    StreamObserver<BatchGetPatientsResponse> resp) {
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
+        }
+        long[] ids = req.getPatientIdsList().stream().mapToLong(Long::longValue).toArray();
+        // the ids are needed to tell the missing ones, they are masked out afterwards
+        List<Patient> patients = service.getPatients(ids, withField(fields, PatientProjection.Field.ID));
+        BatchGetPatientsResponse reply = BatchGetPatientsResponse.newBuilder()
+            .addAllMissingIds(missingIds(ids, patients, Patient::getId))
+            .addAllPatients(fields.contains(PatientProjection.Field.ID)
+                ? patients
+                : patients.stream().map(p -> ProtoMapper.mask(p, fields)).toList())
+            .build();
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    @Override
+    public void batchGetHospitals(BatchGetHospitalsRequest req,
+                                     StreamObserver<BatchGetHospitalsResponse> resp) {
+        Set<HospitalProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::hospitalFields, resp);
+        if (fields == null) {
+            return;
+        }
+        long[] ids = req.getHospitalIdsList().stream().mapToLong(Long::longValue).toArray();
+        List<Hospital> hospitals = service.getHospitals(ids, withField(fields, HospitalProjection.Field.ID));
+        BatchGetHospitalsResponse reply = BatchGetHospitalsResponse.newBuilder()
+            .addAllMissingIds(missingIds(ids, hospitals, Hospital::getId))
+            .addAllHospitals(fields.contains(HospitalProjection.Field.ID)
+                ? hospitals
+                : hospitals.stream().map(h -> ProtoMapper.mask(h, fields)).toList())
+            .build();
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<CreateHospitalRequest> bulkCreateHospitals(StreamObserver<BulkSummary> resp) {
+        return new BulkObserver<CreateHospitalRequest, HospitalEntity>(
+            resp,
+            req -> new HospitalEntity(req.getName(), req.getAddress()),
+            service::createHospitals,
+            bulkBatchSize);
+    }
+
+    @Override
+    public StreamObserver<CreatePatientRequest> bulkCreatePatients(StreamObserver<BulkSummary> resp) {
+        return new BulkObserver<CreatePatientRequest, PatientEntity>(
+            resp,
+            req -> new PatientEntity(req.getFirstName(), req.getLastName(), LocalDate.parse(req.getBirthDate())),
+            service::createPatients,
+            bulkBatchSize);
+    }
+
+    @Override
+    public StreamObserver<RegisterPatientRequest> bulkRegister(StreamObserver<BulkSummary> resp) {
+        return new BulkObserver<RegisterPatientRequest, RegistrationEntity.RegistrationId>(
+            resp,
+            req -> new RegistrationEntity.RegistrationId(req.getPatientId(), req.getHospitalId()),
+            batch -> {
+                if (batch.size() == 1) {
+                    // also the row by row retry of a failed batch: like the unary call,
+                    // register() takes an existing registration as success
+                    RegistrationEntity.RegistrationId id = batch.get(0);
+                    service.register(id.getPatientId(), id.getHospitalId());
+                } else {
+                    service.registerAll(batch);
+                }
+                return List.of();
+            },
+            bulkBatchSize);
+    }
+
     @Override
     public void registerPatient(RegisterPatientRequest req,
                                   StreamObserver<Registration> resp) {
-        long patientId = req.getPatientId();
-        long hospitalId = req.getHospitalId();
-
-        Optional<PatientEntity> patientOpt = patientRepo.findById(patientId);
-        Optional<HospitalEntity> hospitalOpt = hospitalRepo.findById(hospitalId);
-
-        if (patientOpt.isPresent() && hospitalOpt.isPresent()) {
-            PatientEntity patient = patientOpt.get();
-            HospitalEntity hospital = hospitalOpt.get();
-            RegistrationEntity r = new RegistrationEntity(patient, hospital);
-            registrationRepo.save(r);
-            Registration reply = Registration.newBuilder()
-                .setPatientId(patient.getId())
-                .setHospitalId(hospital.getId())
-                .build();
-            resp.onNext(reply);
-        } else {
-            resp.onError(io.grpc.Status.NOT_FOUND
-                .withDescription("Patient or Hospital not found")
-                .asRuntimeException());
+        if (registrationPipeline.isEnabled()) {
+            // answered by the flusher thread once the registration is committed (or queued)
+            registrationPipeline.submit(req.getPatientId(), req.getHospitalId())
+                .whenComplete((ok, failure) -> {
+                    if (failure == null) {
+                        resp.onNext(registration(req));
+                        resp.onCompleted();
+                    } else {
+                        resp.onError(registrationFailed(failure));
+                    }
+                });
+            return;
+        }
+        try {
+            service.register(req.getPatientId(), req.getHospitalId());
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
             return;
         }
+        resp.onNext(registration(req));
         resp.onCompleted();
     }
 
     @Override
     public void unregisterPatient(RegisterPatientRequest req,
                                   StreamObserver<Empty> resp) {
-        long patientId = req.getPatientId();
-        long hospitalId = req.getHospitalId();
-
-        RegistrationEntity.RegistrationId regId = new RegistrationEntity.RegistrationId(patientId, hospitalId);
-        if (registrationRepo.existsById(regId)) {
-            registrationRepo.deleteById(regId);
-            resp.onNext(Empty.newBuilder().build());
-        } else {
-            resp.onError(io.grpc.Status.NOT_FOUND
-                .withDescription("Registration not found")
-                .asRuntimeException());
+        try {
+            service.unregister(req.getPatientId(), req.getHospitalId());
+        } catch (NotFoundException e) {
+            resp.onError(notFound(e));
             return;
         }
+        resp.onNext(Empty.newBuilder().build());
         resp.onCompleted();
     }
 
     @Override
     public void listPatientsOfHospital(ListPatientsRequest req,
                                   StreamObserver<PatientList> resp) {
-        long hospitalId = req.getHospitalId();
-        List<RegistrationEntity> registrations = registrationRepo.findByHospitalId(hospitalId);
-
-        PatientList.Builder responseBuilder = PatientList.newBuilder();
-        for (RegistrationEntity reg : registrations) {
-            PatientEntity p = patientRepo.findById(reg.getId().getPatientId()).orElseThrow();  
-            Patient protoPatient = Patient.newBuilder()
-                .setId(p.getId())
-                .setFirstName(p.getFirstName())
-                .setLastName(p.getLastName())
-                .setBirthDate(p.getBirthDate().toString())
-                .build();
-            responseBuilder.addPatients(protoPatient);
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
         }
+        PatientList reply = PatientList.newBuilder()
+            .addAllPatients(service.patientsOfHospital(req.getHospitalId(), fields))
+            .build();
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
 
-        resp.onNext(responseBuilder.build());
+    // ListPatientsOfHospital as bound for the server: big hospitals skip the Patient messages,
+    // their rows are encoded straight into a PatientList (see HospitalServiceBinding)
+    @SuppressWarnings("unchecked")
+    void listPatientsOfHospitalEncoded(ListPatientsRequest req, StreamObserver<Object> resp) {
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
+        }
+        PatientListEncoder encoder = new PatientListEncoder(fields, encodeBuffers);
+        if (!service.patientRowsOfHospital(req.getHospitalId(), encodeThreshold, encoder)) {
+            listPatientsOfHospital(req, (StreamObserver<PatientList>) (StreamObserver<?>) resp);
+            return;
+        }
+        resp.onNext(encoder.finish());
         resp.onCompleted();
     }
 
     @Override
     public void listHospitalsOfPatient(ListHospitalsRequest req,
                                   StreamObserver<HospitalList> resp) {
+        Set<HospitalProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::hospitalFields, resp);
+        if (fields == null) {
+            return;
+        }
+        HospitalList reply = HospitalList.newBuilder()
+            .addAllHospitals(service.hospitalsOfPatient(req.getPatientId(), fields))
+            .build();
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    // Every chunk is read in its own transaction, the stream may wait on the client in between
+    @Override
+    public void streamPatientsOfHospital(ListPatientsRequest req,
+                                  StreamObserver<PatientList> resp) {
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
+        }
+        long hospitalId = req.getHospitalId();
+        new KeysetStreamer<PatientProjection, PatientList>(
+            resp,
+            (afterId, limit) -> service.patientsOfHospitalAfter(hospitalId, afterId, limit, fields),
+            PatientProjection::id,
+            page -> PatientList.newBuilder().addAllPatients(toPatients(page, fields)).build(),
+            pageSize).start();
+    }
+
+    @Override
+    public void streamHospitalsOfPatient(ListHospitalsRequest req,
+                                  StreamObserver<HospitalList> resp) {
+        Set<HospitalProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::hospitalFields, resp);
+        if (fields == null) {
+            return;
+        }
         long patientId = req.getPatientId();
-        List<RegistrationEntity> registrations = registrationRepo.findByPatientId(patientId);
-        HospitalList.Builder responseBuilder = HospitalList.newBuilder();
-        for (RegistrationEntity reg : registrations) {
-            HospitalEntity h = hospitalRepo.findById(reg.getId().getHospitalId()).orElseThrow();
-            Hospital protoHospital = Hospital.newBuilder()
-                .setId(h.getId())
-                .setName(h.getName())
-                .setAddress(h.getAddress())
-                .build();
-            responseBuilder.addHospitals(protoHospital);
+        new KeysetStreamer<HospitalProjection, HospitalList>(
+            resp,
+            (afterId, limit) -> service.hospitalsOfPatientAfter(patientId, afterId, limit, fields),
+            HospitalProjection::id,
+            page -> HospitalList.newBuilder().addAllHospitals(toHospitals(page, fields)).build(),
+            pageSize).start();
+    }
+
+    @Override
+    public void listPatientsOfHospitalPage(ListPatientsPageRequest req,
+                                  StreamObserver<PatientPage> resp) {
+        Long afterId = decodePageToken(req.getPageToken());
+        if (afterId == null) {
+            resp.onError(io.grpc.Status.INVALID_ARGUMENT
+                .withDescription("Invalid page token")
+                .asRuntimeException());
+            return;
+        }
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
+        }
+        int size = effectivePageSize(req.getPageSize());
+        // fetch one extra row to know whether there is a next page
+        List<PatientProjection> patients =
+            service.patientsOfHospitalAfter(req.getHospitalId(), afterId, size + 1, fields);
+
+        PatientPage.Builder responseBuilder = PatientPage.newBuilder()
+            .addAllPatients(toPatients(patients.subList(0, Math.min(size, patients.size())), fields));
+        if (patients.size() > size) {
+            responseBuilder.setNextPageToken(encodePageToken(patients.get(size - 1).id()));
         }
         resp.onNext(responseBuilder.build());
         resp.onCompleted();
     }
 
+    @Override
+    public void listHospitalsOfPatientPage(ListHospitalsPageRequest req,
+                                  StreamObserver<HospitalPage> resp) {
+        Long afterId = decodePageToken(req.getPageToken());
+        if (afterId == null) {
+            resp.onError(io.grpc.Status.INVALID_ARGUMENT
+                .withDescription("Invalid page token")
+                .asRuntimeException());
+            return;
+        }
+        Set<HospitalProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::hospitalFields, resp);
+        if (fields == null) {
+            return;
+        }
+        int size = effectivePageSize(req.getPageSize());
+        List<HospitalProjection> hospitals =
+            service.hospitalsOfPatientAfter(req.getPatientId(), afterId, size + 1, fields);
 
+        HospitalPage.Builder responseBuilder = HospitalPage.newBuilder()
+            .addAllHospitals(toHospitals(hospitals.subList(0, Math.min(size, hospitals.size())), fields));
+        if (hospitals.size() > size) {
+            responseBuilder.setNextPageToken(encodePageToken(hospitals.get(size - 1).id()));
+        }
+        resp.onNext(responseBuilder.build());
+        resp.onCompleted();
+    }
 
-}
+    @Override
+    public void searchPatients(SearchPatientsRequest req,
+                                  StreamObserver<PatientList> resp) {
+        Set<PatientProjection.Field> fields = readMask(req.getReadMask(), ProtoMapper::patientFields, resp);
+        if (fields == null) {
+            return;
+        }
+        PatientQuery query;
+        try {
+            query = new PatientQuery(
+                req.getLastName().isBlank() ? null : req.getLastName(),
+                req.getFirstName().isBlank() ? null : req.getFirstName(),
+                req.getFuzzy(),
+                req.getBornFrom().isEmpty() ? null : LocalDate.parse(req.getBornFrom()),
+                req.getBornTo().isEmpty() ? null : LocalDate.parse(req.getBornTo()),
+                req.getHospitalId());
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            resp.onError(io.grpc.Status.INVALID_ARGUMENT
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        }
+        if (query.isEmpty()) {
+            resp.onError(io.grpc.Status.INVALID_ARGUMENT
+                .withDescription("Search needs at least one criterion")
+                .asRuntimeException());
+            return;
+        }
+        int limit = req.getMaxResults() <= 0 ? maxSearchResults : Math.min(req.getMaxResults(), maxSearchResults);
+        long[] ids;
+        try {
+            ids = service.searchPatientIds(query, limit);
+        } catch (IllegalStateException e) {
+            resp.onError(io.grpc.Status.FAILED_PRECONDITION
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        }
+        // the ids are the cursor, they are masked out of the chunks if not asked for
+        Set<PatientProjection.Field> withId = withField(fields, PatientProjection.Field.ID);
+        new KeysetStreamer<Patient, PatientList>(
+            resp,
+            (afterId, n) -> service.patientsAmong(ids, afterId, n, withId),
+            Patient::getId,
+            page -> PatientList.newBuilder()
+                .addAllPatients(page.stream().map(p -> ProtoMapper.mask(p, fields)).toList())
+                .build(),
+            pageSize).start();
+    }
+
+    @Override
+    public void countPatientsOfHospital(CountPatientsRequest req,
+                                  StreamObserver<Count> resp) {
+        resp.onNext(Count.newBuilder()
+            .setCount(service.countPatientsOfHospital(req.getHospitalId()))
+            .build());
+        resp.onCompleted();
+    }
+
+    @Override
+    public void countHospitalsOfPatient(CountHospitalsRequest req,
+                                  StreamObserver<Count> resp) {
+        resp.onNext(Count.newBuilder()
+            .setCount(service.countHospitalsOfPatient(req.getPatientId()))
+            .build());
+        resp.onCompleted();
+    }
+
+    @Override
+    public void hospitalStats(HospitalStatsRequest req,
+                                  StreamObserver<HospitalStatsResponse> resp) {
+        int days = req.getDays() <= 0 ? DEFAULT_STATS_DAYS : req.getDays();
+        LocalDate from = LocalDate.now().minusDays(days - 1);
+        HospitalStatsResponse.Builder reply = HospitalStatsResponse.newBuilder();
+        for (DayCount day : service.registrationsPerDaySince(from)) {
+            reply.addRegistrationsPerDay(DailyRegistrations.newBuilder()
+                .setDate(day.day().toString())
+                .setRegistrations(day.registrations()));
+        }
+        for (HospitalCount hospital : service.topHospitals(effectiveTop(req.getTop()))) {
+            reply.addTopHospitals(HospitalPatientCount.newBuilder()
+                .setHospitalId(hospital.hospitalId())
+                .setName(hospital.name())
+                .setPatients(hospital.patients()));
+        }
+        resp.onNext(reply.build());
+        resp.onCompleted();
+    }
+
+    @Override
+    public void watchChanges(WatchChangesRequest req,
+                                  StreamObserver<ChangeEvent> resp) {
+        if (!changeLog.isEnabled()) {
+            resp.onError(io.grpc.Status.FAILED_PRECONDITION
+                .withDescription("The change log is off, see hospital.changes.dir")
+                .asRuntimeException());
+            return;
+        }
+        long from = req.getFromNow() ? changeLog.endOffset() : req.getFromOffset();
+        try {
+            changeLog.checkOffset(from);
+        } catch (OffsetOutOfRangeException e) {
+            resp.onError(io.grpc.Status.OUT_OF_RANGE
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        }
+        Set<ChangeType> types = req.getTypesList().isEmpty() ? Set.of() : EnumSet.copyOf(req.getTypesList());
+        new ChangeStreamer(resp, changeLog, from, types, pageSize).start();
+    }
+
+    // --- Snapshots ---
+
+    @Override
+    public void exportSnapshot(SnapshotRequest req,
+                                  StreamObserver<SnapshotSummary> resp) {
+        snapshot(req, resp, snapshots::export);
+    }
+
+    @Override
+    public void importSnapshot(SnapshotRequest req,
+                                  StreamObserver<SnapshotSummary> resp) {
+        snapshot(req, resp, snapshots::importFrom);
+    }
+
+    private interface SnapshotOperation {
+        SnapshotSummary apply(Path file) throws IOException;
+    }
+
+    private void snapshot(SnapshotRequest req, StreamObserver<SnapshotSummary> resp, SnapshotOperation operation) {
+        if (!snapshots.isEnabled()) {
+            resp.onError(io.grpc.Status.FAILED_PRECONDITION
+                .withDescription("Snapshots are off, see hospital.snapshot.dir")
+                .asRuntimeException());
+            return;
+        }
+        SnapshotSummary reply;
+        try {
+            reply = operation.apply(snapshots.resolve(req.getName()));
+        } catch (IllegalArgumentException e) {
+            resp.onError(invalidArgument(e));
+            return;
+        } catch (IllegalStateException e) {
+            resp.onError(io.grpc.Status.FAILED_PRECONDITION
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        } catch (NoSuchFileException e) {
+            resp.onError(io.grpc.Status.NOT_FOUND
+                .withDescription("No snapshot " + req.getName())
+                .asRuntimeException());
+            return;
+        } catch (IOException e) {
+            resp.onError(io.grpc.Status.INTERNAL
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        }
+        resp.onNext(reply);
+        resp.onCompleted();
+    }
+
+    // --- File ingest ---
+
+    @Override
+    public void ingestFile(IngestRequest req,
+                                  StreamObserver<IngestProgress> resp) {
+        if (!ingest.isEnabled()) {
+            resp.onError(io.grpc.Status.FAILED_PRECONDITION
+                .withDescription("File ingest is off, see hospital.ingest.dir")
+                .asRuntimeException());
+            return;
+        }
+        IngestProgress done;
+        try {
+            // onNext throws once the client has cancelled, that stops the ingest
+            done = ingest.ingest(ingest.resolve(req.getName()), resp::onNext);
+        } catch (io.grpc.StatusRuntimeException cancelled) {
+            return;
+        } catch (IllegalArgumentException e) {
+            resp.onError(invalidArgument(e));
+            return;
+        } catch (IllegalStateException e) {
+            resp.onError(io.grpc.Status.FAILED_PRECONDITION
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        } catch (NoSuchFileException e) {
+            resp.onError(io.grpc.Status.NOT_FOUND
+                .withDescription("No file " + req.getName())
+                .asRuntimeException());
+            return;
+        } catch (IOException e) {
+            resp.onError(io.grpc.Status.INTERNAL
+                .withDescription(e.getMessage())
+                .asRuntimeException());
+            return;
+        }
+        resp.onNext(done);
+        resp.onCompleted();
+    }
+
+    // --- Helpers ---
+
+    private static io.grpc.StatusRuntimeException notFound(NotFoundException e) {
+        return io.grpc.Status.NOT_FOUND
+            .withDescription(e.getMessage())
+            .asRuntimeException();
+    }
+
+    private static Registration registration(RegisterPatientRequest req) {
+        return Registration.newBuilder()
+            .setPatientId(req.getPatientId())
+            .setHospitalId(req.getHospitalId())
+            .build();
+    }
 
+    private static io.grpc.StatusRuntimeException registrationFailed(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+        if (cause instanceof NotFoundException e) {
+            return notFound(e);
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return io.grpc.Status.RESOURCE_EXHAUSTED
+                .withDescription(cause.getMessage())
+                .asRuntimeException();
+        }
+        return io.grpc.Status.INTERNAL
+            .withDescription(cause.getMessage())
+            .withCause(cause)
+            .asRuntimeException();
+    }
+
+    private static io.grpc.StatusRuntimeException invalidArgument(IllegalArgumentException e) {
+        return io.grpc.Status.INVALID_ARGUMENT
+            .withDescription(e.getMessage())
+            .asRuntimeException();
+    }
+
+    // The fields of a read mask, or null after answering INVALID_ARGUMENT for unknown paths
+    private static <F> Set<F> readMask(FieldMask mask, Function<FieldMask, Set<F>> fields, StreamObserver<?> resp) {
+        try {
+            return fields.apply(mask);
+        } catch (IllegalArgumentException e) {
+            resp.onError(invalidArgument(e));
+            return null;
+        }
+    }
+
+    private static <F extends Enum<F>> Set<F> withField(Set<F> fields, F field) {
+        if (fields.contains(field)) {
+            return fields;
+        }
+        Set<F> copy = EnumSet.copyOf(fields);
+        copy.add(field);
+        return copy;
+    }
+
+    private static List<Patient> toPatients(List<PatientProjection> rows, Set<PatientProjection.Field> fields) {
+        return rows.stream().map(p -> ProtoMapper.toProto(p, fields)).toList();
+    }
+
+    private static List<Hospital> toHospitals(List<HospitalProjection> rows, Set<HospitalProjection.Field> fields) {
+        return rows.stream().map(h -> ProtoMapper.toProto(h, fields)).toList();
+    }
+
+    // Requested ids without a result, in request order
+    private static <M> List<Long> missingIds(long[] ids, List<M> found, ToLongFunction<M> idOf) {
+        Set<Long> foundIds = new HashSet<>();
+        for (M m : found) {
+            foundIds.add(idOf.applyAsLong(m));
+        }
+        List<Long> missing = new ArrayList<>();
+        for (long id : ids) {
+            if (!foundIds.contains(id)) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    private int effectivePageSize(int requested) {
+        return requested <= 0 ? pageSize : Math.min(requested, pageSize);
+    }
+
+    private int effectiveTop(int requested) {
+        return requested <= 0 ? Math.min(DEFAULT_STATS_TOP, pageSize) : Math.min(requested, pageSize);
+    }
+
+    private static String encodePageToken(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(Long.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Returns the id to seek past, 0 for the first page, or null if the token is malformed
+    private static Long decodePageToken(String token) {
+        if (token.isEmpty()) {
+            return 0L;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            return Long.parseLong(decoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Sends a keyset-paged result as a stream of chunks.
+ * Only fetches the next page while the transport is ready, so a slow client
+ * does not make the server buffer the whole list.
+ */
+class KeysetStreamer<E, M> {
+
+    @FunctionalInterface
+    interface PageFetcher<E> {
+        List<E> fetch(long afterId, int limit);
+    }
+
+    private final StreamObserver<M> resp;
+    private final PageFetcher<E> fetcher;
+    private final ToLongFunction<E> idOf;
+    private final Function<List<E>, M> toChunk;
+    private final int chunkSize;
+
+    private long cursor = 0;
+    private boolean done = false;
+    private volatile boolean cancelled = false;
+
+    KeysetStreamer(StreamObserver<M> resp,
+                   PageFetcher<E> fetcher,
+                   ToLongFunction<E> idOf,
+                   Function<List<E>, M> toChunk,
+                   int chunkSize) {
+        this.resp      = resp;
+        this.fetcher   = fetcher;
+        this.idOf      = idOf;
+        this.toChunk   = toChunk;
+        this.chunkSize = chunkSize;
+    }
+
+    void start() {
+        if (resp instanceof ServerCallStreamObserver<M> call) {
+            call.setOnCancelHandler(() -> cancelled = true);
+            call.setOnReadyHandler(this::drain);
+        }
+        drain();
+    }
+
+    private boolean isReady() {
+        if (resp instanceof ServerCallStreamObserver<M> call) {
+            return call.isReady();
+        }
+        // plain observers (e.g. in tests) have no flow control
+        return true;
+    }
+
+    private synchronized void drain() {
+        try {
+            while (!done && !cancelled && isReady()) {
+                List<E> page = fetcher.fetch(cursor, chunkSize);
+                if (!page.isEmpty()) {
+                    resp.onNext(toChunk.apply(page));
+                    cursor = idOf.applyAsLong(page.get(page.size() - 1));
+                }
+                if (page.size() < chunkSize) {
+                    done = true;
+                    resp.onCompleted();
+                }
+            }
+        } catch (RuntimeException e) {
+            done = true;
+            resp.onError(io.grpc.Status.INTERNAL
+                .withDescription("Streaming failed")
+                .withCause(e)
+                .asRuntimeException());
+        }
+    }
+}
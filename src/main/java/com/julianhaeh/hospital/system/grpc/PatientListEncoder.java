@@ -0,0 +1,116 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import com.julianhaeh.hospital.system.repository.PatientProjection;
+
+/**
+ * Writes patient rows (id, first_name, last_name, birth_date) straight into the wire format
+ * of a PatientList, without building Patient messages. The bytes are the same the builders
+ * would produce: fields in field number order, empty fields and fields outside the mask
+ * left out.
+ */
+public final class PatientListEncoder implements RowCallbackHandler {
+
+    // field number and wire type, as WireFormat.makeTag would give
+    private static final int PATIENTS_TAG =
+        PatientList.PATIENTS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final boolean id;
+    private final boolean firstName;
+    private final boolean lastName;
+    private final boolean birthDate;
+    private final BufferPool pool;
+
+    // taken from the pool with the first row
+    private byte[] buffer = EMPTY;
+    private int start;
+    private CodedOutputStream out;
+
+    PatientListEncoder(Set<PatientProjection.Field> fields, BufferPool pool) {
+        this.id        = fields.contains(PatientProjection.Field.ID);
+        this.firstName = fields.contains(PatientProjection.Field.FIRST_NAME);
+        this.lastName  = fields.contains(PatientProjection.Field.LAST_NAME);
+        this.birthDate = fields.contains(PatientProjection.Field.BIRTH_DATE);
+        this.pool      = pool;
+        this.out       = CodedOutputStream.newInstance(buffer);
+    }
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+        long patientId = id ? rs.getLong(1) : 0;
+        String first = firstName ? rs.getString(2) : null;
+        String last = lastName ? rs.getString(3) : null;
+        // read as a LocalDate like the builder path, getString formats dates per driver
+        String born = birthDate ? rs.getObject(4, LocalDate.class).toString() : null;
+
+        int size = int64Size(Patient.ID_FIELD_NUMBER, patientId)
+            + stringSize(Patient.FIRST_NAME_FIELD_NUMBER, first)
+            + stringSize(Patient.LAST_NAME_FIELD_NUMBER, last)
+            + stringSize(Patient.BIRTH_DATE_FIELD_NUMBER, born);
+        ensureSpace(CodedOutputStream.computeUInt32SizeNoTag(PATIENTS_TAG)
+            + CodedOutputStream.computeUInt32SizeNoTag(size) + size);
+        try {
+            out.writeUInt32NoTag(PATIENTS_TAG);
+            out.writeUInt32NoTag(size);
+            if (patientId != 0) {
+                out.writeInt64(Patient.ID_FIELD_NUMBER, patientId);
+            }
+            writeString(Patient.FIRST_NAME_FIELD_NUMBER, first);
+            writeString(Patient.LAST_NAME_FIELD_NUMBER, last);
+            writeString(Patient.BIRTH_DATE_FIELD_NUMBER, born);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The encoded PatientList, the encoder is done after this
+    EncodedMessage finish() {
+        return new EncodedMessage(buffer, written(), pool);
+    }
+
+    private int written() {
+        return start + out.getTotalBytesWritten();
+    }
+
+    private void ensureSpace(int n) {
+        if (out.spaceLeft() >= n) {
+            return;
+        }
+        int used = written();
+        if (buffer == EMPTY) {
+            buffer = pool.acquire(Math.max(INITIAL_SIZE, n));
+        } else {
+            // the outgrown buffer is not pooled, the pool should fill up with buffers of the final size
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, used + n));
+        }
+        start  = used;
+        out    = CodedOutputStream.newInstance(buffer, used, buffer.length - used);
+    }
+
+    private static int int64Size(int field, long value) {
+        return value == 0 ? 0 : CodedOutputStream.computeInt64Size(field, value);
+    }
+
+    private static int stringSize(int field, String value) {
+        return value == null || value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    private void writeString(int field, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            out.writeString(field, value);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.io.InputStream;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+/**
+ * Response marshaller of ListPatientsOfHospital: sends PatientList messages as usual and
+ * {@link EncodedMessage}s, which are PatientLists already, as they are.
+ */
+final class PatientListMarshaller implements MethodDescriptor.Marshaller<Object> {
+
+    private final MethodDescriptor.Marshaller<PatientList> messages =
+        ProtoUtils.marshaller(PatientList.getDefaultInstance());
+
+    @Override
+    public InputStream stream(Object value) {
+        return value instanceof EncodedMessage encoded
+            ? encoded.stream()
+            : messages.stream((PatientList) value);
+    }
+
+    @Override
+    public Object parse(InputStream stream) {
+        return messages.parse(stream);
+    }
+}
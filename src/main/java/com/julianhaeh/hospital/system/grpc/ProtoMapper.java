@@ -0,0 +1,122 @@
+package com.julianhaeh.hospital.system.grpc;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import com.google.protobuf.FieldMask;
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.repository.HospitalProjection;
+import com.julianhaeh.hospital.system.repository.PatientProjection;
+
+/**
+ * Converts entities and projections into their protobuf messages.
+ */
+public final class ProtoMapper {
+
+    private ProtoMapper() {}
+
+    public static Patient toProto(PatientEntity p) {
+        return Patient.newBuilder()
+            .setId(p.getId())
+            .setFirstName(p.getFirstName())
+            .setLastName(p.getLastName())
+            .setBirthDate(p.getBirthDate().toString())
+            .build();
+    }
+
+    public static Hospital toProto(HospitalEntity h) {
+        return Hospital.newBuilder()
+            .setId(h.getId())
+            .setName(h.getName())
+            .setAddress(h.getAddress())
+            .build();
+    }
+
+    // --- Field masks ---
+
+    // Fields named by the mask, all of them for an empty mask
+    public static Set<PatientProjection.Field> patientFields(FieldMask mask) {
+        return fields(mask, PatientProjection.Field.class);
+    }
+
+    public static Set<HospitalProjection.Field> hospitalFields(FieldMask mask) {
+        return fields(mask, HospitalProjection.Field.class);
+    }
+
+    public static Patient toProto(PatientProjection p, Set<PatientProjection.Field> fields) {
+        Patient.Builder b = Patient.newBuilder();
+        if (fields.contains(PatientProjection.Field.ID)) {
+            b.setId(p.id());
+        }
+        if (fields.contains(PatientProjection.Field.FIRST_NAME)) {
+            b.setFirstName(p.firstName());
+        }
+        if (fields.contains(PatientProjection.Field.LAST_NAME)) {
+            b.setLastName(p.lastName());
+        }
+        if (fields.contains(PatientProjection.Field.BIRTH_DATE)) {
+            b.setBirthDate(p.birthDate().toString());
+        }
+        return b.build();
+    }
+
+    public static Hospital toProto(HospitalProjection h, Set<HospitalProjection.Field> fields) {
+        Hospital.Builder b = Hospital.newBuilder();
+        if (fields.contains(HospitalProjection.Field.ID)) {
+            b.setId(h.id());
+        }
+        if (fields.contains(HospitalProjection.Field.NAME)) {
+            b.setName(h.name());
+        }
+        if (fields.contains(HospitalProjection.Field.ADDRESS)) {
+            b.setAddress(h.address());
+        }
+        return b.build();
+    }
+
+    // Copy of a complete message with only the fields of the mask
+    public static Patient mask(Patient p, Set<PatientProjection.Field> fields) {
+        if (fields.containsAll(PatientProjection.ALL)) {
+            return p;
+        }
+        Patient.Builder b = Patient.newBuilder();
+        if (fields.contains(PatientProjection.Field.ID)) {
+            b.setId(p.getId());
+        }
+        if (fields.contains(PatientProjection.Field.FIRST_NAME)) {
+            b.setFirstName(p.getFirstName());
+        }
+        if (fields.contains(PatientProjection.Field.LAST_NAME)) {
+            b.setLastName(p.getLastName());
+        }
+        if (fields.contains(PatientProjection.Field.BIRTH_DATE)) {
+            b.setBirthDate(p.getBirthDate());
+        }
+        return b.build();
+    }
+
+    public static Hospital mask(Hospital h, Set<HospitalProjection.Field> fields) {
+        if (fields.containsAll(HospitalProjection.ALL)) {
+            return h;
+        }
+        return toProto(new HospitalProjection(h.getId(), h.getName(), h.getAddress()), fields);
+    }
+
+    // Paths are the proto field names, e.g. first_name; an unknown path is an IllegalArgumentException
+    private static <F extends Enum<F>> Set<F> fields(FieldMask mask, Class<F> type) {
+        if (mask.getPathsCount() == 0) {
+            return EnumSet.allOf(type);
+        }
+        Set<F> fields = EnumSet.noneOf(type);
+        for (String path : mask.getPathsList()) {
+            try {
+                fields.add(Enum.valueOf(type, path.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown field in read_mask: " + path);
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,41 @@
+package com.julianhaeh.hospital.system.idempotency;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.julianhaeh.hospital.system.grpc.HospitalServiceGrpc;
+
+/**
+ * Idempotency keys for the calls clients retry after a deadline: creating patients and
+ * hospitals and registering patients.
+ */
+@Configuration
+public class IdempotencyConfig {
+
+    @Bean
+    public IdempotencyStore idempotencyStore(
+            MeterRegistry meterRegistry,
+            @Value("${hospital.idempotency.maximum-size:100000}") long maximumSize,
+            @Value("${hospital.idempotency.ttl:24h}") Duration ttl,
+            @Value("${hospital.idempotency.snapshot-file:}") String snapshotFile,
+            @Value("${hospital.idempotency.snapshot-interval:1m}") Duration snapshotInterval) {
+        return new IdempotencyStore(maximumSize, ttl,
+            snapshotFile.isBlank() ? null : Path.of(snapshotFile), snapshotInterval, meterRegistry);
+    }
+
+    @Bean
+    @GrpcGlobalServerInterceptor
+    public IdempotencyInterceptor idempotencyInterceptor(IdempotencyStore store, MeterRegistry meterRegistry) {
+        return new IdempotencyInterceptor(store, meterRegistry, Set.of(
+            HospitalServiceGrpc.getCreatePatientMethod().getFullMethodName(),
+            HospitalServiceGrpc.getCreateHospitalMethod().getFullMethodName(),
+            HospitalServiceGrpc.getRegisterPatientMethod().getFullMethodName()));
+    }
+}
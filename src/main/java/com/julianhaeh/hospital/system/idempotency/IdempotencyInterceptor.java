@@ -0,0 +1,220 @@
+package com.julianhaeh.hospital.system.idempotency;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Deduplicates retried calls of the given unary methods that carry an idempotency-key
+ * header. The first call with a key runs and its response is kept in the
+ * {@link IdempotencyStore}; later calls with the same key and method get that response
+ * back without running the method, marked with the idempotency-replayed header. A retry
+ * that arrives while the first call is still running waits for its response. A key reused
+ * with a different request fails with INVALID_ARGUMENT instead of getting the response of
+ * the other request; the requests are compared by the SHA-256 hash of their serialized form.
+ *
+ * Only successful responses are kept. If the first call fails, calls waiting for it fail
+ * with the same status and the next retry runs the method again.
+ */
+public class IdempotencyInterceptor implements ServerInterceptor {
+
+    public static final Metadata.Key<String> IDEMPOTENCY_KEY_HEADER =
+        Metadata.Key.of("idempotency-key", Metadata.ASCII_STRING_MARSHALLER);
+
+    public static final Metadata.Key<String> REPLAYED_HEADER =
+        Metadata.Key.of("idempotency-replayed", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyStore store;
+    private final Set<String> methods;
+    private final Counter replays;
+
+    public IdempotencyInterceptor(IdempotencyStore store, MeterRegistry meterRegistry, Set<String> methods) {
+        this.store   = store;
+        this.methods = methods;
+        this.replays = Counter.builder("hospital.idempotency.replays")
+            .description("Calls answered with the response of an earlier call")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call,
+                                                      Metadata headers,
+                                                      ServerCallHandler<Q, R> next) {
+        String key = headers.get(IDEMPOTENCY_KEY_HEADER);
+        MethodDescriptor<Q, R> method = call.getMethodDescriptor();
+        if (key == null || method.getType() != MethodDescriptor.MethodType.UNARY
+                || !methods.contains(method.getFullMethodName())) {
+            return next.startCall(call, headers);
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            call.close(Status.INVALID_ARGUMENT
+                .withDescription("idempotency-key must have 1 to " + MAX_KEY_LENGTH + " characters"), new Metadata());
+            return new ServerCall.Listener<>() {};
+        }
+
+        // a key is scoped to its method; the call starts once its request has been compared
+        call.request(1);
+        return new KeyedListener<>(call, headers, next, method.getFullMethodName() + ' ' + key);
+    }
+
+    private static byte[] hash(byte[] request) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(request);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <Q, R> void replay(ServerCall<Q, R> call, byte[] bytes, Throwable failure) {
+        if (failure != null) {
+            call.close(Status.fromThrowable(failure), new Metadata());
+            return;
+        }
+        Metadata headers = new Metadata();
+        headers.put(REPLAYED_HEADER, "true");
+        call.sendHeaders(headers);
+        call.sendMessage(call.getMethodDescriptor().parseResponse(new ByteArrayInputStream(bytes)));
+        call.close(Status.OK, new Metadata());
+    }
+
+    // Starts the call with its request if the key is new, replays or rejects it otherwise
+    private final class KeyedListener<Q, R> extends ServerCall.Listener<Q> {
+
+        private final ServerCall<Q, R> call;
+        private final Metadata headers;
+        private final ServerCallHandler<Q, R> next;
+        private final String key;
+        private ServerCall.Listener<Q> delegate;
+        // set if this call runs the method, resolved when it ends
+        private CompletableFuture<byte[]> response;
+
+        KeyedListener(ServerCall<Q, R> call, Metadata headers, ServerCallHandler<Q, R> next, String key) {
+            this.call    = call;
+            this.headers = headers;
+            this.next    = next;
+            this.key     = key;
+        }
+
+        @Override
+        public void onMessage(Q message) {
+            if (delegate != null) {
+                delegate.onMessage(message);
+                return;
+            }
+            byte[] requestHash = hash(((MessageLite) message).toByteArray());
+            CompletableFuture<byte[]> response = new CompletableFuture<>();
+            IdempotencyStore.Entry earlier = store.putIfAbsent(key, requestHash, response);
+            if (earlier == null) {
+                this.response = response;
+                try {
+                    delegate = next.startCall(new RecordingCall<>(call, key, response), headers);
+                    delegate.onMessage(message);
+                } catch (RuntimeException e) {
+                    forget(Status.fromThrowable(e));
+                    throw e;
+                }
+            } else if (!MessageDigest.isEqual(earlier.requestHash(), requestHash)) {
+                delegate = new ServerCall.Listener<>() {};
+                call.close(Status.INVALID_ARGUMENT
+                    .withDescription("idempotency-key was already used with a different request"), new Metadata());
+            } else {
+                delegate = new ServerCall.Listener<>() {};
+                replays.increment();
+                earlier.response().whenComplete((bytes, failure) -> replay(call, bytes, failure));
+            }
+        }
+
+        @Override
+        public void onHalfClose() {
+            if (delegate != null) {
+                try {
+                    delegate.onHalfClose();
+                } catch (RuntimeException e) {
+                    // the server closes the call itself, RecordingCall.close doesn't see it
+                    forget(Status.fromThrowable(e));
+                    throw e;
+                }
+            } else {
+                call.close(Status.INTERNAL.withDescription("Half-closed without a request"), new Metadata());
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            forget(Status.CANCELLED);
+            if (delegate != null) {
+                delegate.onCancel();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            forget(Status.UNKNOWN.withDescription("Call ended without a response"));
+            if (delegate != null) {
+                delegate.onComplete();
+            }
+        }
+
+        // A call that ended without a response frees its key, the calls waiting for it fail
+        private void forget(Status status) {
+            if (response != null && !response.isDone()) {
+                store.remove(key, response);
+                response.completeExceptionally(status.asRuntimeException());
+            }
+        }
+
+        @Override
+        public void onReady() {
+            if (delegate != null) {
+                delegate.onReady();
+            }
+        }
+    }
+
+    // Keeps the response of the first call with a key
+    private final class RecordingCall<Q, R> extends SimpleForwardingServerCall<Q, R> {
+
+        private final String key;
+        private final CompletableFuture<byte[]> response;
+        private byte[] message;
+
+        RecordingCall(ServerCall<Q, R> call, String key, CompletableFuture<byte[]> response) {
+            super(call);
+            this.key      = key;
+            this.response = response;
+        }
+
+        @Override
+        public void sendMessage(R message) {
+            this.message = ((MessageLite) message).toByteArray();
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            // stored before the client sees the response, so its next retry is a replay
+            if (status.isOk() && message != null) {
+                response.complete(message);
+            } else {
+                store.remove(key, response);
+                response.completeExceptionally(status.asRuntimeException());
+            }
+            super.close(status, trailers);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.julianhaeh.hospital.system.idempotency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Responses of calls made with an idempotency key, bounded to maximum-size entries and
+ * kept for ttl after the first call.
+ *
+ * An entry is added when the request of the first call with the key arrives, with a hash of
+ * that request, and its future completes with the serialized response. Failed calls are
+ * removed again, so the client can retry them.
+ *
+ * With a snapshot file the completed entries are written to it every snapshot interval and
+ * on shutdown, and read back at startup. Entries keep their original age. Responses
+ * completed after the last snapshot are lost in a crash.
+ */
+public final class IdempotencyStore implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private static final int SNAPSHOT_VERSION = 2;
+
+    /** The first call with a key: when it started, the hash of its request and its response. */
+    public record Entry(long createdAt, byte[] requestHash, CompletableFuture<byte[]> response) {}
+
+    private final Cache<String, Entry> cache;
+    private final ConcurrentMap<String, Entry> entries;
+    private final long ttlNanos;
+    private final Path snapshotFile;
+    private final ScheduledExecutorService snapshots;
+
+    public IdempotencyStore(long maximumSize,
+                            Duration ttl,
+                            Path snapshotFile,
+                            Duration snapshotInterval,
+                            MeterRegistry meterRegistry) {
+        this.ttlNanos = ttl.toNanos();
+        this.snapshotFile = snapshotFile;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new Expiry<String, Entry>() {
+                @Override
+                public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                    long age = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - entry.createdAt());
+                    return Math.max(0, ttlNanos - age);
+                }
+
+                @Override
+                public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+
+                @Override
+                public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build();
+        this.entries = cache.asMap();
+        Gauge.builder("hospital.idempotency.entries", cache, Cache::estimatedSize)
+            .register(meterRegistry);
+
+        if (snapshotFile != null) {
+            if (Files.exists(snapshotFile)) {
+                load(snapshotFile);
+            }
+            this.snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "idempotency-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            long interval = snapshotInterval.toMillis();
+            snapshots.scheduleWithFixedDelay(this::snapshotQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.snapshots = null;
+        }
+    }
+
+    /**
+     * Registers the request hash and response of the first call with the key. Returns null if
+     * the key is new, the caller then completes the response or removes it. Otherwise returns
+     * the entry of the first call, which may still be running.
+     */
+    public Entry putIfAbsent(String key, byte[] requestHash, CompletableFuture<byte[]> response) {
+        return entries.putIfAbsent(key, new Entry(System.currentTimeMillis(), requestHash, response));
+    }
+
+    // Forgets the response if it is still the one stored for the key
+    public void remove(String key, CompletableFuture<byte[]> response) {
+        entries.computeIfPresent(key, (k, entry) -> entry.response() == response ? null : entry);
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    // --- Snapshots ---
+
+    public void snapshot(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                CompletableFuture<byte[]> response = e.getValue().response();
+                // running calls are not written, nor are failed ones about to be removed
+                if (!response.isDone() || response.isCompletedExceptionally()) {
+                    continue;
+                }
+                byte[] bytes = response.getNow(null);
+                out.writeBoolean(true);
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().createdAt());
+                out.writeInt(e.getValue().requestHash().length);
+                out.write(e.getValue().requestHash());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                count++;
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Wrote {} idempotency entries to {}", count, file);
+    }
+
+    public void load(Path file) {
+        long oldest = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                log.warn("Ignoring idempotency snapshot {} of unknown version {}", file, version);
+                return;
+            }
+            while (in.readBoolean()) {
+                String key = in.readUTF();
+                long createdAt = in.readLong();
+                byte[] requestHash = in.readNBytes(in.readInt());
+                byte[] bytes = in.readNBytes(in.readInt());
+                if (createdAt >= oldest) {
+                    entries.putIfAbsent(key, new Entry(createdAt, requestHash, CompletableFuture.completedFuture(bytes)));
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            // losing the entries only costs the deduplication of retries across the restart
+            log.warn("Could not read the idempotency snapshot {}", file, e);
+        }
+        log.info("Read {} idempotency entries from {}", count, file);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot(snapshotFile);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not write the idempotency snapshot {}", snapshotFile, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+            snapshotQuietly();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.julianhaeh.hospital.system.index;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the in-memory indexes at startup: before the gRPC server starts accepting calls,
+ * or with hospital.indexes.background-load on a background thread once the application
+ * is ready, so the first calls don't wait for the load.
+ *
+ * Until an index is ready its readers fall back to the database. Writers that update it
+ * wait for a running load, so no change is lost to it.
+ */
+@Component
+public class IndexLoader implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexLoader.class);
+
+    private final RegistrationIndex registrationIndex;
+    private final PatientSearchIndex searchIndex;
+    private final KnownIds knownIds;
+    private final boolean background;
+
+    public IndexLoader(RegistrationIndex registrationIndex,
+                       PatientSearchIndex searchIndex,
+                       KnownIds knownIds,
+                       @Value("${hospital.indexes.background-load:false}") boolean background) {
+        this.registrationIndex = registrationIndex;
+        this.searchIndex       = searchIndex;
+        this.knownIds          = knownIds;
+        this.background        = background;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!background) {
+            load();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadInBackground() {
+        if (!background) {
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                // the indexes stay off, the calls are served from the database
+                log.error("Loading the indexes failed", e);
+            }
+        }, "index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        registrationIndex.reload();
+        knownIds.reload();
+        searchIndex.reload();
+        log.info("Loaded the indexes in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
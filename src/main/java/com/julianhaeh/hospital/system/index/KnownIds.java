@@ -0,0 +1,124 @@
+package com.julianhaeh.hospital.system.index;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.repository.HospitalRepository;
+import com.julianhaeh.hospital.system.repository.PatientRepository;
+
+/**
+ * Ids of all existing patients and hospitals, so the write-behind registrations can be
+ * validated without the database. Only kept with the write-behind pipeline enabled, it
+ * costs about 60 bytes per id.
+ *
+ * Ids are added after the create commits and removed after the delete commits. A
+ * registration validated just before a concurrent delete still fails on the foreign key
+ * when it is flushed. Updates wait for a running load, so none is lost to it.
+ */
+@Component
+public class KnownIds {
+
+    private final PatientRepository patientRepo;
+    private final HospitalRepository hospitalRepo;
+    private final boolean enabled;
+    private final TransactionTemplate tx;
+
+    private final Set<Long> patients = ConcurrentHashMap.newKeySet();
+    private final Set<Long> hospitals = ConcurrentHashMap.newKeySet();
+    private volatile boolean ready = false;
+
+    public KnownIds(PatientRepository patientRepo,
+                    HospitalRepository hospitalRepo,
+                    MeterRegistry meterRegistry,
+                    PlatformTransactionManager transactionManager,
+                    @Value("${hospital.registration.write-behind.enabled:false}") boolean enabled) {
+        this.patientRepo  = patientRepo;
+        this.hospitalRepo = hospitalRepo;
+        this.enabled      = enabled;
+        this.tx           = new TransactionTemplate(transactionManager);
+        if (enabled) {
+            Gauge.builder("hospital.known.ids", patients, Set::size)
+                .tag("type", "patient")
+                .register(meterRegistry);
+            Gauge.builder("hospital.known.ids", hospitals, Set::size)
+                .tag("type", "hospital")
+                .register(meterRegistry);
+        }
+    }
+
+    public synchronized void reload() {
+        if (!enabled) {
+            return;
+        }
+        ready = false;
+        patients.clear();
+        hospitals.clear();
+        // read-write, so it is served by the primary
+        tx.executeWithoutResult(status -> {
+            patients.addAll(patientRepo.findAllIds());
+            hospitals.addAll(hospitalRepo.findAllIds());
+        });
+        ready = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean containsPatient(long id) {
+        return patients.contains(id);
+    }
+
+    public boolean containsHospital(long id) {
+        return hospitals.contains(id);
+    }
+
+    // --- Updates, call after the commit. Without write-behind they return without locking ---
+
+    public void addPatient(long id) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            patients.add(id);
+        }
+    }
+
+    public void addHospital(long id) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            hospitals.add(id);
+        }
+    }
+
+    public void removePatient(long id) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            patients.remove(id);
+        }
+    }
+
+    public void removeHospital(long id) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            hospitals.remove(id);
+        }
+    }
+}
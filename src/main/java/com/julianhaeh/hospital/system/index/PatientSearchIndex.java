@@ -0,0 +1,438 @@
+package com.julianhaeh.hospital.system.index;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.repository.PatientProjection;
+import com.julianhaeh.hospital.system.repository.PatientQuery;
+import com.julianhaeh.hospital.system.repository.ProjectionRepository;
+
+/**
+ * In-memory search index over the patient names and birth dates.
+ * <ul>
+ *   <li>Names are normalized (lower case, no accents) and kept in sorted maps from name to
+ *       the sorted ids of its patients. A prefix is a range of keys, like a walk down a trie.</li>
+ *   <li>Fuzzy matching uses the trigrams of the distinct names, similarity as in pg_trgm:
+ *       shared trigrams / all trigrams of both names. There are far fewer distinct names
+ *       than patients, so this stays small.</li>
+ *   <li>Birth dates are a sorted map from the day to the ids born on it.</li>
+ * </ul>
+ * A search picks the smallest candidate list of its criteria and checks the others per
+ * patient. Updates are serialized, readers never lock, see SortedLongArrays.
+ *
+ * Writers call {@link #put} and {@link #remove} after the commit, a modify or delete with
+ * the patient's lock of the RegistrationIndex held so updates apply in commit order. A
+ * search may still return the id of a patient that was deleted just now; callers load the
+ * patients anyway and drop ids that are gone. Beyond the configured number of patients the
+ * index turns itself off and searches go to the database.
+ */
+@Component
+public final class PatientSearchIndex {
+
+    // pg_trgm's default similarity threshold
+    private static final double FUZZY_THRESHOLD = 0.3;
+    private static final int LOAD_CHUNK_SIZE = 10_000;
+    // rough size of one patient: the entry, its map node, boxed key and ids in three arrays
+    private static final long BYTES_PER_PATIENT = 100;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private record Entry(String lastName, String firstName, int birthDay) {}
+
+    private final ProjectionRepository projections;
+    private final long maxPatients;
+    private final TransactionTemplate tx;
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, long[]> byLastName = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, long[]> byFirstName = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, long[]> byBirthDay = new ConcurrentSkipListMap<>();
+    // trigram -> distinct names, first and last names together
+    private final ConcurrentHashMap<String, Set<String>> namesByTrigram = new ConcurrentHashMap<>();
+    private volatile boolean ready = false;
+
+    public PatientSearchIndex(ProjectionRepository projections,
+                              MeterRegistry meterRegistry,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${hospital.search-index.max-patients:10000000}") long maxPatients) {
+        this.projections = projections;
+        this.maxPatients = maxPatients;
+        this.tx          = new TransactionTemplate(transactionManager);
+        Gauge.builder("hospital.search.index.patients", entries, Map::size)
+            .register(meterRegistry);
+        Gauge.builder("hospital.search.index.bytes", this, PatientSearchIndex::estimatedBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    // Updates wait for the load, they are synchronized like it; see IndexLoader
+    public synchronized void reload() {
+        clear();
+        // in chunks, only the searched columns, so millions of patients don't need entities.
+        // The ids come in ascending order, so they are appended per key and each array is
+        // stored once; inserting them one by one would copy the arrays of common names over and over
+        Map<String, SortedLongArrays.Appender> lastNames = new HashMap<>();
+        Map<String, SortedLongArrays.Appender> firstNames = new HashMap<>();
+        Map<Integer, SortedLongArrays.Appender> birthDays = new HashMap<>();
+        // one instance per distinct name, shared by all entries with it
+        Map<String, String> names = new HashMap<>();
+        boolean complete = Boolean.TRUE.equals(tx.execute(status -> {
+            long afterId = 0;
+            List<PatientProjection> chunk;
+            do {
+                chunk = projections.findPatientsAfter(afterId, LOAD_CHUNK_SIZE, PatientProjection.ALL);
+                if (entries.size() + chunk.size() > maxPatients) {
+                    return false;
+                }
+                for (PatientProjection p : chunk) {
+                    String last = names.computeIfAbsent(normalize(p.lastName()), n -> n);
+                    String first = names.computeIfAbsent(normalize(p.firstName()), n -> n);
+                    int day = (int) p.birthDate().toEpochDay();
+                    lastNames.computeIfAbsent(last, n -> new SortedLongArrays.Appender()).add(p.id());
+                    firstNames.computeIfAbsent(first, n -> new SortedLongArrays.Appender()).add(p.id());
+                    birthDays.computeIfAbsent(day, d -> new SortedLongArrays.Appender()).add(p.id());
+                    entries.put(p.id(), new Entry(last, first, day));
+                    afterId = p.id();
+                }
+            } while (chunk.size() == LOAD_CHUNK_SIZE);
+            return true;
+        }));
+        if (!complete) {
+            clear();
+            return;
+        }
+        lastNames.forEach((name, ids) -> byLastName.put(name, ids.toArray()));
+        firstNames.forEach((name, ids) -> byFirstName.put(name, ids.toArray()));
+        birthDays.forEach((day, ids) -> byBirthDay.put(day, ids.toArray()));
+        for (String name : names.keySet()) {
+            for (String trigram : trigrams(name)) {
+                namesByTrigram.computeIfAbsent(trigram, t -> ConcurrentHashMap.newKeySet()).add(name);
+            }
+        }
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // --- Updates, call after the commit ---
+
+    public synchronized void put(long id, String firstName, String lastName, LocalDate birthDate) {
+        if (!ready) {
+            return;
+        }
+        removeEntry(id);
+        if (entries.size() >= maxPatients) {
+            clear();
+            return;
+        }
+        add(id, firstName, lastName, birthDate);
+    }
+
+    // New patients in bulk: each name and day has its array copied once, not once per patient
+    public synchronized void putAll(List<PatientProjection> patients) {
+        if (!ready) {
+            return;
+        }
+        for (PatientProjection p : patients) {
+            removeEntry(p.id());
+        }
+        if (entries.size() + patients.size() > maxPatients) {
+            clear();
+            return;
+        }
+        Map<String, SortedLongArrays.Appender> lastNames = new HashMap<>();
+        Map<String, SortedLongArrays.Appender> firstNames = new HashMap<>();
+        Map<Integer, SortedLongArrays.Appender> birthDays = new HashMap<>();
+        List<Entry> added = new ArrayList<>(patients.size());
+        for (PatientProjection p : patients) {
+            Entry e = new Entry(normalize(p.lastName()), normalize(p.firstName()), (int) p.birthDate().toEpochDay());
+            lastNames.computeIfAbsent(e.lastName(), n -> new SortedLongArrays.Appender()).add(p.id());
+            firstNames.computeIfAbsent(e.firstName(), n -> new SortedLongArrays.Appender()).add(p.id());
+            birthDays.computeIfAbsent(e.birthDay(), d -> new SortedLongArrays.Appender()).add(p.id());
+            added.add(e);
+        }
+        lastNames.forEach((name, ids) -> addNames(byLastName, name, ids.toArray()));
+        firstNames.forEach((name, ids) -> addNames(byFirstName, name, ids.toArray()));
+        birthDays.forEach((day, ids) -> SortedLongArrays.insertAll(byBirthDay, day, ids.toArray()));
+        // entries last, as in add(); the names are the instances kept as keys
+        for (int i = 0; i < patients.size(); i++) {
+            Entry e = added.get(i);
+            entries.put(patients.get(i).id(),
+                new Entry(byLastName.ceilingKey(e.lastName()), byFirstName.ceilingKey(e.firstName()), e.birthDay()));
+        }
+    }
+
+    public synchronized void remove(long id) {
+        if (ready) {
+            removeEntry(id);
+        }
+    }
+
+    // --- Search ---
+
+    /**
+     * Ids of the matching patients in ascending order, at most limit.
+     *
+     * @param scope sorted ids the result is restricted to (the hospital's patients), or
+     *              null for no restriction
+     */
+    public long[] search(PatientQuery query, long[] scope, int limit) {
+        String lastName = query.lastName() == null ? null : normalize(query.lastName());
+        String firstName = query.firstName() == null ? null : normalize(query.firstName());
+        Set<String> similarLast = query.fuzzy() && lastName != null ? similarNames(lastName) : null;
+        Set<String> similarFirst = query.fuzzy() && firstName != null ? similarNames(firstName) : null;
+        int fromDay = query.bornFrom() == null ? Integer.MIN_VALUE : (int) query.bornFrom().toEpochDay();
+        int toDay = query.bornTo() == null ? Integer.MAX_VALUE : (int) query.bornTo().toEpochDay();
+
+        // the smallest candidate list drives, the other criteria are checked per patient
+        List<List<long[]>> sources = new ArrayList<>();
+        if (scope != null) {
+            sources.add(List.of(scope));
+        }
+        if (lastName != null) {
+            sources.add(query.fuzzy() ? idsOf(byLastName, similarLast) : idsWithPrefix(byLastName, lastName));
+        }
+        if (firstName != null) {
+            sources.add(query.fuzzy() ? idsOf(byFirstName, similarFirst) : idsWithPrefix(byFirstName, firstName));
+        }
+        if (query.bornFrom() != null || query.bornTo() != null) {
+            sources.add(new ArrayList<>(byBirthDay.subMap(fromDay, true, toDay, true).values()));
+        }
+        MergedIds candidates = new MergedIds(sources.isEmpty() ? List.of(allIds()) : smallest(sources));
+
+        long[] result = new long[limit];
+        int found = 0;
+        while (found < limit && candidates.hasNext()) {
+            long id = candidates.next();
+            Entry e = entries.get(id);
+            if (e == null
+                || (scope != null && Arrays.binarySearch(scope, id) < 0)
+                || (lastName != null && !matches(e.lastName(), lastName, similarLast))
+                || (firstName != null && !matches(e.firstName(), firstName, similarFirst))
+                || e.birthDay() < fromDay || e.birthDay() > toDay) {
+                continue;
+            }
+            result[found++] = id;
+        }
+        return found == result.length ? result : Arrays.copyOf(result, found);
+    }
+
+    // --- Memory ---
+
+    public long estimatedBytes() {
+        return entries.size() * BYTES_PER_PATIENT;
+    }
+
+    // --- Helpers ---
+
+    private void add(long id, String firstName, String lastName, LocalDate birthDate) {
+        String last = addName(byLastName, normalize(lastName), id);
+        String first = addName(byFirstName, normalize(firstName), id);
+        int day = (int) birthDate.toEpochDay();
+        SortedLongArrays.insert(byBirthDay, day, id);
+        entries.put(id, new Entry(last, first, day));
+    }
+
+    private void removeEntry(long id) {
+        Entry old = entries.remove(id);
+        if (old != null) {
+            removeName(byLastName, old.lastName(), id);
+            removeName(byFirstName, old.firstName(), id);
+            SortedLongArrays.delete(byBirthDay, old.birthDay(), id);
+        }
+    }
+
+    // Returns the instance kept as key, so all entries with that name share one String
+    private String addName(ConcurrentSkipListMap<String, long[]> names, String name, long id) {
+        boolean isNew = !byLastName.containsKey(name) && !byFirstName.containsKey(name);
+        SortedLongArrays.insert(names, name, id);
+        if (isNew) {
+            for (String trigram : trigrams(name)) {
+                namesByTrigram.computeIfAbsent(trigram, t -> ConcurrentHashMap.newKeySet()).add(name);
+            }
+        }
+        return names.ceilingKey(name);
+    }
+
+    private void addNames(ConcurrentSkipListMap<String, long[]> names, String name, long[] ids) {
+        boolean isNew = !byLastName.containsKey(name) && !byFirstName.containsKey(name);
+        SortedLongArrays.insertAll(names, name, ids);
+        if (isNew) {
+            for (String trigram : trigrams(name)) {
+                namesByTrigram.computeIfAbsent(trigram, t -> ConcurrentHashMap.newKeySet()).add(name);
+            }
+        }
+    }
+
+    private void removeName(ConcurrentSkipListMap<String, long[]> names, String name, long id) {
+        SortedLongArrays.delete(names, name, id);
+        if (!byLastName.containsKey(name) && !byFirstName.containsKey(name)) {
+            for (String trigram : trigrams(name)) {
+                namesByTrigram.computeIfPresent(trigram, (t, set) -> {
+                    set.remove(name);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+        }
+    }
+
+    private void clear() {
+        ready = false;
+        entries.clear();
+        byLastName.clear();
+        byFirstName.clear();
+        byBirthDay.clear();
+        namesByTrigram.clear();
+    }
+
+    private static boolean matches(String name, String query, Set<String> similar) {
+        return similar != null ? similar.contains(name) : name.startsWith(query);
+    }
+
+    private static List<long[]> idsWithPrefix(NavigableMap<String, long[]> names, String prefix) {
+        return new ArrayList<>(names.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+    }
+
+    private static List<long[]> idsOf(Map<String, long[]> names, Set<String> selected) {
+        List<long[]> ids = new ArrayList<>();
+        for (String name : selected) {
+            long[] a = names.get(name);
+            if (a != null) {
+                ids.add(a);
+            }
+        }
+        return ids;
+    }
+
+    // Names with a trigram similarity of at least the threshold
+    private Set<String> similarNames(String query) {
+        Set<String> queryTrigrams = trigrams(query);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : queryTrigrams) {
+            for (String name : namesByTrigram.getOrDefault(trigram, Set.of())) {
+                shared.merge(name, 1, Integer::sum);
+            }
+        }
+        Set<String> similar = new HashSet<>();
+        shared.forEach((name, common) -> {
+            int union = queryTrigrams.size() + trigrams(name).size() - common;
+            if ((double) common / union >= FUZZY_THRESHOLD) {
+                similar.add(name);
+            }
+        });
+        return similar;
+    }
+
+    private long[] allIds() {
+        long[] ids = entries.keySet().stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static List<long[]> smallest(List<List<long[]>> sources) {
+        List<long[]> best = null;
+        long bestSize = Long.MAX_VALUE;
+        for (List<long[]> source : sources) {
+            long size = 0;
+            for (long[] a : source) {
+                size += a.length;
+            }
+            if (size < bestSize) {
+                best = source;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Ascending ids of several sorted arrays. Many candidates are merged lazily with a heap,
+     * so a search with a limit only pays for the candidates it looks at; a few are simply
+     * concatenated and sorted, that is cheaper than the heap. A patient is in at most one
+     * array of a source, there are no duplicates to skip.
+     */
+    private static final class MergedIds {
+        private static final int SORT_THRESHOLD = 16_384;
+
+        private final List<long[]> arrays;
+        private final int[] pos;
+        private final PriorityQueue<Integer> heap;
+
+        MergedIds(List<long[]> sorted) {
+            long size = 0;
+            for (long[] a : sorted) {
+                size += a.length;
+            }
+            if (sorted.size() > 1 && size <= SORT_THRESHOLD) {
+                long[] all = new long[(int) size];
+                int at = 0;
+                for (long[] a : sorted) {
+                    System.arraycopy(a, 0, all, at, a.length);
+                    at += a.length;
+                }
+                Arrays.sort(all);
+                sorted = List.of(all);
+            }
+            List<long[]> arrays = sorted;
+            this.arrays = arrays;
+            this.pos    = new int[arrays.size()];
+            this.heap   = new PriorityQueue<>(Math.max(1, arrays.size()),
+                Comparator.comparingLong(i -> arrays.get(i)[pos[i]]));
+            for (int i = 0; i < arrays.size(); i++) {
+                if (arrays.get(i).length > 0) {
+                    heap.add(i);
+                }
+            }
+        }
+
+        boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        long next() {
+            int i = heap.poll();
+            long id = arrays.get(i)[pos[i]++];
+            if (pos[i] < arrays.get(i).length) {
+                heap.add(i);
+            }
+            return id;
+        }
+    }
+
+    static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name.strip(), Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    // Padded like pg_trgm: two spaces in front, one at the end
+    static Set<String> trigrams(String name) {
+        String padded = "  " + name + " ";
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+}
@@ -0,0 +1,229 @@
+package com.julianhaeh.hospital.system.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.repository.HospitalRepository;
+import com.julianhaeh.hospital.system.repository.RegistrationRepository;
+
+/**
+ * In-memory adjacency index of the registration table, in both directions.
+ * Each key maps to a sorted long[] that is replaced on every change, see SortedLongArrays.
+ *
+ * Writers must hold {@link #lockFor(long)} of the patient (or {@link #lockPatients},
+ * {@link #lockAll()}) around the database write and the index update, so the index
+ * applies changes in commit order. Hospital writers lock the same stripes by hospital id.
+ * If the number of edges grows beyond the configured maximum, the index turns itself off
+ * and callers fall back to the database.
+ */
+@Component
+public final class RegistrationIndex {
+
+    private static final int STRIPES = 64;
+    // rough size of a map entry plus boxed key and array header, per key
+    private static final long BYTES_PER_KEY = 96;
+
+    private final HospitalRepository hospitalRepo;
+    private final RegistrationRepository registrationRepo;
+    private final long maxEdges;
+    private final TransactionTemplate tx;
+
+    private final ConcurrentHashMap<Long, long[]> patientsByHospital = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, long[]> hospitalsByPatient = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final AtomicLong edges = new AtomicLong();
+    private volatile boolean ready = false;
+
+    public RegistrationIndex(HospitalRepository hospitalRepo,
+                             RegistrationRepository registrationRepo,
+                             MeterRegistry meterRegistry,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${hospital.registration-index.max-edges:10000000}") long maxEdges) {
+        this.hospitalRepo     = hospitalRepo;
+        this.registrationRepo = registrationRepo;
+        this.maxEdges         = maxEdges;
+        this.tx               = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        Gauge.builder("hospital.registration.index.edges", edges, AtomicLong::get)
+            .register(meterRegistry);
+        Gauge.builder("hospital.registration.index.bytes", this, RegistrationIndex::estimatedBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    // Writers wait for the load, they hold the stripes it holds; see IndexLoader
+    public void reload() {
+        lockAll();
+        try {
+            ready = false;
+            patientsByHospital.clear();
+            hospitalsByPatient.clear();
+            edges.set(0);
+            // read-write, so it is served by the primary, a replica may miss recent registrations
+            tx.executeWithoutResult(status -> load());
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void load() {
+        for (Long hospitalId : hospitalRepo.findAllIds()) {
+            List<Long> patientIds = registrationRepo.findPatientIdsByHospitalId(hospitalId);
+            if (patientIds.isEmpty()) {
+                continue;
+            }
+            if (edges.addAndGet(patientIds.size()) > maxEdges) {
+                disable();
+                return;
+            }
+            long[] sorted = new long[patientIds.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = patientIds.get(i);
+                SortedLongArrays.insert(hospitalsByPatient, sorted[i], hospitalId);
+            }
+            patientsByHospital.put(hospitalId, sorted);
+        }
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long[] patientsOf(long hospitalId) {
+        return patientsByHospital.getOrDefault(hospitalId, SortedLongArrays.EMPTY);
+    }
+
+    public long[] hospitalsOf(long patientId) {
+        return hospitalsByPatient.getOrDefault(patientId, SortedLongArrays.EMPTY);
+    }
+
+    public boolean contains(long patientId, long hospitalId) {
+        return Arrays.binarySearch(hospitalsOf(patientId), hospitalId) >= 0;
+    }
+
+    // --- Locking ---
+
+    public ReentrantLock lockFor(long patientId) {
+        return locks[stripe(patientId)];
+    }
+
+    private static int stripe(long patientId) {
+        return Long.hashCode(patientId) & (STRIPES - 1);
+    }
+
+    // The stripes of all the patients, in stripe order like lockAll; pass the result to unlock()
+    public int[] lockPatients(Collection<Long> patientIds) {
+        BitSet stripes = new BitSet(STRIPES);
+        for (long patientId : patientIds) {
+            stripes.set(stripe(patientId));
+        }
+        int[] locked = stripes.stream().toArray();
+        for (int i : locked) {
+            locks[i].lock();
+        }
+        return locked;
+    }
+
+    // Hospitals share the stripes, so lockAll also waits for their writers
+    public ReentrantLock lockForHospital(long hospitalId) {
+        return locks[stripe(hospitalId)];
+    }
+
+    public int[] lockHospitals(Collection<Long> hospitalIds) {
+        return lockPatients(hospitalIds);
+    }
+
+    public void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    // Always in stripe order, so two callers of lockAll can't deadlock
+    public void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    public void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    // --- Updates, call with the lock held and after the database write ---
+
+    public void add(long patientId, long hospitalId) {
+        if (!ready) {
+            return;
+        }
+        if (SortedLongArrays.insert(hospitalsByPatient, patientId, hospitalId)) {
+            SortedLongArrays.insert(patientsByHospital, hospitalId, patientId);
+            if (edges.incrementAndGet() > maxEdges) {
+                disable();
+            }
+        }
+    }
+
+    public void remove(long patientId, long hospitalId) {
+        if (SortedLongArrays.delete(hospitalsByPatient, patientId, hospitalId)) {
+            SortedLongArrays.delete(patientsByHospital, hospitalId, patientId);
+            edges.decrementAndGet();
+        }
+    }
+
+    public void removePatient(long patientId) {
+        long[] hospitalIds = hospitalsByPatient.remove(patientId);
+        if (hospitalIds != null) {
+            for (long hospitalId : hospitalIds) {
+                SortedLongArrays.delete(patientsByHospital, hospitalId, patientId);
+            }
+            edges.addAndGet(-hospitalIds.length);
+        }
+    }
+
+    public void removeHospital(long hospitalId) {
+        long[] patientIds = patientsByHospital.remove(hospitalId);
+        if (patientIds != null) {
+            for (long patientId : patientIds) {
+                SortedLongArrays.delete(hospitalsByPatient, patientId, hospitalId);
+            }
+            edges.addAndGet(-patientIds.length);
+        }
+    }
+
+    // --- Memory ---
+
+    public long edgeCount() {
+        return edges.get();
+    }
+
+    // Every edge is stored twice as a long, plus per-key overhead of both maps
+    public long estimatedBytes() {
+        long keys = patientsByHospital.size() + hospitalsByPatient.size();
+        return edges.get() * 2 * Long.BYTES + keys * BYTES_PER_KEY;
+    }
+
+    private void disable() {
+        ready = false;
+        patientsByHospital.clear();
+        hospitalsByPatient.clear();
+        edges.set(0);
+    }
+}
@@ -0,0 +1,98 @@
+package com.julianhaeh.hospital.system.index;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Copy-on-write helpers for maps of sorted long[] values: an update replaces the array of
+ * the key, so readers never lock and always see a consistent array for one key.
+ */
+final class SortedLongArrays {
+
+    static final long[] EMPTY = new long[0];
+
+    private SortedLongArrays() {}
+
+    // Returns false if the value was there already
+    static <K> boolean insert(ConcurrentMap<K, long[]> map, K key, long value) {
+        boolean[] changed = new boolean[1];
+        map.compute(key, (k, current) -> {
+            changed[0] = false;
+            if (current == null) {
+                changed[0] = true;
+                return new long[] { value };
+            }
+            int pos = Arrays.binarySearch(current, value);
+            if (pos >= 0) {
+                return current;
+            }
+            int insertAt = -pos - 1;
+            long[] next = new long[current.length + 1];
+            System.arraycopy(current, 0, next, 0, insertAt);
+            next[insertAt] = value;
+            System.arraycopy(current, insertAt, next, insertAt + 1, current.length - insertAt);
+            changed[0] = true;
+            return next;
+        });
+        return changed[0];
+    }
+
+    // Inserts all values with one copy of the key's array; sorts values in place
+    static <K> void insertAll(ConcurrentMap<K, long[]> map, K key, long[] values) {
+        Arrays.sort(values);
+        map.compute(key, (k, old) -> {
+            long[] current = old == null ? EMPTY : old;
+            long[] next = new long[current.length + values.length];
+            int i = 0;
+            int j = 0;
+            int size = 0;
+            while (i < current.length || j < values.length) {
+                long value = j == values.length || (i < current.length && current[i] <= values[j])
+                    ? current[i++]
+                    : values[j++];
+                if (size == 0 || next[size - 1] != value) {
+                    next[size++] = value;
+                }
+            }
+            return size == next.length ? next : Arrays.copyOf(next, size);
+        });
+    }
+
+    // Returns false if the value wasn't there, removes the key with its last value
+    static <K> boolean delete(ConcurrentMap<K, long[]> map, K key, long value) {
+        boolean[] changed = new boolean[1];
+        map.computeIfPresent(key, (k, current) -> {
+            changed[0] = false;
+            int pos = Arrays.binarySearch(current, value);
+            if (pos < 0) {
+                return current;
+            }
+            changed[0] = true;
+            if (current.length == 1) {
+                return null;
+            }
+            long[] next = new long[current.length - 1];
+            System.arraycopy(current, 0, next, 0, pos);
+            System.arraycopy(current, pos + 1, next, pos, current.length - pos - 1);
+            return next;
+        });
+        return changed[0];
+    }
+
+    // Collects the values of one key in ascending order, to store the array once when done
+    static final class Appender {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * First stage of the ingest: reads the file in chunks that end at a line break and hands
+ * each one to a parser thread. The parsed chunks are queued in file order, so the writer
+ * sees the rows in the order of the file.
+ *
+ * Buffers and queue are bounded. When the writer falls behind the queue fills up, the
+ * reader blocks and the parsers run out of work, so any file size takes the same memory:
+ * about (parsers + 1) chunks of bytes and the queued chunks of rows.
+ */
+final class ChunkReader implements Runnable {
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final int maxBuffers;
+    private final ExecutorService parsers;
+    private final BlockingQueue<Future<ParsedChunk>> parsed;
+    // returned by the parsers once a chunk is parsed
+    private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+    private int buffers;
+
+    ChunkReader(FileChannel channel, int chunkSize, int maxBuffers,
+                ExecutorService parsers, BlockingQueue<Future<ParsedChunk>> parsed) {
+        this.channel    = channel;
+        this.chunkSize  = chunkSize;
+        this.maxBuffers = maxBuffers;
+        this.parsers    = parsers;
+        this.parsed     = parsed;
+    }
+
+    @Override
+    public void run() {
+        try {
+            read();
+            parsed.put(CompletableFuture.completedFuture(ParsedChunk.END));
+        } catch (InterruptedException e) {
+            // the writer has stopped
+        } catch (IOException | RuntimeException e) {
+            try {
+                parsed.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException stopped) {
+                // the writer has stopped
+            }
+        }
+    }
+
+    private void read() throws IOException, InterruptedException {
+        // the incomplete last line of a chunk, it starts the next one
+        byte[] carry = new byte[chunkSize];
+        int carried = 0;
+        long offset = 0;
+        long line = 1;
+        RowParser parser = null;
+        while (true) {
+            byte[] buf = buffer();
+            System.arraycopy(carry, 0, buf, 0, carried);
+            int length = carried;
+            int read = 0;
+            while (length < buf.length && (read = channel.read(ByteBuffer.wrap(buf, length, buf.length - length))) > 0) {
+                length += read;
+            }
+            boolean eof = read < 0;
+            if (length == 0) {
+                freeBuffers.add(buf);
+                return;
+            }
+            int end = eof ? length : lastLineEnd(buf, length);
+            if (end == 0) {
+                throw new IOException("Line " + line + " is longer than the chunk size of " + chunkSize + " bytes");
+            }
+            carried = length - end;
+            System.arraycopy(buf, end, carry, 0, carried);
+            if (parser == null) {
+                parser = RowParser.detect(buf, end);
+            }
+            RowParser p = parser;
+            long firstLine = line;
+            long endOffset = offset + end;
+            int chunkLength = end;
+            parsed.put(parsers.submit(() -> {
+                try {
+                    return p.parse(buf, chunkLength, firstLine, endOffset);
+                } finally {
+                    freeBuffers.add(buf);
+                }
+            }));
+            line += lines(buf, end);
+            offset = endOffset;
+            if (eof) {
+                return;
+            }
+        }
+    }
+
+    private byte[] buffer() throws InterruptedException {
+        byte[] buf = freeBuffers.poll();
+        if (buf == null) {
+            if (buffers < maxBuffers) {
+                buffers++;
+                return new byte[chunkSize];
+            }
+            buf = freeBuffers.take();
+        }
+        return buf;
+    }
+
+    // Position after the last line break, 0 if there is none
+    private static int lastLineEnd(byte[] buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    // Lines started in the chunk, the last one may lack its line break at the end of the file
+    private static long lines(byte[] buf, int length) {
+        long lines = 0;
+        for (int i = 0; i < length; i++) {
+            if (buf[i] == '\n') {
+                lines++;
+            }
+        }
+        return buf[length - 1] == '\n' ? lines : lines + 1;
+    }
+}
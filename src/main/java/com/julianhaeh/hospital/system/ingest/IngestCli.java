@@ -0,0 +1,63 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.grpc.IngestError;
+import com.julianhaeh.hospital.system.grpc.IngestProgress;
+
+/**
+ * Command line entry point for the file ingest, run instead of the server:
+ * <pre>
+ *   java -jar hospital-system.jar ingest FILE [--spring.profiles.active=prod ...]
+ * </pre>
+ * Boots the application without gRPC server and web server and prints the progress while
+ * it runs. FILE is any path, not only one in hospital.ingest.dir.
+ */
+public final class IngestCli {
+
+    public static final String INGEST = "ingest";
+
+    private IngestCli() {}
+
+    public static boolean handles(String[] args) {
+        return args.length >= 2 && args[0].equals(INGEST);
+    }
+
+    // Exit code: 0 if every row was ingested, 2 if some were rejected
+    public static int run(Class<?> application, String[] args) {
+        Path file = Path.of(args[1]);
+        // as command line arguments, they win over application.properties and profiles
+        String[] springArgs = Stream.concat(
+                Stream.of("--grpc.server.port=-1"),
+                Arrays.stream(args, 2, args.length))
+            .toArray(String[]::new);
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(application)
+                .web(WebApplicationType.NONE)
+                .run(springArgs)) {
+            IngestProgress done = context.getBean(IngestService.class).ingest(file, IngestCli::print);
+            print(done);
+            for (IngestError error : done.getErrorsList()) {
+                System.out.printf("line %d: %s%n", error.getLine(), error.getMessage());
+            }
+            return done.getRejected() == 0 ? 0 : 2;
+        } catch (Exception e) {
+            System.err.println(INGEST + " " + file + " failed: " + e);
+            return 1;
+        }
+    }
+
+    private static void print(IngestProgress p) {
+        System.out.printf("%s%d%% of %d bytes, %d lines: %d patients created, %d matched, %d registrations,"
+                + " %d already registered, %d rejected, %.0f rows/s, %d ms%n",
+            p.getDone() ? "done: " : "",
+            p.getBytesTotal() == 0 ? 100 : p.getBytesRead() * 100 / p.getBytesTotal(), p.getBytesTotal(), p.getLines(),
+            p.getPatientsCreated(), p.getPatientsMatched(), p.getRegistrationsCreated(), p.getAlreadyRegistered(),
+            p.getRejected(), p.getRowsPerSecond(), p.getMillis());
+    }
+}
@@ -0,0 +1,6 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import com.julianhaeh.hospital.system.repository.PatientKey;
+
+// One admission of a file: the patient, resolved or created by key, is registered at the hospital
+record IngestRow(long line, PatientKey patient, long hospitalId) {}
@@ -0,0 +1,245 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+import com.julianhaeh.hospital.system.grpc.IngestProgress;
+import com.julianhaeh.hospital.system.repository.IngestQueries;
+import com.julianhaeh.hospital.system.repository.PatientKey;
+import com.julianhaeh.hospital.system.service.HospitalService;
+import com.julianhaeh.hospital.system.service.NotFoundException;
+
+/**
+ * Ingests the admissions of a partner file: each row's patient is looked up by names and
+ * birth date, created if there is none, and registered at the row's hospital.
+ *
+ * Three stages with bounded queues in between, see ChunkReader: one thread reads chunks,
+ * parse-threads parse them, and the calling thread writes the rows in file order, in
+ * batches of batch-size. Per batch it looks up the patients, hospitals and registrations
+ * with one statement each, then creates the missing patients and registrations through
+ * the bulk operations of the HospitalService, so caches, indexes and the change log see
+ * them like any other write.
+ *
+ * The database is the only state across batches, so memory doesn't grow with the file, and
+ * a file that was ingested (partly) before can be ingested again: rows already in the
+ * database are matched, not duplicated. Rows that can't be ingested are counted, the
+ * first max-errors of them are reported with their line. One ingest runs at a time;
+ * patients created concurrently through the RPCs are not deduplicated.
+ */
+@Component
+public class IngestService {
+
+    private final HospitalService service;
+    private final IngestQueries queries;
+    private final TransactionTemplate tx;
+    private final ReentrantLock running = new ReentrantLock();
+    // null if the RPC is off
+    private final Path dir;
+    private final int chunkSize;
+    private final int parseThreads;
+    private final int batchSize;
+    private final long progressIntervalNanos;
+    private final int maxErrors;
+
+    public IngestService(HospitalService service,
+                         IngestQueries queries,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${hospital.ingest.dir:}") String dir,
+                         @Value("${hospital.ingest.chunk-size:1MB}") DataSize chunkSize,
+                         @Value("${hospital.ingest.parse-threads:0}") int parseThreads,
+                         @Value("${hospital.ingest.batch-size:1000}") int batchSize,
+                         @Value("${hospital.ingest.progress-interval:5s}") Duration progressInterval,
+                         @Value("${hospital.ingest.max-errors:100}") int maxErrors) {
+        this.service               = service;
+        this.queries               = queries;
+        this.tx                    = new TransactionTemplate(transactionManager);
+        this.dir                   = dir.isBlank() ? null : Path.of(dir);
+        this.chunkSize             = (int) chunkSize.toBytes();
+        this.parseThreads          = parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+        this.batchSize             = batchSize;
+        this.progressIntervalNanos = progressInterval.toNanos();
+        this.maxErrors             = maxErrors;
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    // The file of that name in the ingest directory; names with a path are an IllegalArgumentException
+    public Path resolve(String name) {
+        if (name.isBlank() || name.startsWith(".") || name.contains("/") || name.contains("\\")) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        return dir.resolve(name);
+    }
+
+    /**
+     * Ingests the file and returns the final counts.
+     *
+     * @param progress gets the counts every progress-interval, on the calling thread; an
+     *                 exception thrown by it stops the ingest, the batches written so far stay
+     * @throws IllegalStateException if another ingest is running
+     */
+    public IngestProgress ingest(Path file, Consumer<IngestProgress> progress) throws IOException {
+        if (!running.tryLock()) {
+            throw new IllegalStateException("Another file is being ingested");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            IngestStats stats = new IngestStats(channel.size(), maxErrors);
+            ExecutorService parsers = Executors.newFixedThreadPool(parseThreads, r -> {
+                Thread t = new Thread(r, "ingest-parse");
+                t.setDaemon(true);
+                return t;
+            });
+            BlockingQueue<Future<ParsedChunk>> parsed = new ArrayBlockingQueue<>(2 * parseThreads);
+            Thread reader = new Thread(new ChunkReader(channel, chunkSize, parseThreads + 1, parsers, parsed), "ingest-read");
+            reader.setDaemon(true);
+            reader.start();
+            try {
+                List<IngestRow> batch = new ArrayList<>(batchSize);
+                long nextProgress = System.nanoTime() + progressIntervalNanos;
+                for (ParsedChunk chunk = next(parsed); chunk != ParsedChunk.END; chunk = next(parsed)) {
+                    stats.parsed(chunk);
+                    for (IngestRow row : chunk.rows()) {
+                        batch.add(row);
+                        if (batch.size() == batchSize) {
+                            write(batch, stats);
+                            batch.clear();
+                        }
+                    }
+                    if (System.nanoTime() - nextProgress >= 0) {
+                        progress.accept(stats.toProgress(false));
+                        nextProgress = System.nanoTime() + progressIntervalNanos;
+                    }
+                }
+                write(batch, stats);
+            } finally {
+                reader.interrupt();
+                parsers.shutdownNow();
+            }
+            return stats.toProgress(true);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    private static ParsedChunk next(BlockingQueue<Future<ParsedChunk>> parsed) throws IOException {
+        try {
+            return parsed.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ingest interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException("Ingest failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // --- Writing, one batch at a time ---
+
+    private record Lookup(Map<PatientKey, Long> patients, Set<Long> hospitals, Set<RegistrationId> registrations) {}
+
+    private void write(List<IngestRow> batch, IngestStats stats) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<PatientKey> keys = new HashSet<>();
+        Set<Long> hospitalIds = new HashSet<>();
+        for (IngestRow row : batch) {
+            keys.add(row.patient());
+            hospitalIds.add(row.hospitalId());
+        }
+        // read-write, so it is served by the primary
+        Lookup lookup = tx.execute(status -> {
+            Map<PatientKey, Long> patients = queries.findPatients(keys);
+            return new Lookup(patients, queries.findHospitalIds(hospitalIds),
+                queries.findRegistrationsOfPatients(new HashSet<>(patients.values())));
+        });
+        Map<PatientKey, Long> patientIds = new HashMap<>(lookup.patients());
+
+        // rows of unknown hospitals don't create their patient either
+        List<IngestRow> accepted = new ArrayList<>(batch.size());
+        Map<PatientKey, PatientEntity> newPatients = new LinkedHashMap<>();
+        for (IngestRow row : batch) {
+            if (!lookup.hospitals().contains(row.hospitalId())) {
+                stats.reject(row.line(), "Unknown hospital " + row.hospitalId());
+                continue;
+            }
+            accepted.add(row);
+            if (!patientIds.containsKey(row.patient())) {
+                newPatients.computeIfAbsent(row.patient(),
+                    k -> new PatientEntity(k.firstName(), k.lastName(), k.birthDate()));
+            }
+        }
+        List<Long> createdIds = newPatients.isEmpty() ? List.of() : service.createPatients(new ArrayList<>(newPatients.values()));
+        int i = 0;
+        for (PatientKey key : newPatients.keySet()) {
+            patientIds.put(key, createdIds.get(i++));
+        }
+        stats.patients(newPatients.size(), accepted.size() - newPatients.size());
+
+        // line of each new registration, for the errors
+        Map<RegistrationId, Long> registrations = new LinkedHashMap<>();
+        int existing = 0;
+        for (IngestRow row : accepted) {
+            RegistrationId id = new RegistrationId(patientIds.get(row.patient()), row.hospitalId());
+            if (lookup.registrations().contains(id) || registrations.putIfAbsent(id, row.line()) != null) {
+                existing++;
+            }
+        }
+        stats.registrations(0, existing);
+        register(registrations, stats);
+    }
+
+    private void register(Map<RegistrationId, Long> registrations, IngestStats stats) {
+        if (registrations.isEmpty()) {
+            return;
+        }
+        try {
+            service.registerAll(new ArrayList<>(registrations.keySet()));
+            stats.registrations(registrations.size(), 0);
+        } catch (DataIntegrityViolationException e) {
+            // a concurrent write since the lookup: one by one, register() knows duplicates
+            for (Map.Entry<RegistrationId, Long> registration : registrations.entrySet()) {
+                try {
+                    service.register(registration.getKey().getPatientId(), registration.getKey().getHospitalId());
+                    stats.registrations(1, 0);
+                } catch (NotFoundException notFound) {
+                    stats.reject(registration.getValue(), notFound.getMessage());
+                }
+            }
+        }
+    }
+}
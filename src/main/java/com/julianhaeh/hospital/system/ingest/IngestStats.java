@@ -0,0 +1,81 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.julianhaeh.hospital.system.grpc.IngestError;
+import com.julianhaeh.hospital.system.grpc.IngestProgress;
+
+/**
+ * Counts of one ingest run, kept by the writer thread only. Of the rejected rows only the
+ * first maxErrors are kept with their reason, so a file of garbage doesn't fill the heap.
+ */
+final class IngestStats {
+
+    private final long bytesTotal;
+    private final int maxErrors;
+    private final long start = System.nanoTime();
+    private final List<IngestError> errors = new ArrayList<>();
+
+    private long bytesRead;
+    private long lines;
+    private long rows;
+    private long patientsCreated;
+    private long patientsMatched;
+    private long registrationsCreated;
+    private long alreadyRegistered;
+    private long rejected;
+
+    IngestStats(long bytesTotal, int maxErrors) {
+        this.bytesTotal = bytesTotal;
+        this.maxErrors  = maxErrors;
+    }
+
+    void parsed(ParsedChunk chunk) {
+        bytesRead = chunk.endOffset();
+        lines += chunk.lines();
+        rows += chunk.rows().size();
+        for (IngestError error : chunk.errors()) {
+            reject(error);
+        }
+    }
+
+    void patients(int created, int matched) {
+        patientsCreated += created;
+        patientsMatched += matched;
+    }
+
+    void registrations(int created, int existing) {
+        registrationsCreated += created;
+        alreadyRegistered += existing;
+    }
+
+    void reject(long line, String message) {
+        reject(IngestError.newBuilder().setLine(line).setMessage(message).build());
+    }
+
+    private void reject(IngestError error) {
+        rejected++;
+        if (errors.size() < maxErrors) {
+            errors.add(error);
+        }
+    }
+
+    IngestProgress toProgress(boolean done) {
+        long nanos = System.nanoTime() - start;
+        return IngestProgress.newBuilder()
+            .setBytesRead(bytesRead)
+            .setBytesTotal(bytesTotal)
+            .setLines(lines)
+            .setPatientsCreated(patientsCreated)
+            .setPatientsMatched(patientsMatched)
+            .setRegistrationsCreated(registrationsCreated)
+            .setAlreadyRegistered(alreadyRegistered)
+            .setRejected(rejected)
+            .addAllErrors(errors)
+            .setRowsPerSecond(nanos == 0 ? 0 : rows * 1e9 / nanos)
+            .setMillis(nanos / 1_000_000)
+            .setDone(done)
+            .build();
+    }
+}
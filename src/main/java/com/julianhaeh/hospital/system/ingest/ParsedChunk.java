@@ -0,0 +1,17 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import java.util.List;
+
+import com.julianhaeh.hospital.system.grpc.IngestError;
+
+/**
+ * The rows of one chunk of the file.
+ *
+ * @param lines     lines in the chunk, including blank and rejected ones
+ * @param endOffset position in the file after the chunk
+ */
+record ParsedChunk(List<IngestRow> rows, List<IngestError> errors, long lines, long endOffset) {
+
+    // Marks the end of the file in the queue of parsed chunks
+    static final ParsedChunk END = new ParsedChunk(List.of(), List.of(), 0, -1);
+}
@@ -0,0 +1,193 @@
+package com.julianhaeh.hospital.system.ingest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.julianhaeh.hospital.system.grpc.IngestError;
+import com.julianhaeh.hospital.system.repository.PatientKey;
+
+/**
+ * Parses the lines of a chunk straight from its bytes. A line has the columns first_name,
+ * last_name, birth_date (yyyy-MM-dd or HL7's yyyyMMdd) and hospital_id, separated by
+ * commas, semicolons or HL7-style pipes, whichever comes first in the first line. Values
+ * may be quoted with double quotes, "" is a quote inside them; a quoted value can't span
+ * lines. A first line starting with first_name is a header, blank lines are skipped.
+ *
+ * Stateless apart from the separator, so one instance serves all parser threads.
+ */
+final class RowParser {
+
+    private static final int COLUMNS = 4;
+    private static final String HEADER = "first_name";
+
+    private final byte separator;
+
+    RowParser(byte separator) {
+        this.separator = separator;
+    }
+
+    // The first separator in the first line, a comma if there is none
+    static RowParser detect(byte[] buf, int length) {
+        for (int i = 0; i < length && buf[i] != '\n'; i++) {
+            if (buf[i] == ',' || buf[i] == ';' || buf[i] == '|') {
+                return new RowParser(buf[i]);
+            }
+        }
+        return new RowParser((byte) ',');
+    }
+
+    ParsedChunk parse(byte[] buf, int length, long firstLine, long endOffset) {
+        List<IngestRow> rows = new ArrayList<>(length / 32);
+        List<IngestError> errors = new ArrayList<>();
+        // begin and end of each value, one more than needed to notice extra columns
+        int[] bounds = new int[2 * (COLUMNS + 1)];
+        long line = firstLine;
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && buf[end] != '\n') {
+                end++;
+            }
+            int to = end > start && buf[end - 1] == '\r' ? end - 1 : end;
+            if (to > start) {
+                try {
+                    IngestRow row = parseLine(buf, start, to, line, bounds);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                } catch (IllegalArgumentException e) {
+                    errors.add(IngestError.newBuilder().setLine(line).setMessage(e.getMessage()).build());
+                }
+            }
+            line++;
+            start = end + 1;
+        }
+        return new ParsedChunk(rows, errors, line - firstLine, endOffset);
+    }
+
+    // null for the header
+    private IngestRow parseLine(byte[] buf, int from, int to, long line, int[] bounds) {
+        int columns = split(buf, from, to, bounds);
+        if (line == 1 && text(buf, bounds, 0).equalsIgnoreCase(HEADER)) {
+            return null;
+        }
+        if (columns != COLUMNS) {
+            throw new IllegalArgumentException("Expected " + COLUMNS + " columns, found " + (columns > COLUMNS ? "more" : columns));
+        }
+        String firstName = text(buf, bounds, 0);
+        String lastName = text(buf, bounds, 1);
+        if (firstName.isEmpty() || lastName.isEmpty()) {
+            throw new IllegalArgumentException("Missing name");
+        }
+        LocalDate birthDate = date(buf, bounds[4], bounds[5]);
+        long hospitalId = hospitalId(buf, bounds[6], bounds[7]);
+        return new IngestRow(line, new PatientKey(firstName, lastName, birthDate), hospitalId);
+    }
+
+    // Fills bounds with begin and end of each value, without quotes and surrounding blanks.
+    // Returns the number of values, at most COLUMNS + 1
+    private int split(byte[] buf, int from, int to, int[] bounds) {
+        int columns = 0;
+        int pos = from;
+        while (columns <= COLUMNS) {
+            while (pos < to && buf[pos] == ' ') {
+                pos++;
+            }
+            int begin = pos;
+            int end;
+            if (pos < to && buf[pos] == '"') {
+                begin = ++pos;
+                while (true) {
+                    if (pos >= to) {
+                        throw new IllegalArgumentException("Unterminated quote");
+                    }
+                    if (buf[pos] == '"') {
+                        if (pos + 1 < to && buf[pos + 1] == '"') {
+                            pos += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    pos++;
+                }
+                end = pos++;
+                while (pos < to && buf[pos] != separator) {
+                    pos++;
+                }
+            } else {
+                while (pos < to && buf[pos] != separator) {
+                    pos++;
+                }
+                end = pos;
+                while (end > begin && buf[end - 1] == ' ') {
+                    end--;
+                }
+            }
+            bounds[2 * columns] = begin;
+            bounds[2 * columns + 1] = end;
+            columns++;
+            if (pos >= to) {
+                break;
+            }
+            pos++;
+        }
+        return columns;
+    }
+
+    private static String text(byte[] buf, int[] bounds, int column) {
+        String value = new String(buf, bounds[2 * column], bounds[2 * column + 1] - bounds[2 * column], StandardCharsets.UTF_8);
+        // only quoted values can contain quotes at all
+        return value.indexOf('"') < 0 ? value : value.replace("\"\"", "\"");
+    }
+
+    private static LocalDate date(byte[] buf, int from, int to) {
+        long year = -1;
+        long month = -1;
+        long day = -1;
+        if (to - from == 10 && buf[from + 4] == '-' && buf[from + 7] == '-') {
+            year = digits(buf, from, from + 4);
+            month = digits(buf, from + 5, from + 7);
+            day = digits(buf, from + 8, from + 10);
+        } else if (to - from == 8) {
+            year = digits(buf, from, from + 4);
+            month = digits(buf, from + 4, from + 6);
+            day = digits(buf, from + 6, from + 8);
+        }
+        if (year >= 0 && month >= 0 && day >= 0) {
+            try {
+                return LocalDate.of((int) year, (int) month, (int) day);
+            } catch (DateTimeException e) {
+                // e.g. 1990-02-30, same message as for malformed dates
+            }
+        }
+        throw new IllegalArgumentException("Invalid birth_date: " + new String(buf, from, to - from, StandardCharsets.UTF_8));
+    }
+
+    private static long hospitalId(byte[] buf, int from, int to) {
+        // up to 18 digits can't overflow
+        long id = to - from <= 18 ? digits(buf, from, to) : -1;
+        if (id <= 0) {
+            throw new IllegalArgumentException("Invalid hospital_id: " + new String(buf, from, to - from, StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    // -1 unless they are all digits
+    private static long digits(byte[] buf, int from, int to) {
+        if (from == to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,63 @@
+package com.julianhaeh.hospital.system.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+import javax.sql.DataSource;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+/**
+ * Makes the connections of the application's DataSource (the pool itself, or the replica
+ * proxy in front of it) report every statement they prepare or create to
+ * {@link StatementCounter}, whether Hibernate or a JdbcTemplate issues it.
+ * The bean is proxied by subclassing, so it can still be looked up by its own class.
+ */
+public final class CountingDataSourcePostProcessor implements BeanPostProcessor {
+
+    private static final String DATA_SOURCE = "dataSource";
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource) || !beanName.equals(DATA_SOURCE)) {
+            return bean;
+        }
+        ProxyFactory factory = new ProxyFactory(bean);
+        factory.setProxyTargetClass(true);
+        factory.addAdvice((MethodInterceptor) invocation -> {
+            Object result = invocation.proceed();
+            return invocation.getMethod().getName().equals("getConnection")
+                ? counting((Connection) result)
+                : result;
+        });
+        return factory.getProxy(bean.getClass().getClassLoader());
+    }
+
+    private static Connection counting(Connection target) {
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+            new Class<?>[] { ConnectionProxy.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getTargetConnection":
+                        return target;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "prepareStatement", "prepareCall", "createStatement":
+                        StatementCounter.increment();
+                        break;
+                    default:
+                        break;
+                }
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            });
+    }
+}
@@ -0,0 +1,23 @@
+package com.julianhaeh.hospital.system.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.julianhaeh.hospital.system.grpc.HospitalServiceGrpc;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    @GrpcGlobalServerInterceptor
+    public MetricsInterceptor metricsInterceptor(MeterRegistry registry) {
+        return new MetricsInterceptor(registry, HospitalServiceGrpc.getServiceDescriptor());
+    }
+
+    @Bean
+    public static CountingDataSourcePostProcessor countingDataSourcePostProcessor() {
+        return new CountingDataSourcePostProcessor();
+    }
+}
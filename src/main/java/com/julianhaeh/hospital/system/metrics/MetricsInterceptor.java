@@ -0,0 +1,205 @@
+package com.julianhaeh.hospital.system.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.MessageLite;
+import com.julianhaeh.hospital.system.grpc.EncodedMessage;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records per-method latency, message sizes, in-flight calls, status codes and
+ * SQL statements per call.
+ * All meters of a method are created once, recording a call only updates them.
+ */
+public class MetricsInterceptor implements ServerInterceptor {
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, MethodMetrics> byMethod = new ConcurrentHashMap<>();
+
+    public MetricsInterceptor(MeterRegistry registry, ServiceDescriptor... services) {
+        this.registry = registry;
+        for (ServiceDescriptor service : services) {
+            for (MethodDescriptor<?, ?> method : service.getMethods()) {
+                byMethod.put(method.getFullMethodName(), new MethodMetrics(registry, method.getFullMethodName()));
+            }
+        }
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        String name = call.getMethodDescriptor().getFullMethodName();
+        MethodMetrics metrics = byMethod.get(name);
+        if (metrics == null) {
+            metrics = byMethod.computeIfAbsent(name, n -> new MethodMetrics(registry, n));
+        }
+        MeteredCall<ReqT, RespT> metered = new MeteredCall<>(call, metrics);
+        return new MeteredListener<>(next.startCall(metered, headers), metered);
+    }
+
+    private static int size(Object message) {
+        if (message instanceof EncodedMessage encoded) {
+            return encoded.size();
+        }
+        return message instanceof MessageLite m ? m.getSerializedSize() : 0;
+    }
+
+    static final class MethodMetrics {
+        final Timer latency;
+        final DistributionSummary requestBytes;
+        final DistributionSummary responseBytes;
+        final DistributionSummary statements;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final Counter[] byStatus = new Counter[Status.Code.values().length];
+
+        MethodMetrics(MeterRegistry registry, String method) {
+            latency = Timer.builder("hospital.grpc.server.latency")
+                .tag("method", method)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+            requestBytes = DistributionSummary.builder("hospital.grpc.server.request.size")
+                .tag("method", method)
+                .baseUnit("bytes")
+                .register(registry);
+            responseBytes = DistributionSummary.builder("hospital.grpc.server.response.size")
+                .tag("method", method)
+                .baseUnit("bytes")
+                .register(registry);
+            statements = DistributionSummary.builder("hospital.grpc.server.db.statements")
+                .tag("method", method)
+                .register(registry);
+            Gauge.builder("hospital.grpc.server.in.flight", inFlight, AtomicInteger::get)
+                .tag("method", method)
+                .register(registry);
+            for (Status.Code code : Status.Code.values()) {
+                byStatus[code.ordinal()] = Counter.builder("hospital.grpc.server.calls")
+                    .tag("method", method)
+                    .tag("status", code.name())
+                    .register(registry);
+            }
+        }
+    }
+
+    static final class MeteredCall<ReqT, RespT> extends SimpleForwardingServerCall<ReqT, RespT> {
+        private final MethodMetrics metrics;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private long statements;
+
+        MeteredCall(ServerCall<ReqT, RespT> delegate, MethodMetrics metrics) {
+            super(delegate);
+            this.metrics = metrics;
+            metrics.inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            metrics.responseBytes.record(size(message));
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            // handlers close from inside onHalfClose, pick up their statements before recording
+            countStatements();
+            finish(status.getCode());
+            super.close(status, trailers);
+        }
+
+        // close, cancellation and failure can race, only the first one is recorded
+        void finish(Status.Code code) {
+            if (finished.compareAndSet(false, true)) {
+                metrics.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                metrics.byStatus[code.ordinal()].increment();
+                metrics.statements.record(statements);
+                metrics.inFlight.decrementAndGet();
+            }
+        }
+
+        void countStatements() {
+            statements += StatementCounter.drain();
+        }
+
+        // The handler threw, the server closes the call itself with the exception's status
+        void failed(RuntimeException e) {
+            countStatements();
+            finish(Status.fromThrowable(e).getCode());
+        }
+    }
+
+    static final class MeteredListener<ReqT, RespT> extends SimpleForwardingServerCallListener<ReqT> {
+        private final MeteredCall<ReqT, RespT> call;
+
+        MeteredListener(ServerCall.Listener<ReqT> delegate, MeteredCall<ReqT, RespT> call) {
+            super(delegate);
+            this.call = call;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            call.metrics.requestBytes.record(size(message));
+            StatementCounter.drain();
+            try {
+                super.onMessage(message);
+            } catch (RuntimeException e) {
+                call.failed(e);
+                throw e;
+            } finally {
+                call.countStatements();
+            }
+        }
+
+        @Override
+        public void onHalfClose() {
+            StatementCounter.drain();
+            try {
+                super.onHalfClose();
+            } catch (RuntimeException e) {
+                call.failed(e);
+                throw e;
+            } finally {
+                call.countStatements();
+            }
+        }
+
+        @Override
+        public void onReady() {
+            StatementCounter.drain();
+            try {
+                super.onReady();
+            } finally {
+                call.countStatements();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            call.finish(Status.Code.CANCELLED);
+            super.onCancel();
+        }
+
+        // a call that threw is closed by the server without close(), failed() has recorded it
+        @Override
+        public void onComplete() {
+            call.finish(Status.Code.UNKNOWN);
+            super.onComplete();
+        }
+    }
+}
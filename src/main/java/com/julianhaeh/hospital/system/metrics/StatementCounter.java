@@ -0,0 +1,27 @@
+package com.julianhaeh.hospital.system.metrics;
+
+/**
+ * Counts the SQL statements prepared or created on the current thread, by Hibernate and
+ * by plain JDBC alike. The connections of the application's DataSource report them here,
+ * see {@link CountingDataSourcePostProcessor}.
+ * The global Hibernate statistics can't tell concurrent calls apart, this can.
+ */
+public final class StatementCounter {
+
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    private StatementCounter() {
+    }
+
+    static void increment() {
+        COUNT.get()[0]++;
+    }
+
+    // Returns the count since the last call and starts over
+    public static long drain() {
+        long[] count = COUNT.get();
+        long value = count[0];
+        count[0] = 0;
+        return value;
+    }
+}
@@ -0,0 +1,66 @@
+package com.julianhaeh.hospital.system.replica;
+
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+
+/**
+ * Remembers when each client last committed a write, so its reads can stay on the primary
+ * until the replicas have caught up.
+ *
+ * A client is identified by the x-client-id header, or by its remote address if the header
+ * is missing. As an interceptor it puts that key into the gRPC context of the call; as a
+ * transaction listener it records the time of every read-write commit made for the key.
+ * Entries expire after max-lag, by then every replica that may serve reads has the write.
+ */
+public class ReadYourWrites implements ServerInterceptor, TransactionExecutionListener {
+
+    public static final Metadata.Key<String> CLIENT_ID_HEADER =
+        Metadata.Key.of("x-client-id", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final Context.Key<String> CLIENT_KEY = Context.key("hospital-client");
+
+    private final Cache<String, Long> lastWrites;
+
+    public ReadYourWrites(Duration maxLag) {
+        this.lastWrites = Caffeine.newBuilder()
+            .expireAfterWrite(maxLag)
+            .build();
+    }
+
+    @Override
+    public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call,
+                                                      Metadata headers,
+                                                      ServerCallHandler<Q, R> next) {
+        String client = headers.get(CLIENT_ID_HEADER);
+        if (client == null) {
+            client = String.valueOf(call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR));
+        }
+        return Contexts.interceptCall(Context.current().withValue(CLIENT_KEY, client), call, headers, next);
+    }
+
+    @Override
+    public void afterCommit(TransactionExecution transaction, Throwable commitFailure) {
+        String client = CLIENT_KEY.get();
+        if (commitFailure == null && !transaction.isReadOnly() && client != null) {
+            lastWrites.put(client, System.currentTimeMillis());
+        }
+    }
+
+    // Time of the last write of the client behind the current call, or Long.MIN_VALUE
+    public long lastWriteOfCurrentClient() {
+        String client = CLIENT_KEY.get();
+        Long lastWrite = client == null ? null : lastWrites.getIfPresent(client);
+        return lastWrite == null ? Long.MIN_VALUE : lastWrite;
+    }
+}
@@ -0,0 +1,79 @@
+package com.julianhaeh.hospital.system.replica;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Sends read-only transactions to the replicas in hospital.replica.urls, everything else
+ * to the primary configured by spring.datasource.*.
+ *
+ * The application's DataSource is a LazyConnectionDataSourceProxy: it fetches the real
+ * connection on the first statement, after the transaction manager has marked the
+ * connection read-only for @Transactional(readOnly = true), and then takes it from the
+ * replica router instead of the primary.
+ */
+@Configuration
+@ConditionalOnProperty(name = "hospital.replica.urls")
+public class ReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @GrpcGlobalServerInterceptor
+    public ReadYourWrites readYourWrites(@Value("${hospital.replica.max-lag:2s}") Duration maxLag) {
+        return new ReadYourWrites(maxLag);
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(
+            HikariDataSource primaryDataSource,
+            ReadYourWrites readYourWrites,
+            MeterRegistry meterRegistry,
+            @Value("${hospital.replica.urls}") List<String> urls,
+            @Value("${hospital.replica.username:${spring.datasource.username:sa}}") String username,
+            @Value("${hospital.replica.password:${spring.datasource.password:}}") String password,
+            @Value("${hospital.replica.pool-size:10}") int poolSize,
+            @Value("${hospital.replica.max-lag:2s}") Duration maxLag,
+            @Value("${hospital.replica.heartbeat-interval:200ms}") Duration heartbeatInterval) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + i);
+            replica.setJdbcUrl(urls.get(i));
+            replica.setUsername(username);
+            replica.setPassword(password);
+            replica.setMaximumPoolSize(poolSize);
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(
+            primaryDataSource, replicas, readYourWrites, maxLag, heartbeatInterval, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicas) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicas);
+        return dataSource;
+    }
+}
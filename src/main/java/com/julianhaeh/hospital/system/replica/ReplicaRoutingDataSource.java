@@ -0,0 +1,180 @@
+package com.julianhaeh.hospital.system.replica;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * Hands out connections to one of the replicas, round robin, or to the primary if no
+ * replica is fit to serve the current client.
+ *
+ * Replica lag is measured with a heartbeat: every heartbeat interval the primary's
+ * replication_heartbeat row is set to the current time, and the value found on a replica
+ * tells up to which point in time it has caught up. A replica is used if
+ * <ul>
+ *   <li>its heartbeat is at most max-lag old, and</li>
+ *   <li>its heartbeat is newer than the last write of the calling client
+ *       ({@link ReadYourWrites}), so the client sees its own writes.</li>
+ * </ul>
+ */
+public final class ReplicaRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ReadYourWrites readYourWrites;
+    private final Duration maxLag;
+    private final long maxLagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService heartbeat;
+    private final Counter primaryConnections;
+
+    private static final class Replica {
+        final HikariDataSource dataSource;
+        final Counter connections;
+        // heartbeat value last read from the replica
+        volatile long caughtUpTo = UNKNOWN;
+
+        Replica(HikariDataSource dataSource, Counter connections) {
+            this.dataSource  = dataSource;
+            this.connections = connections;
+        }
+    }
+
+    public ReplicaRoutingDataSource(DataSource primary,
+                                    List<HikariDataSource> replicaDataSources,
+                                    ReadYourWrites readYourWrites,
+                                    Duration maxLag,
+                                    Duration heartbeatInterval,
+                                    MeterRegistry meterRegistry) {
+        this.primary        = primary;
+        this.readYourWrites = readYourWrites;
+        this.maxLag         = maxLag;
+        this.maxLagMillis   = maxLag.toMillis();
+        this.primaryConnections = Counter.builder("hospital.replica.connections")
+            .tag("target", "primary")
+            .register(meterRegistry);
+        for (int i = 0; i < replicaDataSources.size(); i++) {
+            Replica replica = new Replica(replicaDataSources.get(i), Counter.builder("hospital.replica.connections")
+                .tag("target", "replica-" + i)
+                .register(meterRegistry));
+            replicas.add(replica);
+            Gauge.builder("hospital.replica.lag", replica, r -> r.caughtUpTo == UNKNOWN
+                    ? Double.NaN
+                    : System.currentTimeMillis() - r.caughtUpTo)
+                .tag("replica", "replica-" + i)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        }
+
+        createHeartbeatTable();
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = heartbeatInterval.toMillis();
+        heartbeat.scheduleWithFixedDelay(this::refresh, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Duration maxLag() {
+        return maxLag;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return choose().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return choose().getConnection(username, password);
+    }
+
+    private DataSource choose() {
+        long now = System.currentTimeMillis();
+        long lastWrite = readYourWrites.lastWriteOfCurrentClient();
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            long caughtUpTo = replica.caughtUpTo;
+            if (caughtUpTo != UNKNOWN && now - caughtUpTo <= maxLagMillis && caughtUpTo > lastWrite) {
+                replica.connections.increment();
+                return replica.dataSource;
+            }
+        }
+        primaryConnections.increment();
+        return primary;
+    }
+
+    // Writes a new heartbeat to the primary and reads back how far each replica has caught up
+    public void refresh() {
+        try (Connection con = primary.getConnection();
+             PreparedStatement ps = con.prepareStatement(
+                 "update replication_heartbeat set beat_millis = ? where id = 1")) {
+            ps.setLong(1, System.currentTimeMillis());
+            ps.executeUpdate();
+            if (!con.getAutoCommit()) {
+                con.commit();
+            }
+        } catch (SQLException e) {
+            logger.warn("Could not write the replication heartbeat", e);
+        }
+        for (Replica replica : replicas) {
+            replica.caughtUpTo = readHeartbeat(replica.dataSource);
+        }
+    }
+
+    private long readHeartbeat(DataSource replica) {
+        try (Connection con = replica.getConnection();
+             Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("select beat_millis from replication_heartbeat where id = 1")) {
+            return rs.next() ? rs.getLong(1) : UNKNOWN;
+        } catch (SQLException e) {
+            // not reachable or not initialized yet, reads go elsewhere until the next heartbeat
+            return UNKNOWN;
+        }
+    }
+
+    private void createHeartbeatTable() {
+        try (Connection con = primary.getConnection();
+             Statement st = con.createStatement()) {
+            st.execute("create table if not exists replication_heartbeat "
+                + "(id int primary key, beat_millis bigint not null)");
+            st.execute("insert into replication_heartbeat (id, beat_millis) "
+                + "select 1, 0 where not exists (select 1 from replication_heartbeat where id = 1)");
+            if (!con.getAutoCommit()) {
+                con.commit();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create the replication heartbeat table", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+}
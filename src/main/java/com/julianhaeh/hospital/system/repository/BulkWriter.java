@@ -0,0 +1,82 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+
+/**
+ * Persists whole batches in one transaction each.
+ * Uses persist instead of save, so no merge selects are issued and Hibernate can
+ * group the inserts into JDBC batches (hibernate.jdbc.batch_size). Registrations are
+ * neither cached nor needed as entities afterwards, they go through plain JDBC batches.
+ */
+@Component
+public class BulkWriter {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public BulkWriter(DataSource dataSource, PlatformTransactionManager transactionManager) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.tx   = new TransactionTemplate(transactionManager);
+    }
+
+    public List<Long> persistHospitals(List<HospitalEntity> batch) {
+        return tx.execute(status -> {
+            for (HospitalEntity h : batch) {
+                em.persist(h);
+            }
+            em.flush();
+            em.clear();
+            List<Long> ids = new ArrayList<>(batch.size());
+            for (HospitalEntity h : batch) {
+                ids.add(h.getId());
+            }
+            return ids;
+        });
+    }
+
+    public List<Long> persistPatients(List<PatientEntity> batch) {
+        return tx.execute(status -> {
+            for (PatientEntity p : batch) {
+                em.persist(p);
+            }
+            em.flush();
+            em.clear();
+            List<Long> ids = new ArrayList<>(batch.size());
+            for (PatientEntity p : batch) {
+                ids.add(p.getId());
+            }
+            return ids;
+        });
+    }
+
+    // A missing patient or hospital fails on the FK
+    public void persistRegistrations(List<RegistrationId> batch) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        tx.executeWithoutResult(status -> jdbc.batchUpdate(
+            "insert into registration (patient_id, hospital_id, registered_at) values (?, ?, ?)",
+            batch, batch.size(), (ps, id) -> {
+                ps.setLong(1, id.getPatientId());
+                ps.setLong(2, id.getHospitalId());
+                ps.setTimestamp(3, now);
+            }));
+    }
+}
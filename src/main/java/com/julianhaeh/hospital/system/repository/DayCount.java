@@ -0,0 +1,6 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.time.LocalDate;
+
+// Number of registrations made on one day
+public record DayCount(LocalDate day, long registrations) {}
@@ -0,0 +1,4 @@
+package com.julianhaeh.hospital.system.repository;
+
+// Number of patients registered at a hospital
+public record HospitalCount(long hospitalId, String name, long patients) {}
@@ -0,0 +1,53 @@
+package com.julianhaeh.hospital.system.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.julianhaeh.hospital.system.entities.HospitalCounterEntity;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface HospitalCounterRepository extends JpaRepository<HospitalCounterEntity, Long> {
+
+    @Query("select c.patients from HospitalCounterEntity c where c.hospitalId = :hospitalId")
+    Optional<Long> findPatientsByHospitalId(@Param("hospitalId") Long hospitalId);
+
+    @Query("select new com.julianhaeh.hospital.system.repository.HospitalCount(h.id, h.name, c.patients) "
+         + "from HospitalCounterEntity c join c.hospital h "
+         + "order by c.patients desc, h.id")
+    List<HospitalCount> findTopHospitals(Pageable limit);
+
+    @Transactional
+    @Modifying
+    @Query("update HospitalCounterEntity c set c.patients = c.patients + :delta where c.hospitalId = :hospitalId")
+    int add(@Param("hospitalId") Long hospitalId, @Param("delta") long delta);
+
+    // Before the patient is deleted, the cascade removes the registrations without telling us
+    @Transactional
+    @Modifying
+    @Query("update HospitalCounterEntity c set c.patients = c.patients - 1 where c.hospitalId in "
+         + "(select r.id.hospitalId from RegistrationEntity r where r.id.patientId = :patientId)")
+    int removePatient(@Param("patientId") Long patientId);
+
+    // --- Rebuild from the registration table ---
+
+    // Native, Hibernate can't insert-select into an entity whose id is derived with @MapsId
+    @Transactional
+    @Modifying
+    @Query(value = "insert into hospital_counter (hospital_id, patients) "
+                 + "select h.id, 0 from hospital h "
+                 + "where not exists (select 1 from hospital_counter c where c.hospital_id = h.id)",
+           nativeQuery = true)
+    int insertMissing();
+
+    @Transactional
+    @Modifying
+    @Query("update HospitalCounterEntity c set c.patients = "
+         + "(select count(r) from RegistrationEntity r where r.id.hospitalId = c.hospitalId)")
+    int recountAll();
+}
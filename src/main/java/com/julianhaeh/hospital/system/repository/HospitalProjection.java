@@ -0,0 +1,25 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A hospital row with only some of the columns selected, the others are null.
+ * The id is always selected, the keyset paging needs it.
+ */
+public record HospitalProjection(long id, String name, String address) {
+
+    public enum Field {
+        ID("id"),
+        NAME("name"),
+        ADDRESS("address");
+
+        final String attribute;
+
+        Field(String attribute) {
+            this.attribute = attribute;
+        }
+    }
+
+    public static final Set<Field> ALL = EnumSet.allOf(Field.class);
+}
@@ -1,8 +1,30 @@
 package com.julianhaeh.hospital.system.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.julianhaeh.hospital.system.entities.HospitalEntity;
 
+import java.util.List;
+
 public interface HospitalRepository extends JpaRepository<HospitalEntity, Long> {
+
+    @Query("select h.id from HospitalEntity h")
+    List<Long> findAllIds();
+
+    // Single statement writes, the returned row count is 0 if the hospital doesn't exist
+    @Transactional
+    @Modifying
+    @Query("delete from HospitalEntity h where h.id = :id")
+    int deleteWhereId(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update HospitalEntity h set h.name = :name, h.address = :address where h.id = :id")
+    int updateWhereId(@Param("id") Long id,
+                      @Param("name") String name,
+                      @Param("address") String address);
 }
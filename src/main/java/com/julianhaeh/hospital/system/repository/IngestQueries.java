@@ -0,0 +1,93 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.sql.Date;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+
+/**
+ * Plain JDBC lookups of the file ingest, one statement per batch of rows. Joins the
+ * surrounding transaction. The arguments are bounded by the caller, they end up in one
+ * IN list.
+ */
+@Repository
+public class IngestQueries {
+
+    private final JdbcTemplate jdbc;
+
+    public IngestQueries(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    // Id of the existing patient with each key, the oldest one if there are several.
+    // The keys are joined as a VALUES list, an index lookup each on idx_patient_name_birth_date;
+    // H2 takes several times longer for the same keys as a row value IN list
+    public Map<PatientKey, Long> findPatients(Collection<PatientKey> keys) {
+        Map<PatientKey, Long> ids = new HashMap<>();
+        if (keys.isEmpty()) {
+            return ids;
+        }
+        Object[] args = new Object[keys.size() * 3];
+        int i = 0;
+        for (PatientKey key : keys) {
+            args[i++] = key.lastName();
+            args[i++] = key.firstName();
+            args[i++] = Date.valueOf(key.birthDate());
+        }
+        jdbc.query("select p.id, p.first_name, p.last_name, p.birth_date"
+                + " from (values " + placeholders(keys.size(), "(cast(? as varchar), cast(? as varchar), cast(? as date))")
+                + ") k (last_name, first_name, birth_date)"
+                + " join patient p on p.last_name = k.last_name and p.first_name = k.first_name"
+                + " and p.birth_date = k.birth_date"
+                + " order by p.id",
+            rs -> {
+                ids.putIfAbsent(new PatientKey(rs.getString(2), rs.getString(3), rs.getDate(4).toLocalDate()),
+                    rs.getLong(1));
+            },
+            args);
+        return ids;
+    }
+
+    public Set<Long> findHospitalIds(Collection<Long> ids) {
+        Set<Long> found = new HashSet<>();
+        if (!ids.isEmpty()) {
+            jdbc.query("select id from hospital where id in (" + placeholders(ids.size(), "?") + ")",
+                rs -> {
+                    found.add(rs.getLong(1));
+                },
+                ids.toArray());
+        }
+        return found;
+    }
+
+    public Set<RegistrationId> findRegistrationsOfPatients(Collection<Long> patientIds) {
+        Set<RegistrationId> found = new HashSet<>();
+        if (!patientIds.isEmpty()) {
+            jdbc.query("select patient_id, hospital_id from registration where patient_id in ("
+                    + placeholders(patientIds.size(), "?") + ")",
+                rs -> {
+                    found.add(new RegistrationId(rs.getLong(1), rs.getLong(2)));
+                },
+                patientIds.toArray());
+        }
+        return found;
+    }
+
+    private static String placeholders(int count, String placeholder) {
+        StringJoiner list = new StringJoiner(", ");
+        for (int i = 0; i < count; i++) {
+            list.add(placeholder);
+        }
+        return list.toString();
+    }
+}
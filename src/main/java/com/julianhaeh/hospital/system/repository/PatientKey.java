@@ -0,0 +1,9 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.time.LocalDate;
+
+/**
+ * What identifies a patient in files from outside, which don't know our ids: the exact
+ * names and the birth date.
+ */
+public record PatientKey(String firstName, String lastName, LocalDate birthDate) {}
@@ -0,0 +1,27 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A patient row with only some of the columns selected, the others are null.
+ * The id is always selected, the keyset paging needs it.
+ */
+public record PatientProjection(long id, String firstName, String lastName, LocalDate birthDate) {
+
+    public enum Field {
+        ID("id"),
+        FIRST_NAME("firstName"),
+        LAST_NAME("lastName"),
+        BIRTH_DATE("birthDate");
+
+        final String attribute;
+
+        Field(String attribute) {
+            this.attribute = attribute;
+        }
+    }
+
+    public static final Set<Field> ALL = EnumSet.allOf(Field.class);
+}
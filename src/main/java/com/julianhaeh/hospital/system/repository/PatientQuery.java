@@ -0,0 +1,25 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Criteria of a patient search, all given ones must match.
+ *
+ * @param lastName   prefix of the last name, null for any
+ * @param firstName  prefix of the first name, null for any
+ * @param fuzzy      names are matched by similarity instead of as prefixes
+ * @param bornFrom   earliest birth date, inclusive, null for no bound
+ * @param bornTo     latest birth date, inclusive, null for no bound
+ * @param hospitalId only patients registered at this hospital, 0 for all
+ */
+public record PatientQuery(String lastName,
+                           String firstName,
+                           boolean fuzzy,
+                           LocalDate bornFrom,
+                           LocalDate bornTo,
+                           long hospitalId) {
+
+    public boolean isEmpty() {
+        return lastName == null && firstName == null && bornFrom == null && bornTo == null && hospitalId == 0;
+    }
+}
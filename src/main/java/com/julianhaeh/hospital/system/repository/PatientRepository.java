@@ -1,8 +1,34 @@
 package com.julianhaeh.hospital.system.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.julianhaeh.hospital.system.entities.PatientEntity;
 
-public interface PatientRepository extends JpaRepository<PatientEntity, Long> {
+import java.time.LocalDate;
+import java.util.List;
+
+public interface PatientRepository extends JpaRepository<PatientEntity, Long>,
+                                           PatientRepositoryCustom {
+
+    @Query("select p.id from PatientEntity p")
+    List<Long> findAllIds();
+
+    // Single statement writes, the returned row count is 0 if the patient doesn't exist
+    @Transactional
+    @Modifying
+    @Query("delete from PatientEntity p where p.id = :id")
+    int deleteWhereId(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update PatientEntity p set p.firstName = :firstName, p.lastName = :lastName, "
+         + "p.birthDate = :birthDate where p.id = :id")
+    int updateWhereId(@Param("id") Long id,
+                      @Param("firstName") String firstName,
+                      @Param("lastName") String lastName,
+                      @Param("birthDate") LocalDate birthDate);
 }
@@ -0,0 +1,10 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.util.List;
+
+public interface PatientRepositoryCustom {
+
+    // Ids of the matching patients in ascending order, names as case-insensitive prefixes.
+    // Fuzzy queries are not supported, that needs the PatientSearchIndex.
+    List<Long> searchIds(PatientQuery query, int limit);
+}
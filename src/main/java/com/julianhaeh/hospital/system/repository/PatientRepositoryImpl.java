@@ -0,0 +1,64 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.util.List;
+import java.util.Locale;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+class PatientRepositoryImpl implements PatientRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Override
+    public List<Long> searchIds(PatientQuery query, int limit) {
+        if (query.fuzzy()) {
+            throw new IllegalArgumentException("Fuzzy search is not supported by the database query");
+        }
+        StringBuilder jpql = new StringBuilder("select p.id from PatientEntity p where 1 = 1");
+        if (query.lastName() != null) {
+            jpql.append(" and lower(p.lastName) like :lastName escape '\\'");
+        }
+        if (query.firstName() != null) {
+            jpql.append(" and lower(p.firstName) like :firstName escape '\\'");
+        }
+        if (query.bornFrom() != null) {
+            jpql.append(" and p.birthDate >= :bornFrom");
+        }
+        if (query.bornTo() != null) {
+            jpql.append(" and p.birthDate <= :bornTo");
+        }
+        if (query.hospitalId() != 0) {
+            jpql.append(" and exists (select 1 from RegistrationEntity r "
+                + "where r.id.patientId = p.id and r.id.hospitalId = :hospitalId)");
+        }
+        jpql.append(" order by p.id");
+
+        TypedQuery<Long> q = em.createQuery(jpql.toString(), Long.class).setMaxResults(limit);
+        if (query.lastName() != null) {
+            q.setParameter("lastName", likePrefix(query.lastName()));
+        }
+        if (query.firstName() != null) {
+            q.setParameter("firstName", likePrefix(query.firstName()));
+        }
+        if (query.bornFrom() != null) {
+            q.setParameter("bornFrom", query.bornFrom());
+        }
+        if (query.bornTo() != null) {
+            q.setParameter("bornTo", query.bornTo());
+        }
+        if (query.hospitalId() != 0) {
+            q.setParameter("hospitalId", query.hospitalId());
+        }
+        return q.getResultList();
+    }
+
+    private static String likePrefix(String prefix) {
+        return prefix.toLowerCase(Locale.ROOT)
+            .replace("\\", "\\\\")
+            .replace("%", "\\%")
+            .replace("_", "\\_") + "%";
+    }
+}
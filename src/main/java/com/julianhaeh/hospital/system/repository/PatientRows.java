@@ -0,0 +1,30 @@
+package com.julianhaeh.hospital.system.repository;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Plain JDBC reads that hand the rows to a callback as they come, for callers that encode
+ * them directly and need neither entities nor projections.
+ * Joins the surrounding transaction, so it reads from the same connection as JPA.
+ */
+@Repository
+public class PatientRows {
+
+    private final JdbcTemplate jdbc;
+
+    public PatientRows(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    // Columns id, first_name, last_name, birth_date of the hospital's patients, ordered by id
+    public void patientsOfHospital(long hospitalId, RowCallbackHandler rows) {
+        jdbc.query("select p.id, p.first_name, p.last_name, p.birth_date"
+                + " from registration r join patient p on p.id = r.patient_id"
+                + " where r.hospital_id = ? order by p.id",
+            rows, hospitalId);
+    }
+}
@@ -0,0 +1,123 @@
+package com.julianhaeh.hospital.system.repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Queries that select only the requested columns into projections instead of loading
+ * entities: less to read, no entities in the persistence context and nothing to map
+ * that the caller doesn't want.
+ */
+@Repository
+public class ProjectionRepository {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    // ids must be bounded by the caller, they end up in one IN list
+    public List<PatientProjection> findPatients(Collection<Long> ids, Set<PatientProjection.Field> fields) {
+        return em.createQuery(
+                select("p", patientAttributes(fields)) + " from PatientEntity p where p.id in :ids", Tuple.class)
+            .setParameter("ids", ids)
+            .getResultList().stream()
+            .map(t -> toPatient(t, fields))
+            .toList();
+    }
+
+    // Keyset page over all patients, ordered by id
+    public List<PatientProjection> findPatientsAfter(long afterId, int limit, Set<PatientProjection.Field> fields) {
+        return em.createQuery(
+                select("p", patientAttributes(fields)) + " from PatientEntity p where p.id > :afterId order by p.id",
+                Tuple.class)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit)
+            .getResultList().stream()
+            .map(t -> toPatient(t, fields))
+            .toList();
+    }
+
+    // Keyset page: patients of the hospital with an id greater than afterId, ordered by id
+    public List<PatientProjection> findPatientsOfHospital(long hospitalId, long afterId, int limit,
+                                                          Set<PatientProjection.Field> fields) {
+        return em.createQuery(
+                select("p", patientAttributes(fields))
+                    + " from RegistrationEntity r join r.patient p"
+                    + " where r.id.hospitalId = :hospitalId and p.id > :afterId order by p.id", Tuple.class)
+            .setParameter("hospitalId", hospitalId)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit)
+            .getResultList().stream()
+            .map(t -> toPatient(t, fields))
+            .toList();
+    }
+
+    public List<HospitalProjection> findHospitals(Collection<Long> ids, Set<HospitalProjection.Field> fields) {
+        return em.createQuery(
+                select("h", hospitalAttributes(fields)) + " from HospitalEntity h where h.id in :ids", Tuple.class)
+            .setParameter("ids", ids)
+            .getResultList().stream()
+            .map(t -> toHospital(t, fields))
+            .toList();
+    }
+
+    public List<HospitalProjection> findHospitalsOfPatient(long patientId, long afterId, int limit,
+                                                           Set<HospitalProjection.Field> fields) {
+        return em.createQuery(
+                select("h", hospitalAttributes(fields))
+                    + " from RegistrationEntity r join r.hospital h"
+                    + " where r.id.patientId = :patientId and h.id > :afterId order by h.id", Tuple.class)
+            .setParameter("patientId", patientId)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit)
+            .getResultList().stream()
+            .map(t -> toHospital(t, fields))
+            .toList();
+    }
+
+    // --- Helpers ---
+
+    private static String select(String alias, List<String> attributes) {
+        StringJoiner select = new StringJoiner(", ", "select ", "");
+        for (String attribute : attributes) {
+            select.add(alias + "." + attribute + " as " + attribute);
+        }
+        return select.toString();
+    }
+
+    // the id first, it is always selected
+    private static List<String> patientAttributes(Set<PatientProjection.Field> fields) {
+        return attributes(fields.stream().map(f -> f.attribute));
+    }
+
+    private static List<String> hospitalAttributes(Set<HospitalProjection.Field> fields) {
+        return attributes(fields.stream().map(f -> f.attribute));
+    }
+
+    private static List<String> attributes(Stream<String> selected) {
+        return Stream.concat(Stream.of("id"), selected.filter(a -> !a.equals("id"))).toList();
+    }
+
+    private static PatientProjection toPatient(Tuple t, Set<PatientProjection.Field> fields) {
+        return new PatientProjection(
+            t.get("id", Long.class),
+            fields.contains(PatientProjection.Field.FIRST_NAME) ? t.get("firstName", String.class) : null,
+            fields.contains(PatientProjection.Field.LAST_NAME) ? t.get("lastName", String.class) : null,
+            fields.contains(PatientProjection.Field.BIRTH_DATE) ? t.get("birthDate", LocalDate.class) : null);
+    }
+
+    private static HospitalProjection toHospital(Tuple t, Set<HospitalProjection.Field> fields) {
+        return new HospitalProjection(
+            t.get("id", Long.class),
+            fields.contains(HospitalProjection.Field.NAME) ? t.get("name", String.class) : null,
+            fields.contains(HospitalProjection.Field.ADDRESS) ? t.get("address", String.class) : null);
+    }
+}
@@ -1,17 +1,66 @@
 package com.julianhaeh.hospital.system.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.PatientEntity;
 import com.julianhaeh.hospital.system.entities.RegistrationEntity;
 import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 
-public interface RegistrationRepository extends JpaRepository<RegistrationEntity, RegistrationId> {
+public interface RegistrationRepository extends JpaRepository<RegistrationEntity, RegistrationId>,
+                                                RegistrationRepositoryCustom {
 
     
     List<RegistrationEntity> findByHospitalId(Long hospitalId);
 
     List<RegistrationEntity> findByPatientId(Long patientId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from RegistrationEntity r where r.id.patientId = :patientId and r.id.hospitalId = :hospitalId")
+    int deleteWhereIds(@Param("patientId") Long patientId, @Param("hospitalId") Long hospitalId);
+
+    // Joins through the registration so all patients of a hospital are loaded in one statement
+    @Query("select p from RegistrationEntity r join r.patient p where r.id.hospitalId = :hospitalId")
+    List<PatientEntity> findPatientsByHospitalId(@Param("hospitalId") Long hospitalId);
+
+    // Same for the reverse direction
+    @Query("select h from RegistrationEntity r join r.hospital h where r.id.patientId = :patientId")
+    List<HospitalEntity> findHospitalsByPatientId(@Param("patientId") Long patientId);
+
+    @Query("select r.id.patientId from RegistrationEntity r where r.id.hospitalId = :hospitalId order by r.id.patientId")
+    List<Long> findPatientIdsByHospitalId(@Param("hospitalId") Long hospitalId);
+
+    @Query("select r.id.hospitalId from RegistrationEntity r where r.id.patientId = :patientId")
+    List<Long> findHospitalIdsByPatientId(@Param("patientId") Long patientId);
+
+    // --- Counts and aggregates, computed by the database ---
+
+    // Both are answered from an index alone, the primary key and idx_registration_patient_hospital
+    @Query("select count(r) from RegistrationEntity r where r.id.hospitalId = :hospitalId")
+    long countByHospitalId(@Param("hospitalId") Long hospitalId);
+
+    @Query("select count(r) from RegistrationEntity r where r.id.patientId = :patientId")
+    long countByPatientId(@Param("patientId") Long patientId);
+
+    // Range scan on idx_registration_registered_at
+    @Query("select new com.julianhaeh.hospital.system.repository.DayCount("
+         + "cast(r.registeredAt as LocalDate), count(r)) "
+         + "from RegistrationEntity r where r.registeredAt >= :from "
+         + "group by cast(r.registeredAt as LocalDate) order by cast(r.registeredAt as LocalDate)")
+    List<DayCount> countPerDaySince(@Param("from") LocalDateTime from);
+
+    @Query("select new com.julianhaeh.hospital.system.repository.HospitalCount(h.id, h.name, count(r)) "
+         + "from RegistrationEntity r join r.hospital h "
+         + "group by h.id, h.name order by count(r) desc, h.id")
+    List<HospitalCount> findTopHospitals(Pageable limit);
 }
@@ -0,0 +1,10 @@
+package com.julianhaeh.hospital.system.repository;
+
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+
+public interface RegistrationRepositoryCustom {
+
+    // Plain INSERT through references, fails with DataIntegrityViolationException on a missing
+    // patient or hospital (FK) or an existing registration (PK)
+    void insert(RegistrationId id);
+}
@@ -0,0 +1,27 @@
+package com.julianhaeh.hospital.system.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.entities.RegistrationEntity;
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+
+class RegistrationRepositoryImpl implements RegistrationRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Override
+    @Transactional
+    public void insert(RegistrationId id) {
+        PatientEntity patient = em.getReference(PatientEntity.class, id.getPatientId());
+        HospitalEntity hospital = em.getReference(HospitalEntity.class, id.getHospitalId());
+        // persist instead of save, save would merge and select the registration first
+        em.persist(new RegistrationEntity(patient, hospital));
+        // flush here so the constraint violation is translated by the repository proxy
+        em.flush();
+    }
+}
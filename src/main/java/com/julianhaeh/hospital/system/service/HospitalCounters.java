@@ -0,0 +1,115 @@
+package com.julianhaeh.hospital.system.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.entities.HospitalCounterEntity;
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+import com.julianhaeh.hospital.system.repository.HospitalCounterRepository;
+import com.julianhaeh.hospital.system.repository.HospitalCount;
+
+/**
+ * Patients per hospital kept in the hospital_counter table, so counts and the top
+ * hospitals are read from one row per hospital instead of counting registrations.
+ *
+ * Every registration write then also updates the counter row of its hospital in the same
+ * transaction, so concurrent registrations at one hospital queue up on that row. That is
+ * why it is off by default (hospital.stats.counter-table). When on, the table is rebuilt
+ * from the registrations at startup. All update methods do nothing when it is off, and
+ * must be called inside the transaction of the write they account for.
+ */
+@Component
+public class HospitalCounters implements SmartInitializingSingleton {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    private final HospitalCounterRepository counterRepo;
+    private final boolean enabled;
+    private final TransactionTemplate tx;
+
+    public HospitalCounters(HospitalCounterRepository counterRepo,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${hospital.stats.counter-table:false}") boolean enabled) {
+        this.counterRepo = counterRepo;
+        this.enabled     = enabled;
+        this.tx          = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    // Recounts the table from the registrations, e.g. after they were loaded from a snapshot
+    public void rebuild() {
+        if (enabled) {
+            tx.executeWithoutResult(status -> {
+                counterRepo.insertMissing();
+                counterRepo.recountAll();
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Empty if off or the hospital has no counter row
+    public Optional<Long> patientsOf(long hospitalId) {
+        return enabled ? counterRepo.findPatientsByHospitalId(hospitalId) : Optional.empty();
+    }
+
+    public List<HospitalCount> top(int limit) {
+        return counterRepo.findTopHospitals(PageRequest.ofSize(limit));
+    }
+
+    // --- Updates ---
+
+    public void hospitalsCreated(List<Long> hospitalIds) {
+        if (!enabled) {
+            return;
+        }
+        for (Long id : hospitalIds) {
+            em.persist(new HospitalCounterEntity(em.getReference(HospitalEntity.class, id)));
+        }
+        em.flush();
+    }
+
+    public void registered(List<RegistrationId> registrations) {
+        if (!enabled) {
+            return;
+        }
+        // in id order, so two writers can't lock the same rows in opposite order
+        Map<Long, Long> perHospital = new TreeMap<>();
+        for (RegistrationId id : registrations) {
+            perHospital.merge(id.getHospitalId(), 1L, Long::sum);
+        }
+        perHospital.forEach(counterRepo::add);
+    }
+
+    public void unregistered(long hospitalId) {
+        if (enabled) {
+            counterRepo.add(hospitalId, -1);
+        }
+    }
+
+    // Call before the patient is deleted, while the registrations still exist
+    public void patientDeleting(long patientId) {
+        if (enabled) {
+            counterRepo.removePatient(patientId);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package com.julianhaeh.hospital.system.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.cache.EntityCache;
+import com.julianhaeh.hospital.system.changes.ChangeLog;
+import com.julianhaeh.hospital.system.entities.HospitalEntity;
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+import com.julianhaeh.hospital.system.grpc.Hospital;
+import com.julianhaeh.hospital.system.grpc.Patient;
+import com.julianhaeh.hospital.system.grpc.ProtoMapper;
+import com.julianhaeh.hospital.system.index.KnownIds;
+import com.julianhaeh.hospital.system.index.PatientSearchIndex;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+import com.julianhaeh.hospital.system.repository.BulkWriter;
+import com.julianhaeh.hospital.system.repository.DayCount;
+import com.julianhaeh.hospital.system.repository.HospitalCount;
+import com.julianhaeh.hospital.system.repository.HospitalProjection;
+import com.julianhaeh.hospital.system.repository.HospitalRepository;
+import com.julianhaeh.hospital.system.repository.PatientProjection;
+import com.julianhaeh.hospital.system.repository.PatientQuery;
+import com.julianhaeh.hospital.system.repository.PatientRepository;
+import com.julianhaeh.hospital.system.repository.PatientRows;
+import com.julianhaeh.hospital.system.repository.ProjectionRepository;
+import com.julianhaeh.hospital.system.repository.RegistrationRepository;
+
+/**
+ * Operations behind the gRPC service, each runs in exactly one transaction.
+ * Reads are read-only, so Hibernate skips dirty checking and the flush at commit.
+ *
+ * Writes with side effects on the cache or the indexes use the
+ * TransactionTemplate instead of @Transactional: the side effect has to follow the
+ * commit, and the index lock has to be held until the commit is done.
+ *
+ * Change events are appended under the same lock as the commit, so they are logged in
+ * commit order. Creates lock the new ids before their commit, once the ids are known.
+ */
+@Service
+public class HospitalService {
+
+    private final HospitalRepository hospitalRepo;
+    private final PatientRepository patientRepo;
+    private final RegistrationRepository registrationRepo;
+    private final ProjectionRepository projections;
+    private final PatientRows patientRows;
+    private final BulkWriter bulkWriter;
+    private final HospitalCounters counters;
+    private final EntityCache cache;
+    private final RegistrationIndex registrationIndex;
+    private final PatientSearchIndex searchIndex;
+    private final KnownIds knownIds;
+    private final ChangeLog changeLog;
+    private final TransactionTemplate tx;
+
+    public HospitalService(HospitalRepository hospitalRepo,
+                           PatientRepository patientRepo,
+                           RegistrationRepository registrationRepo,
+                           ProjectionRepository projections,
+                           PatientRows patientRows,
+                           BulkWriter bulkWriter,
+                           HospitalCounters counters,
+                           EntityCache cache,
+                           RegistrationIndex registrationIndex,
+                           PatientSearchIndex searchIndex,
+                           KnownIds knownIds,
+                           ChangeLog changeLog,
+                           PlatformTransactionManager transactionManager) {
+        this.hospitalRepo      = hospitalRepo;
+        this.patientRepo       = patientRepo;
+        this.registrationRepo  = registrationRepo;
+        this.projections       = projections;
+        this.patientRows       = patientRows;
+        this.bulkWriter        = bulkWriter;
+        this.counters          = counters;
+        this.cache             = cache;
+        this.registrationIndex = registrationIndex;
+        this.searchIndex       = searchIndex;
+        this.knownIds          = knownIds;
+        this.changeLog         = changeLog;
+        this.tx                = new TransactionTemplate(transactionManager);
+    }
+
+    // --- Hospitals ---
+
+    public Hospital createHospital(String name, String address) {
+        int[][] locked = { new int[0] };
+        try {
+            Hospital hospital = tx.execute(status -> {
+                HospitalEntity entity = hospitalRepo.save(new HospitalEntity(name, address));
+                counters.hospitalsCreated(List.of(entity.getId()));
+                locked[0] = registrationIndex.lockHospitals(List.of(entity.getId()));
+                return ProtoMapper.toProto(entity);
+            });
+            knownIds.addHospital(hospital.getId());
+            changeLog.hospitalCreated(hospital);
+            return hospital;
+        } finally {
+            registrationIndex.unlock(locked[0]);
+        }
+    }
+
+    public Hospital modifyHospital(long id, String name, String address) {
+        Hospital hospital = Hospital.newBuilder()
+            .setId(id)
+            .setName(name)
+            .setAddress(address)
+            .build();
+        // the hospital's lock orders the change events like the commits, deleteHospital holds it too
+        Lock lock = registrationIndex.lockForHospital(id);
+        lock.lock();
+        try {
+            int updated = tx.execute(status -> hospitalRepo.updateWhereId(id, name, address));
+            if (updated == 0) {
+                throw new NotFoundException("Hospital not found with id: " + id);
+            }
+            cache.evictHospital(id);
+            changeLog.hospitalModified(hospital);
+        } finally {
+            lock.unlock();
+        }
+        return hospital;
+    }
+
+    public void deleteHospital(long id) {
+        // the cascade touches registrations of every patient, so all stripes are needed
+        registrationIndex.lockAll();
+        try {
+            int deleted = tx.execute(status -> hospitalRepo.deleteWhereId(id));
+            if (deleted == 0) {
+                throw new NotFoundException("Hospital not found with id: " + id);
+            }
+            cache.evictHospital(id);
+            registrationIndex.removeHospital(id);
+            knownIds.removeHospital(id);
+            changeLog.hospitalDeleted(id);
+        } finally {
+            registrationIndex.unlockAll();
+        }
+    }
+
+    // --- Patients ---
+
+    public Patient createPatient(String firstName, String lastName, LocalDate birthDate) {
+        int[][] locked = { new int[0] };
+        try {
+            Patient patient = tx.execute(status -> {
+                PatientEntity entity = patientRepo.save(new PatientEntity(firstName, lastName, birthDate));
+                locked[0] = registrationIndex.lockPatients(List.of(entity.getId()));
+                return ProtoMapper.toProto(entity);
+            });
+            searchIndex.put(patient.getId(), firstName, lastName, birthDate);
+            knownIds.addPatient(patient.getId());
+            changeLog.patientCreated(patient);
+            return patient;
+        } finally {
+            registrationIndex.unlock(locked[0]);
+        }
+    }
+
+    public Patient modifyPatient(long id, String firstName, String lastName, LocalDate birthDate) {
+        Patient patient = Patient.newBuilder()
+            .setId(id)
+            .setFirstName(firstName)
+            .setLastName(lastName)
+            .setBirthDate(birthDate.toString())
+            .build();
+        // the patient's lock orders the search index updates and change events like the commits
+        Lock lock = registrationIndex.lockFor(id);
+        lock.lock();
+        try {
+            int updated = tx.execute(status -> patientRepo.updateWhereId(id, firstName, lastName, birthDate));
+            if (updated == 0) {
+                throw new NotFoundException("Patient not found with id: " + id);
+            }
+            cache.evictPatient(id);
+            searchIndex.put(id, firstName, lastName, birthDate);
+            changeLog.patientModified(patient);
+        } finally {
+            lock.unlock();
+        }
+        return patient;
+    }
+
+    public void deletePatient(long id) {
+        Lock lock = registrationIndex.lockFor(id);
+        lock.lock();
+        try {
+            int deleted = tx.execute(status -> {
+                counters.patientDeleting(id);
+                return patientRepo.deleteWhereId(id);
+            });
+            if (deleted == 0) {
+                throw new NotFoundException("Patient not found with id: " + id);
+            }
+            cache.evictPatient(id);
+            registrationIndex.removePatient(id);
+            searchIndex.remove(id);
+            knownIds.removePatient(id);
+            changeLog.patientDeleted(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Registrations ---
+
+    public void register(long patientId, long hospitalId) {
+        RegistrationId regId = new RegistrationId(patientId, hospitalId);
+        Lock lock = registrationIndex.lockFor(patientId);
+        lock.lock();
+        try {
+            // a single INSERT, the foreign keys tell us if patient or hospital are missing
+            tx.executeWithoutResult(status -> {
+                registrationRepo.insert(regId);
+                counters.registered(List.of(regId));
+            });
+            registrationIndex.add(patientId, hospitalId);
+            changeLog.registered(patientId, hospitalId);
+        } catch (DataIntegrityViolationException e) {
+            // registering twice is not an error, only a violated foreign key is.
+            // The insert has rolled back, so a cold index costs a second transaction here,
+            // a read-write one, a replica may not have the registration yet.
+            boolean alreadyRegistered = registrationIndex.isReady()
+                ? registrationIndex.contains(patientId, hospitalId)
+                : tx.execute(status -> registrationRepo.existsById(regId));
+            if (!alreadyRegistered) {
+                throw new NotFoundException("Patient or Hospital not found");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unregister(long patientId, long hospitalId) {
+        Lock lock = registrationIndex.lockFor(patientId);
+        lock.lock();
+        try {
+            // with a warm index a missing registration is answered without the database
+            boolean mayExist = !registrationIndex.isReady() || registrationIndex.contains(patientId, hospitalId);
+            if (!mayExist || tx.execute(status -> unregisterInTx(patientId, hospitalId)) == 0) {
+                throw new NotFoundException("Registration not found");
+            }
+            registrationIndex.remove(patientId, hospitalId);
+            changeLog.unregistered(patientId, hospitalId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int unregisterInTx(long patientId, long hospitalId) {
+        int deleted = registrationRepo.deleteWhereIds(patientId, hospitalId);
+        if (deleted > 0) {
+            counters.unregistered(hospitalId);
+        }
+        return deleted;
+    }
+
+    // --- Lookups, served from the cache where possible ---
+    //
+    // The fields select what the returned messages carry, see ProtoMapper.patientFields.
+
+    @Transactional(readOnly = true)
+    public Patient getPatient(long id, Set<PatientProjection.Field> fields) {
+        return cache.findPatient(id)
+            .map(p -> ProtoMapper.mask(p, fields))
+            .orElseThrow(() -> new NotFoundException("Patient not found with id: " + id));
+    }
+
+    @Transactional(readOnly = true)
+    public Hospital getHospital(long id, Set<HospitalProjection.Field> fields) {
+        return cache.findHospital(id)
+            .map(h -> ProtoMapper.mask(h, fields))
+            .orElseThrow(() -> new NotFoundException("Hospital not found with id: " + id));
+    }
+
+    // In the order of ids, missing ids are left out
+    @Transactional(readOnly = true)
+    public List<Patient> getPatients(long[] ids, Set<PatientProjection.Field> fields) {
+        return cache.findPatients(ids, fields);
+    }
+
+    @Transactional(readOnly = true)
+    public List<Hospital> getHospitals(long[] ids, Set<HospitalProjection.Field> fields) {
+        return cache.findHospitals(ids, fields);
+    }
+
+    // --- Lists ---
+
+    @Transactional(readOnly = true)
+    public List<Patient> patientsOfHospital(long hospitalId, Set<PatientProjection.Field> fields) {
+        if (registrationIndex.isReady()) {
+            long[] patientIds = registrationIndex.patientsOf(hospitalId);
+            // the index has everything asked for, no need to touch cache or database
+            if (fields.equals(EnumSet.of(PatientProjection.Field.ID))) {
+                return Arrays.stream(patientIds)
+                    .mapToObj(id -> Patient.newBuilder().setId(id).build())
+                    .toList();
+            }
+            return cache.findPatients(patientIds, fields);
+        }
+        if (fields.containsAll(PatientProjection.ALL)) {
+            return registrationRepo.findPatientsByHospitalId(hospitalId).stream()
+                .map(ProtoMapper::toProto)
+                .toList();
+        }
+        return projections.findPatientsOfHospital(hospitalId, 0, Integer.MAX_VALUE, fields).stream()
+            .map(p -> ProtoMapper.toProto(p, fields))
+            .toList();
+    }
+
+    // Hands the patient rows of a hospital to rows if it has at least minPatients, and tells
+    // whether it did; smaller hospitals are left to patientsOfHospital and its caches.
+    // Without the index every hospital qualifies, patientsOfHospital would query as well
+    @Transactional(readOnly = true)
+    public boolean patientRowsOfHospital(long hospitalId, int minPatients, RowCallbackHandler rows) {
+        if (registrationIndex.isReady() && registrationIndex.patientsOf(hospitalId).length < minPatients) {
+            return false;
+        }
+        patientRows.patientsOfHospital(hospitalId, rows);
+        return true;
+    }
+
+    @Transactional(readOnly = true)
+    public List<Hospital> hospitalsOfPatient(long patientId, Set<HospitalProjection.Field> fields) {
+        long[] hospitalIds = registrationIndex.isReady()
+            ? registrationIndex.hospitalsOf(patientId)
+            : registrationRepo.findHospitalIdsByPatientId(patientId).stream().mapToLong(Long::longValue).toArray();
+        if (fields.equals(EnumSet.of(HospitalProjection.Field.ID))) {
+            return Arrays.stream(hospitalIds)
+                .mapToObj(id -> Hospital.newBuilder().setId(id).build())
+                .toList();
+        }
+        return cache.findHospitals(hospitalIds, fields);
+    }
+
+    // Keyset page of the patients with an id greater than afterId, only the given columns
+    // are read. The id is always there, it is the cursor.
+    @Transactional(readOnly = true)
+    public List<PatientProjection> patientsOfHospitalAfter(long hospitalId, long afterId, int limit,
+                                                           Set<PatientProjection.Field> fields) {
+        return projections.findPatientsOfHospital(hospitalId, afterId, limit, fields);
+    }
+
+    @Transactional(readOnly = true)
+    public List<HospitalProjection> hospitalsOfPatientAfter(long patientId, long afterId, int limit,
+                                                            Set<HospitalProjection.Field> fields) {
+        return projections.findHospitalsOfPatient(patientId, afterId, limit, fields);
+    }
+
+    // --- Search ---
+
+    // Ids of the matching patients in ascending order, at most limit. Fuzzy name matching
+    // needs the search index, without it this is an IllegalStateException.
+    @Transactional(readOnly = true)
+    public long[] searchPatientIds(PatientQuery query, int limit) {
+        if (searchIndex.isReady()) {
+            long[] scope = null;
+            if (query.hospitalId() != 0) {
+                scope = registrationIndex.isReady()
+                    ? registrationIndex.patientsOf(query.hospitalId())
+                    : registrationRepo.findPatientIdsByHospitalId(query.hospitalId()).stream()
+                        .mapToLong(Long::longValue).toArray();
+            }
+            return searchIndex.search(query, scope, limit);
+        }
+        if (query.fuzzy()) {
+            throw new IllegalStateException("Fuzzy search needs the patient search index");
+        }
+        return patientRepo.searchIds(query, limit).stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Up to limit patients of the sorted ids that come after afterId. Patients deleted since
+    // the ids were found are skipped, the page is filled up from the following ids.
+    @Transactional(readOnly = true)
+    public List<Patient> patientsAmong(long[] ids, long afterId, int limit, Set<PatientProjection.Field> fields) {
+        int from = Arrays.binarySearch(ids, afterId);
+        from = from >= 0 ? from + 1 : -from - 1;
+        List<Patient> page = new ArrayList<>(limit);
+        while (page.size() < limit && from < ids.length) {
+            int to = Math.min(from + limit - page.size(), ids.length);
+            page.addAll(cache.findPatients(Arrays.copyOfRange(ids, from, to), fields));
+            from = to;
+        }
+        return page;
+    }
+
+    // --- Counts and aggregates ---
+    //
+    // The registration index knows the counts without a statement. Without it the patients
+    // of a hospital come from the counter table if enabled, else from a COUNT query.
+
+    @Transactional(readOnly = true)
+    public long countPatientsOfHospital(long hospitalId) {
+        if (registrationIndex.isReady()) {
+            return registrationIndex.patientsOf(hospitalId).length;
+        }
+        return counters.patientsOf(hospitalId)
+            .orElseGet(() -> registrationRepo.countByHospitalId(hospitalId));
+    }
+
+    @Transactional(readOnly = true)
+    public long countHospitalsOfPatient(long patientId) {
+        if (registrationIndex.isReady()) {
+            return registrationIndex.hospitalsOf(patientId).length;
+        }
+        return registrationRepo.countByPatientId(patientId);
+    }
+
+    // Registrations per day since the start of the given day, oldest first
+    @Transactional(readOnly = true)
+    public List<DayCount> registrationsPerDaySince(LocalDate from) {
+        return registrationRepo.countPerDaySince(from.atStartOfDay());
+    }
+
+    @Transactional(readOnly = true)
+    public List<HospitalCount> topHospitals(int limit) {
+        return counters.isEnabled()
+            ? counters.top(limit)
+            : registrationRepo.findTopHospitals(PageRequest.ofSize(limit));
+    }
+
+    // --- Bulk, one transaction per batch ---
+
+    public List<Long> createHospitals(List<HospitalEntity> batch) {
+        int[][] locked = { new int[0] };
+        try {
+            // the writer's transaction joins this one, so the counter rows commit with the hospitals
+            List<Long> hospitalIds = tx.execute(status -> {
+                List<Long> ids = bulkWriter.persistHospitals(batch);
+                counters.hospitalsCreated(ids);
+                locked[0] = registrationIndex.lockHospitals(ids);
+                return ids;
+            });
+            for (HospitalEntity h : batch) {
+                knownIds.addHospital(h.getId());
+                changeLog.hospitalCreated(ProtoMapper.toProto(h));
+            }
+            return hospitalIds;
+        } finally {
+            registrationIndex.unlock(locked[0]);
+        }
+    }
+
+    public List<Long> createPatients(List<PatientEntity> batch) {
+        int[][] locked = { new int[0] };
+        try {
+            List<Long> ids = tx.execute(status -> {
+                List<Long> persisted = bulkWriter.persistPatients(batch);
+                locked[0] = registrationIndex.lockPatients(persisted);
+                return persisted;
+            });
+            List<PatientProjection> created = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                PatientEntity p = batch.get(i);
+                created.add(new PatientProjection(ids.get(i), p.getFirstName(), p.getLastName(), p.getBirthDate()));
+                knownIds.addPatient(ids.get(i));
+                changeLog.patientCreated(ProtoMapper.toProto(p));
+            }
+            searchIndex.putAll(created);
+            return ids;
+        } finally {
+            registrationIndex.unlock(locked[0]);
+        }
+    }
+
+    // Locks only the stripes of the batch's patients, other writers go on meanwhile
+    public void registerAll(List<RegistrationId> batch) {
+        int[] stripes = registrationIndex.lockPatients(batch.stream().map(RegistrationId::getPatientId).toList());
+        try {
+            tx.executeWithoutResult(status -> {
+                bulkWriter.persistRegistrations(batch);
+                counters.registered(batch);
+            });
+            for (RegistrationId id : batch) {
+                registrationIndex.add(id.getPatientId(), id.getHospitalId());
+                changeLog.registered(id.getPatientId(), id.getHospitalId());
+            }
+        } finally {
+            registrationIndex.unlock(stripes);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.julianhaeh.hospital.system.service;
+
+/**
+ * Thrown by the service when the requested entity or registration does not exist.
+ */
+public class NotFoundException extends RuntimeException {
+
+    public NotFoundException(String message) {
+        super(message);
+    }
+}
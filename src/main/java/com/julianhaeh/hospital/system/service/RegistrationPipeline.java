@@ -0,0 +1,229 @@
+package com.julianhaeh.hospital.system.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
+import com.julianhaeh.hospital.system.index.KnownIds;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+import com.julianhaeh.hospital.system.metrics.StatementCounter;
+
+/**
+ * Write-behind mode for registrations (hospital.registration.write-behind.enabled).
+ *
+ * A registration is validated against {@link KnownIds} and the registration index,
+ * appended to a bounded lock-free queue and written by a single flusher thread. The
+ * flusher waits until batch-size registrations are queued or max-delay has passed since
+ * the last flush, then commits them all in one transaction with JDBC batching: one
+ * commit for many registrations (group commit). If the batch fails, its registrations
+ * are retried one by one, like the bulk RPCs do.
+ *
+ * With ack=COMMIT the returned future completes after the commit. With ack=ENQUEUE it is
+ * complete once the registration is queued: faster, but a registration can still fail
+ * afterwards (patient deleted meanwhile) or be lost in a crash; such failures are only
+ * logged and counted. Either way a full queue rejects new registrations.
+ */
+@Component
+public final class RegistrationPipeline implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RegistrationPipeline.class);
+
+    public enum Ack { ENQUEUE, COMMIT }
+
+    private record Pending(RegistrationId id, CompletableFuture<Void> done, long enqueuedAt) {}
+
+    private final HospitalService service;
+    private final KnownIds knownIds;
+    private final RegistrationIndex registrationIndex;
+    private final boolean enabled;
+    private final Ack ack;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxDelayNanos;
+
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    // queued registrations, reserved before the append so the queue stays within capacity
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final Timer flushTimer;
+    private final Timer queueLatency;
+    private final DistributionSummary batchSizes;
+    private final Counter failed;
+
+    public RegistrationPipeline(HospitalService service,
+                                KnownIds knownIds,
+                                RegistrationIndex registrationIndex,
+                                MeterRegistry meterRegistry,
+                                @Value("${hospital.registration.write-behind.enabled:false}") boolean enabled,
+                                @Value("${hospital.registration.write-behind.ack:COMMIT}") Ack ack,
+                                @Value("${hospital.registration.write-behind.capacity:100000}") int capacity,
+                                @Value("${hospital.registration.write-behind.batch-size:500}") int batchSize,
+                                @Value("${hospital.registration.write-behind.max-delay:5ms}") Duration maxDelay) {
+        this.service           = service;
+        this.knownIds          = knownIds;
+        this.registrationIndex = registrationIndex;
+        this.enabled           = enabled;
+        this.ack               = ack;
+        this.capacity          = capacity;
+        this.batchSize         = batchSize;
+        this.maxDelayNanos     = maxDelay.toNanos();
+
+        Gauge.builder("hospital.registration.queue.depth", depth, AtomicInteger::get)
+            .register(meterRegistry);
+        this.flushTimer = Timer.builder("hospital.registration.flush")
+            .description("Duration of one group commit")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.queueLatency = Timer.builder("hospital.registration.queue.latency")
+            .description("Time from enqueue to commit")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("hospital.registration.flush.size")
+            .register(meterRegistry);
+        this.failed = Counter.builder("hospital.registration.write-behind.failed")
+            .register(meterRegistry);
+
+        this.flusher = new Thread(this::run, "registration-flusher");
+        flusher.setDaemon(true);
+        if (enabled) {
+            flusher.start();
+        }
+    }
+
+    // Until the known ids are loaded, registrations take the synchronous way
+    public boolean isEnabled() {
+        return enabled && knownIds.isReady();
+    }
+
+    /**
+     * Queues the registration. The future fails with a NotFoundException for an unknown
+     * patient or hospital and with a RejectedExecutionException if the queue is full.
+     * Registering twice is not an error.
+     */
+    public CompletableFuture<Void> submit(long patientId, long hospitalId) {
+        if (!knownIds.containsPatient(patientId) || !knownIds.containsHospital(hospitalId)) {
+            return CompletableFuture.failedFuture(new NotFoundException("Patient or Hospital not found"));
+        }
+        if (registrationIndex.isReady() && registrationIndex.contains(patientId, hospitalId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Registration queue is full"));
+        }
+        Pending pending = new Pending(new RegistrationId(patientId, hospitalId), new CompletableFuture<>(), System.nanoTime());
+        queue.add(pending);
+        if (depth.get() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+        return ack == Ack.COMMIT ? pending.done() : CompletableFuture.completedFuture(null);
+    }
+
+    // --- Flusher ---
+
+    private void run() {
+        while (running || depth.get() > 0) {
+            if (running && depth.get() < batchSize) {
+                // a full batch wakes us up early
+                LockSupport.parkNanos(this, maxDelayNanos);
+            }
+            try {
+                while (depth.get() > 0) {
+                    flush();
+                }
+            } catch (RuntimeException e) {
+                log.error("Flushing registrations failed", e);
+            }
+            // statements of the flusher don't belong to any call
+            StatementCounter.drain();
+        }
+    }
+
+    private void flush() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        Pending next;
+        while (batch.size() < batchSize && (next = queue.poll()) != null) {
+            batch.add(next);
+        }
+        depth.addAndGet(-batch.size());
+        if (batch.isEmpty()) {
+            return;
+        }
+        // the same registration twice in one batch would violate the primary key
+        Map<RegistrationId, List<Pending>> byId = new LinkedHashMap<>();
+        for (Pending p : batch) {
+            byId.computeIfAbsent(p.id(), id -> new ArrayList<>()).add(p);
+        }
+        batchSizes.record(byId.size());
+
+        long start = System.nanoTime();
+        try {
+            service.registerAll(new ArrayList<>(byId.keySet()));
+            byId.values().forEach(this::succeeded);
+        } catch (RuntimeException batchFailure) {
+            byId.forEach((id, waiting) -> {
+                try {
+                    service.register(id.getPatientId(), id.getHospitalId());
+                    succeeded(waiting);
+                } catch (RuntimeException e) {
+                    failed(id, waiting, e);
+                }
+            });
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void succeeded(List<Pending> waiting) {
+        // with ack=COMMIT the calls close on this thread, don't charge them the group commit
+        StatementCounter.drain();
+        long now = System.nanoTime();
+        for (Pending p : waiting) {
+            queueLatency.record(now - p.enqueuedAt(), TimeUnit.NANOSECONDS);
+            p.done().complete(null);
+        }
+    }
+
+    private void failed(RegistrationId id, List<Pending> waiting, RuntimeException e) {
+        StatementCounter.drain();
+        failed.increment(waiting.size());
+        if (ack == Ack.ENQUEUE) {
+            log.warn("Acknowledged registration of patient {} at hospital {} failed: {}",
+                id.getPatientId(), id.getHospitalId(), e.getMessage());
+        }
+        for (Pending p : waiting) {
+            p.done().completeExceptionally(e);
+        }
+    }
+
+    // Flushes what is queued before the data source goes away
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (enabled) {
+            LockSupport.unpark(flusher);
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads back a column written by {@link ColumnWriter}, value by value.
+ */
+final class ColumnReader {
+
+    private final byte[] bytes;
+    private int position;
+    private long last;
+
+    ColumnReader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    long readLong() {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position++];
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    long readDelta() {
+        last += readLong();
+        return last;
+    }
+
+    String readString() {
+        int length = (int) readLong();
+        String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+}
@@ -0,0 +1,58 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One column of a row group while it is written: zigzag varints, deltas of the previous
+ * value for sorted or clustered columns, and length-prefixed UTF-8 strings.
+ */
+final class ColumnWriter {
+
+    private byte[] bytes = new byte[4096];
+    private int size;
+    private long last;
+
+    void writeLong(long value) {
+        ensure(10);
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        bytes[size++] = (byte) v;
+    }
+
+    // Difference to the previous value of this column
+    void writeDelta(long value) {
+        writeLong(value - last);
+        last = value;
+    }
+
+    void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeLong(utf8.length);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, bytes, size, utf8.length);
+        size += utf8.length;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+        last = 0;
+    }
+
+    private void ensure(int n) {
+        if (size + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+        }
+    }
+}
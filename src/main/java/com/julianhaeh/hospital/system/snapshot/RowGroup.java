@@ -0,0 +1,16 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+/**
+ * Up to row-group-size rows of one table, stored as one compressed block per column
+ * starting at offset. The footer of the snapshot file lists all of them.
+ */
+record RowGroup(SnapshotTable table, int rows, long offset, int[] rawSizes, int[] packedSizes) {
+
+    long length() {
+        long length = 0;
+        for (int size : packedSizes) {
+            length += size;
+        }
+        return length;
+    }
+}
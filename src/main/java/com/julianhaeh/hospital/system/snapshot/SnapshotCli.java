@@ -0,0 +1,55 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.julianhaeh.hospital.system.grpc.SnapshotSummary;
+
+/**
+ * Command line entry point for snapshots, run instead of the server:
+ * <pre>
+ *   java -jar hospital-system.jar export-snapshot FILE [--spring.profiles.active=prod ...]
+ *   java -jar hospital-system.jar import-snapshot FILE [...]
+ * </pre>
+ * Boots the application without gRPC server and web server, so it works on the database
+ * of a stopped instance. FILE is any path, not only one in hospital.snapshot.dir.
+ */
+public final class SnapshotCli {
+
+    public static final String EXPORT = "export-snapshot";
+    public static final String IMPORT = "import-snapshot";
+
+    private SnapshotCli() {}
+
+    public static boolean handles(String[] args) {
+        return args.length >= 2 && (args[0].equals(EXPORT) || args[0].equals(IMPORT));
+    }
+
+    // Exit code: 0 on success
+    public static int run(Class<?> application, String[] args) {
+        Path file = Path.of(args[1]);
+        // as command line arguments, they win over application.properties and profiles
+        String[] springArgs = Stream.concat(
+                Stream.of("--grpc.server.port=-1"),
+                Arrays.stream(args, 2, args.length))
+            .toArray(String[]::new);
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(application)
+                .web(WebApplicationType.NONE)
+                .run(springArgs)) {
+            SnapshotService snapshots = context.getBean(SnapshotService.class);
+            SnapshotSummary summary = args[0].equals(EXPORT) ? snapshots.export(file) : snapshots.importFrom(file);
+            System.out.printf("%s %s: %d hospitals, %d patients, %d registrations, %d bytes in %d ms%n",
+                args[0], file, summary.getHospitals(), summary.getPatients(), summary.getRegistrations(),
+                summary.getBytes(), summary.getMillis());
+            return 0;
+        } catch (Exception e) {
+            System.err.println(args[0] + " " + file + " failed: " + e);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by {@link SnapshotWriter}. Row groups are memory-mapped one at a
+ * time and inflated straight from the mapping; {@link #columns} may be called from
+ * several threads at once.
+ */
+final class SnapshotReader implements Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<RowGroup> rowGroups = new ArrayList<>();
+
+    SnapshotReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            readFooter();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. a footer that ends early or names an unknown table
+            channel.close();
+            throw damaged("bad footer");
+        }
+    }
+
+    List<RowGroup> rowGroups() {
+        return rowGroups;
+    }
+
+    // The inflated columns of the row group, ready to be read row by row
+    ColumnReader[] columns(RowGroup group) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, group.offset(), group.length());
+        ColumnReader[] columns = new ColumnReader[group.rawSizes().length];
+        Inflater inflater = new Inflater();
+        try {
+            int position = 0;
+            for (int i = 0; i < columns.length; i++) {
+                ByteBuffer packed = mapped.slice(position, group.packedSizes()[i]);
+                position += group.packedSizes()[i];
+                byte[] raw = new byte[group.rawSizes()[i]];
+                inflater.reset();
+                inflater.setInput(packed);
+                int n = 0;
+                while (n < raw.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, n, raw.length - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != raw.length) {
+                    throw damaged("a column block is short");
+                }
+                columns[i] = new ColumnReader(raw);
+            }
+        } catch (DataFormatException e) {
+            throw damaged(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return columns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFooter() throws IOException {
+        long size = channel.size();
+        if (size < SnapshotWriter.HEADER_SIZE + SnapshotWriter.TRAILER_SIZE) {
+            throw damaged("too short");
+        }
+        ByteBuffer header = read(0, SnapshotWriter.HEADER_SIZE);
+        ByteBuffer trailer = read(size - SnapshotWriter.TRAILER_SIZE, SnapshotWriter.TRAILER_SIZE);
+        long footerOffset = trailer.getLong();
+        if (header.getLong() != SnapshotWriter.MAGIC || trailer.getLong() != SnapshotWriter.MAGIC) {
+            throw damaged("not a snapshot");
+        }
+        if (header.getInt() != SnapshotWriter.VERSION) {
+            throw damaged("unknown version");
+        }
+        if (footerOffset < SnapshotWriter.HEADER_SIZE || footerOffset > size - SnapshotWriter.TRAILER_SIZE) {
+            throw damaged("bad footer offset");
+        }
+        ByteBuffer footer = read(footerOffset, (int) (size - SnapshotWriter.TRAILER_SIZE - footerOffset));
+        SnapshotTable[] tables = SnapshotTable.values();
+        int count = footer.getInt();
+        for (int g = 0; g < count; g++) {
+            SnapshotTable table = tables[footer.get()];
+            int rows = footer.getInt();
+            long offset = footer.getLong();
+            int columnCount = footer.get();
+            if (columnCount != table.columnCount()) {
+                throw damaged("wrong column count for " + table.table);
+            }
+            int[] rawSizes = new int[columnCount];
+            int[] packedSizes = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                rawSizes[i] = footer.getInt();
+                packedSizes[i] = footer.getInt();
+            }
+            RowGroup group = new RowGroup(table, rows, offset, rawSizes, packedSizes);
+            if (offset < SnapshotWriter.HEADER_SIZE || offset + group.length() > footerOffset) {
+                throw damaged("row group outside of the file");
+            }
+            rowGroups.add(group);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw damaged("unexpected end");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private IOException damaged(String reason) {
+        return new IOException("Damaged snapshot " + file.getFileName() + ": " + reason);
+    }
+}
@@ -0,0 +1,314 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.julianhaeh.hospital.system.grpc.SnapshotSummary;
+import com.julianhaeh.hospital.system.index.KnownIds;
+import com.julianhaeh.hospital.system.index.PatientSearchIndex;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+import com.julianhaeh.hospital.system.service.HospitalCounters;
+
+/**
+ * Exports all hospitals, patients and registrations into a snapshot file and loads them
+ * back, as a fast way to set up a test or standby instance.
+ *
+ * Export reads the three tables in one repeatable-read transaction on the primary, so the
+ * snapshot is consistent. Import needs empty tables. It loads each table's row groups in
+ * parallel, one connection and transaction per row group, with referential integrity
+ * switched off, then checks the references once and switches it back on. The id
+ * sequences are moved past the imported ids and the in-memory indexes are reloaded.
+ * Imported rows don't show up in the change log, and ids Hibernate has already taken
+ * from the sequences are not known here: import into a fresh instance.
+ */
+@Component
+public class SnapshotService {
+
+    // allocationSize of the id sequences, see HospitalEntity and PatientEntity
+    private static final int ID_ALLOCATION_SIZE = 50;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate exportTx;
+    private final RegistrationIndex registrationIndex;
+    private final KnownIds knownIds;
+    private final PatientSearchIndex searchIndex;
+    private final HospitalCounters counters;
+    // null if the RPCs are off
+    private final Path dir;
+    private final int rowGroupSize;
+    private final int importThreads;
+
+    public SnapshotService(DataSource dataSource,
+                           PlatformTransactionManager transactionManager,
+                           RegistrationIndex registrationIndex,
+                           KnownIds knownIds,
+                           PatientSearchIndex searchIndex,
+                           HospitalCounters counters,
+                           @Value("${hospital.snapshot.dir:}") String dir,
+                           @Value("${hospital.snapshot.row-group-size:65536}") int rowGroupSize,
+                           @Value("${hospital.snapshot.import-threads:0}") int importThreads) {
+        this.dataSource        = dataSource;
+        this.jdbc              = new JdbcTemplate(dataSource);
+        this.jdbc.setFetchSize(INSERT_BATCH_SIZE);
+        this.exportTx          = new TransactionTemplate(transactionManager);
+        this.exportTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.registrationIndex = registrationIndex;
+        this.knownIds          = knownIds;
+        this.searchIndex       = searchIndex;
+        this.counters          = counters;
+        this.dir               = dir.isBlank() ? null : Path.of(dir);
+        this.rowGroupSize      = rowGroupSize;
+        this.importThreads     = importThreads > 0 ? importThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    // The file of that name in the snapshot directory; names with a path are an IllegalArgumentException
+    public Path resolve(String name) {
+        if (name.isBlank() || name.startsWith(".") || name.contains("/") || name.contains("\\")) {
+            throw new IllegalArgumentException("Invalid snapshot name: " + name);
+        }
+        return dir.resolve(name);
+    }
+
+    // --- Export ---
+
+    // Written next to the file first and moved over it when complete
+    public SnapshotSummary export(Path file) throws IOException {
+        long start = System.nanoTime();
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        Map<SnapshotTable, Long> rows = new EnumMap<>(SnapshotTable.class);
+        long bytes;
+        try (SnapshotWriter writer = new SnapshotWriter(partial)) {
+            try {
+                exportTx.executeWithoutResult(status -> {
+                    for (SnapshotTable table : SnapshotTable.values()) {
+                        rows.put(table, exportTable(table, writer));
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            bytes = writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return summary(rows, bytes, start);
+    }
+
+    private long exportTable(SnapshotTable table, SnapshotWriter writer) {
+        ColumnWriter[] columns = new ColumnWriter[table.columnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnWriter();
+        }
+        long[] total = {0};
+        int[] inGroup = {0};
+        jdbc.query(table.select(), rs -> {
+            table.write(rs, columns);
+            total[0]++;
+            if (++inGroup[0] == rowGroupSize) {
+                flush(table, inGroup[0], columns, writer);
+                inGroup[0] = 0;
+            }
+        });
+        if (inGroup[0] > 0) {
+            flush(table, inGroup[0], columns, writer);
+        }
+        return total[0];
+    }
+
+    private static void flush(SnapshotTable table, int rows, ColumnWriter[] columns, SnapshotWriter writer) {
+        try {
+            writer.writeRowGroup(table, rows, columns);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (ColumnWriter column : columns) {
+            column.reset();
+        }
+    }
+
+    // --- Import ---
+
+    // IllegalStateException if a table has rows already; the tables are emptied again if the import fails
+    public SnapshotSummary importFrom(Path file) throws IOException {
+        long start = System.nanoTime();
+        Map<SnapshotTable, Long> rows = new EnumMap<>(SnapshotTable.class);
+        try (SnapshotReader reader = new SnapshotReader(file)) {
+            requireEmpty();
+            boolean postgres = isPostgres();
+            setReferentialIntegrity(false, postgres);
+            try {
+                ExecutorService workers = Executors.newFixedThreadPool(importThreads, r -> {
+                    Thread t = new Thread(r, "snapshot-import");
+                    t.setDaemon(true);
+                    return t;
+                });
+                try {
+                    // table by table, so the references are in place even if the checks stay on
+                    for (SnapshotTable table : SnapshotTable.values()) {
+                        List<Future<?>> loads = new ArrayList<>();
+                        for (RowGroup group : reader.rowGroups()) {
+                            if (group.table() == table) {
+                                loads.add(workers.submit(() -> load(reader, group, postgres)));
+                                rows.merge(table, (long) group.rows(), Long::sum);
+                            }
+                        }
+                        await(loads);
+                    }
+                } finally {
+                    workers.shutdownNow();
+                }
+                checkReferences();
+            } catch (IOException | RuntimeException e) {
+                deleteAll();
+                throw e;
+            } finally {
+                setReferentialIntegrity(true, postgres);
+            }
+        }
+        restartSequence("hospital_seq", "hospital");
+        restartSequence("patient_seq", "patient");
+        registrationIndex.reload();
+        knownIds.reload();
+        searchIndex.reload();
+        counters.rebuild();
+        return summary(rows, Files.size(file), start);
+    }
+
+    private Void load(SnapshotReader reader, RowGroup group, boolean postgres) throws IOException, SQLException {
+        ColumnReader[] columns = reader.columns(group);
+        try (Connection con = dataSource.getConnection()) {
+            if (postgres) {
+                execute(con, "set session_replication_role = replica");
+            }
+            try (PreparedStatement ps = con.prepareStatement(group.table().insert())) {
+                con.setAutoCommit(false);
+                for (int row = 1; row <= group.rows(); row++) {
+                    group.table().bind(columns, ps);
+                    ps.addBatch();
+                    if (row % INSERT_BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+                con.commit();
+            } finally {
+                con.setAutoCommit(true);
+                if (postgres) {
+                    execute(con, "reset session_replication_role");
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void await(List<Future<?>> loads) throws IOException {
+        try {
+            for (Future<?> load : loads) {
+                load.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Snapshot import interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException("Snapshot import failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void requireEmpty() {
+        for (SnapshotTable table : SnapshotTable.values()) {
+            Long count = jdbc.queryForObject("select count(*) from " + table.table, Long.class);
+            if (count != null && count > 0) {
+                throw new IllegalStateException("Snapshot import needs empty tables, " + table.table + " has " + count + " rows");
+            }
+        }
+    }
+
+    private boolean isPostgres() {
+        return Boolean.TRUE.equals(jdbc.execute((Connection con) ->
+            con.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("postgres")));
+    }
+
+    // H2 switches the whole database, PostgreSQL only sessions, see load()
+    private void setReferentialIntegrity(boolean on, boolean postgres) {
+        if (!postgres) {
+            jdbc.execute("set referential_integrity " + on);
+        }
+    }
+
+    // What the foreign keys would have checked
+    private void checkReferences() {
+        Long orphans = jdbc.queryForObject("select count(*) from registration r"
+            + " where not exists (select 1 from patient p where p.id = r.patient_id)"
+            + " or not exists (select 1 from hospital h where h.id = r.hospital_id)", Long.class);
+        if (orphans != null && orphans > 0) {
+            throw new IllegalStateException("Snapshot has " + orphans + " registrations of unknown patients or hospitals");
+        }
+    }
+
+    private void deleteAll() {
+        for (int i = SnapshotTable.values().length - 1; i >= 0; i--) {
+            jdbc.execute("delete from " + SnapshotTable.values()[i].table);
+        }
+    }
+
+    // One allocation past the imported ids, whether Hibernate takes the value as start or end of its block
+    private void restartSequence(String sequence, String table) {
+        Long maxId = jdbc.queryForObject("select coalesce(max(id), 0) from " + table, Long.class);
+        jdbc.execute("alter sequence " + sequence + " restart with " + (maxId + ID_ALLOCATION_SIZE + 1));
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException {
+        try (Statement st = con.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    private static SnapshotSummary summary(Map<SnapshotTable, Long> rows, long bytes, long start) {
+        return SnapshotSummary.newBuilder()
+            .setHospitals(rows.getOrDefault(SnapshotTable.HOSPITAL, 0L))
+            .setPatients(rows.getOrDefault(SnapshotTable.PATIENT, 0L))
+            .setRegistrations(rows.getOrDefault(SnapshotTable.REGISTRATION, 0L))
+            .setBytes(bytes)
+            .setMillis((System.nanoTime() - start) / 1_000_000)
+            .build();
+    }
+}
@@ -0,0 +1,98 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * The tables in a snapshot, in load order, and how their rows map to columns.
+ * Rows are exported in key order, so the key columns are stored as small deltas.
+ */
+enum SnapshotTable {
+
+    HOSPITAL("hospital", "id, name, address", "id") {
+        @Override
+        void write(ResultSet rs, ColumnWriter[] columns) throws SQLException {
+            columns[0].writeDelta(rs.getLong(1));
+            columns[1].writeString(rs.getString(2));
+            columns[2].writeString(rs.getString(3));
+        }
+
+        @Override
+        void bind(ColumnReader[] columns, PreparedStatement ps) throws SQLException {
+            ps.setLong(1, columns[0].readDelta());
+            ps.setString(2, columns[1].readString());
+            ps.setString(3, columns[2].readString());
+        }
+    },
+
+    PATIENT("patient", "id, first_name, last_name, birth_date", "id") {
+        @Override
+        void write(ResultSet rs, ColumnWriter[] columns) throws SQLException {
+            columns[0].writeDelta(rs.getLong(1));
+            columns[1].writeString(rs.getString(2));
+            columns[2].writeString(rs.getString(3));
+            columns[3].writeDelta(rs.getObject(4, LocalDate.class).toEpochDay());
+        }
+
+        @Override
+        void bind(ColumnReader[] columns, PreparedStatement ps) throws SQLException {
+            ps.setLong(1, columns[0].readDelta());
+            ps.setString(2, columns[1].readString());
+            ps.setString(3, columns[2].readString());
+            ps.setObject(4, LocalDate.ofEpochDay(columns[3].readDelta()));
+        }
+    },
+
+    // registered_at as seconds (delta) and nanos, both in its column
+    REGISTRATION("registration", "patient_id, hospital_id, registered_at", "patient_id, hospital_id") {
+        @Override
+        void write(ResultSet rs, ColumnWriter[] columns) throws SQLException {
+            columns[0].writeDelta(rs.getLong(1));
+            columns[1].writeDelta(rs.getLong(2));
+            LocalDateTime registeredAt = rs.getObject(3, LocalDateTime.class);
+            columns[2].writeDelta(registeredAt.toEpochSecond(ZoneOffset.UTC));
+            columns[2].writeLong(registeredAt.getNano());
+        }
+
+        @Override
+        void bind(ColumnReader[] columns, PreparedStatement ps) throws SQLException {
+            ps.setLong(1, columns[0].readDelta());
+            ps.setLong(2, columns[1].readDelta());
+            long seconds = columns[2].readDelta();
+            ps.setObject(3, LocalDateTime.ofEpochSecond(seconds, (int) columns[2].readLong(), ZoneOffset.UTC));
+        }
+    };
+
+    final String table;
+    final String columns;
+    final String key;
+
+    SnapshotTable(String table, String columns, String key) {
+        this.table   = table;
+        this.columns = columns;
+        this.key     = key;
+    }
+
+    int columnCount() {
+        return columns.split(",").length;
+    }
+
+    String select() {
+        return "select " + columns + " from " + table + " order by " + key;
+    }
+
+    String insert() {
+        return "insert into " + table + " (" + columns + ") values ("
+            + "?, ".repeat(columnCount() - 1) + "?)";
+    }
+
+    // Appends the current row of rs to the columns
+    abstract void write(ResultSet rs, ColumnWriter[] columns) throws SQLException;
+
+    // Sets the parameters of ps to the next row of the columns
+    abstract void bind(ColumnReader[] columns, PreparedStatement ps) throws SQLException;
+}
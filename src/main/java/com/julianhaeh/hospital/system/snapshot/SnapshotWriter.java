@@ -0,0 +1,104 @@
+package com.julianhaeh.hospital.system.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a snapshot file:
+ * <pre>
+ *   header     magic, version
+ *   row groups one deflated block per column
+ *   footer     row group count, per row group: table, rows, offset, raw and packed column sizes
+ *   trailer    footer offset, magic
+ * </pre>
+ * The blocks are zlib streams, so their checksums catch a damaged file on import.
+ */
+final class SnapshotWriter implements Closeable {
+
+    static final long MAGIC = 0x48534e4150534854L; // "HSNAPSHT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int TRAILER_SIZE = 16;
+
+    private final FileChannel channel;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteBuffer out = ByteBuffer.allocate(256 * 1024);
+    private final List<RowGroup> rowGroups = new ArrayList<>();
+
+    SnapshotWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        out.putLong(MAGIC).putInt(VERSION);
+        flush();
+    }
+
+    void writeRowGroup(SnapshotTable table, int rows, ColumnWriter[] columns) throws IOException {
+        long offset = channel.position();
+        int[] rawSizes = new int[columns.length];
+        int[] packedSizes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            rawSizes[i] = columns[i].size();
+            packedSizes[i] = deflate(columns[i]);
+        }
+        rowGroups.add(new RowGroup(table, rows, offset, rawSizes, packedSizes));
+    }
+
+    // Writes footer and trailer, returns the file size
+    long finish() throws IOException {
+        long footerOffset = channel.position();
+        ByteBuffer footer = ByteBuffer.allocate(4 + rowGroups.stream()
+            .mapToInt(g -> 1 + 4 + 8 + 1 + 8 * g.rawSizes().length)
+            .sum());
+        footer.putInt(rowGroups.size());
+        for (RowGroup group : rowGroups) {
+            footer.put((byte) group.table().ordinal()).putInt(group.rows()).putLong(group.offset());
+            footer.put((byte) group.rawSizes().length);
+            for (int i = 0; i < group.rawSizes().length; i++) {
+                footer.putInt(group.rawSizes()[i]).putInt(group.packedSizes()[i]);
+            }
+        }
+        write(footer.flip());
+        write(ByteBuffer.allocate(TRAILER_SIZE).putLong(footerOffset).putLong(MAGIC).flip());
+        channel.force(false);
+        return channel.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        channel.close();
+    }
+
+    private int deflate(ColumnWriter column) throws IOException {
+        deflater.reset();
+        deflater.setInput(column.bytes(), 0, column.size());
+        deflater.finish();
+        int packed = 0;
+        while (!deflater.finished()) {
+            packed += deflater.deflate(out);
+            if (!out.hasRemaining()) {
+                flush();
+            }
+        }
+        flush();
+        return packed;
+    }
+
+    private void flush() throws IOException {
+        write(out.flip());
+        out.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.TimeUnit;
+
+import com.julianhaeh.hospital.system.admission.AdaptiveLimiter;
+import com.julianhaeh.hospital.system.admission.Priority;
+import com.julianhaeh.hospital.system.grpc.*;
+import com.julianhaeh.hospital.system.replica.ReadYourWrites;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Admission control with a tiny, fixed concurrency limit and a client rate of a few calls.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:admission-test;DB_CLOSE_DELAY=-1",
+    "hospital.admission.enabled=true",
+    "hospital.admission.initial-limit=4",
+    "hospital.admission.min-limit=4",
+    "hospital.admission.max-limit=4",
+    "hospital.admission.client-rate=1",
+    "hospital.admission.client-burst=3",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=admission-test"
+})
+public class AdmissionControlTest {
+
+    @Autowired
+    private AdaptiveLimiter limiter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("admission-test").directExecutor().build();
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    private HospitalServiceGrpc.HospitalServiceBlockingStub client(String clientId) {
+        Metadata headers = new Metadata();
+        headers.put(ReadYourWrites.CLIENT_ID_HEADER, clientId);
+        return HospitalServiceGrpc.newBlockingStub(channel)
+            .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    private static Status.Code code(Runnable call) {
+        try {
+            call.run();
+            return Status.Code.OK;
+        } catch (StatusRuntimeException e) {
+            return e.getStatus().getCode();
+        }
+    }
+
+    @Test
+    public void clientsBeyondTheirRateAreRejected() {
+        HospitalServiceGrpc.HospitalServiceBlockingStub flooding = client("flooding");
+        CountPatientsRequest count = CountPatientsRequest.newBuilder().setHospitalId(1).build();
+        for (int i = 0; i < 3; i++) {
+            assertThat(code(() -> flooding.countPatientsOfHospital(count))).isEqualTo(Status.Code.OK);
+        }
+        assertThat(code(() -> flooding.countPatientsOfHospital(count))).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+
+        // other clients have their own bucket
+        assertThat(code(() -> client("polite").countPatientsOfHospital(count))).isEqualTo(Status.Code.OK);
+        assertThat(meterRegistry.get("hospital.admission.rejected").tag("reason", "rate").counter().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    public void lowerPrioritiesAreShedFirst() {
+        // a limit of 4: reads get 3 slots, registrations all 4
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire(Priority.READ)).isTrue();
+        }
+        try {
+            assertThat(limiter.tryAcquire(Priority.READ)).isFalse();
+            assertThat(limiter.tryAcquire(Priority.BULK)).isFalse();
+            assertThat(code(() -> client("reader").countPatientsOfHospital(
+                    CountPatientsRequest.newBuilder().setHospitalId(1).build())))
+                .isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+            // admitted, it fails only because the patient doesn't exist
+            assertThat(code(() -> client("registrar").registerPatient(
+                    RegisterPatientRequest.newBuilder().setPatientId(1).setHospitalId(1).build())))
+                .isEqualTo(Status.Code.NOT_FOUND);
+        } finally {
+            for (int i = 0; i < 3; i++) {
+                limiter.release(-1);
+            }
+        }
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    public void longRunningCallsHaveTheirOwnLimit() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire(Priority.READ)).isTrue();
+        }
+        try {
+            // the reads' share of the adaptive limit is taken, a stream still gets a slot of its own
+            assertThat(code(() -> client("streamer").streamPatientsOfHospital(
+                    ListPatientsRequest.newBuilder().setHospitalId(1).build()).forEachRemaining(list -> {})))
+                .isNotEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+            assertThat(limiter.inFlight()).isEqualTo(3);
+        } finally {
+            for (int i = 0; i < 3; i++) {
+                limiter.release(-1);
+            }
+        }
+        assertThat(meterRegistry.get("hospital.admission.long.running.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    public void failingHandlersGiveTheirSlotBack() {
+        CreatePatientRequest invalid = CreatePatientRequest.newBuilder()
+            .setFirstName("Max")
+            .setLastName("Mustermann")
+            .setBirthDate("nope")
+            .build();
+        // more failing calls than the limit, each would keep its slot if the close was missed
+        for (int i = 0; i < 6; i++) {
+            String clientId = "invalid-" + i;
+            assertThat(code(() -> client(clientId).createPatient(invalid))).isEqualTo(Status.Code.UNKNOWN);
+        }
+        assertThat(limiter.inFlight()).isZero();
+        assertThat(code(() -> client("valid").createPatient(invalid.toBuilder().setBirthDate("1990-01-01").build())))
+            .isEqualTo(Status.Code.OK);
+    }
+
+    @Test
+    public void limitFollowsLatency() {
+        AdaptiveLimiter adaptive = new AdaptiveLimiter(20, 5, 200, 2.0);
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+
+        // busy and fast: the limit grows
+        for (int i = 0; i < 200; i++) {
+            assertThat(adaptive.tryAcquire(Priority.CRITICAL)).isTrue();
+            adaptive.release(fast);
+            fillTo(adaptive, adaptive.limit());
+        }
+        int grown = adaptive.limit();
+        assertThat(grown).isGreaterThan(20);
+        while (adaptive.inFlight() > 0) {
+            adaptive.release(-1);
+        }
+
+        // latency far beyond tolerance times the minimum: it shrinks towards min-limit
+        for (int i = 0; i < 200; i++) {
+            if (adaptive.tryAcquire(Priority.CRITICAL)) {
+                adaptive.release(10 * fast);
+            }
+        }
+        assertThat(adaptive.limit()).isLessThan(grown / 2);
+    }
+
+    // Keeps the in-flight count at the limit, as a busy server would
+    private static void fillTo(AdaptiveLimiter limiter, int n) {
+        while (limiter.inFlight() < n - 1 && limiter.tryAcquire(Priority.CRITICAL)) {
+            // admitted
+        }
+    }
+}
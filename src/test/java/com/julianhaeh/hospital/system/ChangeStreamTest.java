@@ -0,0 +1,195 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.julianhaeh.hospital.system.changes.ChangeLog;
+import com.julianhaeh.hospital.system.grpc.*;
+
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * WatchChanges over a change log with tiny segments, so a few changes roll it over and
+ * push the oldest segments out.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:change-stream-test;DB_CLOSE_DELAY=-1",
+    "hospital.changes.segment-size=1KB",
+    "hospital.changes.max-segments=3",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=change-stream-test"
+})
+public class ChangeStreamTest {
+
+    @Autowired
+    private ChangeLog changeLog;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private static final Path CHANGE_DIR = createTempDirectory();
+
+    @DynamicPropertySource
+    static void changeDir(DynamicPropertyRegistry registry) {
+        registry.add("hospital.changes.dir", CHANGE_DIR::toString);
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("change-stream-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ManagedChannel channel;
+    private HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("change-stream-test").directExecutor().build();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    // The first n events of the stream, then cancels it
+    private List<ChangeEvent> watch(WatchChangesRequest req, int n) throws Exception {
+        Context.CancellableContext context = Context.current().withCancellation();
+        try {
+            return context.call(() -> {
+                Iterator<ChangeEvent> events = stub.withDeadlineAfter(10, TimeUnit.SECONDS).watchChanges(req);
+                List<ChangeEvent> received = new ArrayList<>();
+                while (received.size() < n) {
+                    received.add(events.next());
+                }
+                return received;
+            });
+        } finally {
+            context.cancel(null);
+        }
+    }
+
+    private void awaitWatchers(int n) throws InterruptedException {
+        while (meterRegistry.get("hospital.changes.watchers").gauge().value() != n) {
+            Thread.sleep(10);
+        }
+    }
+
+    private long hospital(String name) {
+        return stub.createHospital(CreateHospitalRequest.newBuilder()
+            .setName(name)
+            .setAddress("Musterweg 1")
+            .build()).getId();
+    }
+
+    private long patient() {
+        return stub.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Max")
+            .setLastName("Mustermann")
+            .setBirthDate("1990-01-01")
+            .build()).getId();
+    }
+
+    @Test
+    public void streamsChangesAndResumesFromOffsets() throws Exception {
+        long start = changeLog.endOffset();
+        long hospitalId = hospital("Testklinik");
+        long patientId = patient();
+        RegisterPatientRequest registration = RegisterPatientRequest.newBuilder()
+            .setPatientId(patientId)
+            .setHospitalId(hospitalId)
+            .build();
+        stub.registerPatient(registration);
+        // registering twice changes nothing
+        stub.registerPatient(registration);
+        stub.unregisterPatient(registration);
+        stub.deletePatient(DeletePatientRequest.newBuilder().setPatientId(patientId).build());
+
+        // --- 1) All changes in commit order ---
+        List<ChangeEvent> events = watch(WatchChangesRequest.newBuilder().setFromOffset(start).build(), 5);
+        assertThat(events).extracting(ChangeEvent::getType).containsExactly(
+            ChangeType.HOSPITAL_CREATED, ChangeType.PATIENT_CREATED,
+            ChangeType.REGISTERED, ChangeType.UNREGISTERED, ChangeType.PATIENT_DELETED);
+        assertThat(events.get(0).getHospital().getName()).isEqualTo("Testklinik");
+        assertThat(events.get(2).getPatientId()).isEqualTo(patientId);
+        assertThat(events.get(2).getHospitalId()).isEqualTo(hospitalId);
+        for (int i = 1; i < events.size(); i++) {
+            assertThat(events.get(i).getOffset()).isEqualTo(events.get(i - 1).getNextOffset());
+        }
+
+        // --- 2) Resuming after an event, filtered by type ---
+        assertThat(watch(WatchChangesRequest.newBuilder()
+                .setFromOffset(events.get(1).getNextOffset())
+                .addTypes(ChangeType.PATIENT_DELETED)
+                .build(), 1))
+            .extracting(ChangeEvent::getPatientId).containsExactly(patientId);
+
+        // --- 3) A watcher that is caught up gets new changes pushed ---
+        Context.CancellableContext context = Context.current().withCancellation();
+        try {
+            // "now" is when the server takes the call, a change made before that is not pushed.
+            // The watchers above unsubscribe on their cancellation, asynchronously
+            awaitWatchers(0);
+            Iterator<ChangeEvent> live = context.call(() -> stub.withDeadlineAfter(10, TimeUnit.SECONDS)
+                .watchChanges(WatchChangesRequest.newBuilder().setFromNow(true).build()));
+            awaitWatchers(1);
+            long later = hospital("Spätklinik");
+            ChangeEvent pushed = live.next();
+            assertThat(pushed.getType()).isEqualTo(ChangeType.HOSPITAL_CREATED);
+            assertThat(pushed.getHospitalId()).isEqualTo(later);
+        } finally {
+            context.cancel(null);
+        }
+
+        // --- 4) Offsets of dropped segments are out of range, 0 is the oldest kept ---
+        // (not the first event, its offset may be 0)
+        long dropped = events.get(1).getOffset();
+        while (changeLog.firstOffset() <= dropped) {
+            hospital("Füllklinik");
+        }
+        assertThatThrownBy(() -> watch(WatchChangesRequest.newBuilder().setFromOffset(dropped).build(), 1))
+            .isInstanceOfSatisfying(StatusRuntimeException.class,
+                e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.OUT_OF_RANGE));
+        assertThat(watch(WatchChangesRequest.getDefaultInstance(), 1).get(0).getOffset())
+            .isEqualTo(changeLog.firstOffset());
+
+        // --- 5) Reopened, the log continues where it ended ---
+        ChangeLog reopened = new ChangeLog(new SimpleMeterRegistry(), CHANGE_DIR.toString(), DataSize.ofKilobytes(1), 3);
+        try {
+            assertThat(reopened.endOffset()).isEqualTo(changeLog.endOffset());
+            List<ChangeEvent> read = new ArrayList<>();
+            reopened.read(changeLog.firstOffset(), 1000, read);
+            assertThat(read).isNotEmpty();
+            assertThat(read.get(read.size() - 1).getNextOffset()).isEqualTo(changeLog.endOffset());
+        } finally {
+            reopened.destroy();
+        }
+    }
+}
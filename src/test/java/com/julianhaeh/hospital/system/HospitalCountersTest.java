@@ -0,0 +1,156 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.julianhaeh.hospital.system.grpc.*;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+import com.julianhaeh.hospital.system.repository.HospitalCounterRepository;
+import com.julianhaeh.hospital.system.service.HospitalCounters;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Counts served by the hospital_counter table. The registration index is switched off
+ * (max-edges=0), otherwise it would answer the counts itself.
+ */
+@SpringBootTest(properties = {
+    "hospital.stats.counter-table=true",
+    "hospital.registration-index.max-edges=0",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=counters-test"
+})
+public class HospitalCountersTest {
+
+    @Autowired
+    private HospitalCounterRepository counterRepo;
+
+    @Autowired
+    private HospitalCounters counters;
+
+    @Autowired
+    private RegistrationIndex registrationIndex;
+
+    private ManagedChannel channel;
+    private HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("counters-test").directExecutor().build();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    private long hospital(String name) {
+        return stub.createHospital(CreateHospitalRequest.newBuilder()
+            .setName(name)
+            .setAddress("Musterweg 1")
+            .build()).getId();
+    }
+
+    private long patient() {
+        return stub.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Max")
+            .setLastName("Mustermann")
+            .setBirthDate("1990-01-01")
+            .build()).getId();
+    }
+
+    private void register(long patientId, long hospitalId) {
+        stub.registerPatient(RegisterPatientRequest.newBuilder()
+            .setPatientId(patientId)
+            .setHospitalId(hospitalId)
+            .build());
+    }
+
+    private long patientsOf(long hospitalId) {
+        return stub.countPatientsOfHospital(CountPatientsRequest.newBuilder()
+            .setHospitalId(hospitalId)
+            .build()).getCount();
+    }
+
+    @Test
+    public void countersFollowEveryRegistrationWrite() throws Exception {
+        long first = hospital("Erste Klinik");
+        long second = hospital("Zweite Klinik");
+        long p1 = patient();
+        long p2 = patient();
+        long p3 = patient();
+        register(p1, first);
+        register(p2, first);
+        register(p3, first);
+        register(p1, second);
+        // registering twice changes nothing
+        register(p1, second);
+        assertThat(registrationIndex.isReady()).isFalse();
+
+        // --- 1) Register and unregister ---
+        assertThat(patientsOf(first)).isEqualTo(3);
+        assertThat(patientsOf(second)).isEqualTo(1);
+        stub.unregisterPatient(RegisterPatientRequest.newBuilder()
+            .setPatientId(p3)
+            .setHospitalId(first)
+            .build());
+        assertThat(patientsOf(first)).isEqualTo(2);
+
+        // --- 2) Deleting a patient counts down all of its hospitals ---
+        stub.deletePatient(DeletePatientRequest.newBuilder().setPatientId(p1).build());
+        assertThat(patientsOf(first)).isEqualTo(1);
+        assertThat(patientsOf(second)).isZero();
+
+        // --- 3) Bulk registrations and the top hospitals ---
+        long p4 = patient();
+        CompletableFuture<BulkSummary> summary = new CompletableFuture<>();
+        StreamObserver<RegisterPatientRequest> bulk = HospitalServiceGrpc.newStub(channel)
+            .bulkRegister(new StreamObserver<BulkSummary>() {
+                @Override
+                public void onNext(BulkSummary value) {
+                    summary.complete(value);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    summary.completeExceptionally(t);
+                }
+
+                @Override
+                public void onCompleted() {}
+            });
+        for (long patientId : new long[] { p2, p3, p4 }) {
+            bulk.onNext(RegisterPatientRequest.newBuilder().setPatientId(patientId).setHospitalId(second).build());
+        }
+        bulk.onCompleted();
+        assertThat(summary.get(5, TimeUnit.SECONDS).getSucceeded()).isEqualTo(3);
+        assertThat(patientsOf(second)).isEqualTo(3);
+
+        HospitalStatsResponse stats = stub.hospitalStats(HospitalStatsRequest.newBuilder().setTop(1).build());
+        assertThat(stats.getTopHospitalsList()).containsExactly(HospitalPatientCount.newBuilder()
+            .setHospitalId(second)
+            .setName("Zweite Klinik")
+            .setPatients(3)
+            .build());
+
+        // --- 4) A stale table is recounted at startup ---
+        counterRepo.add(first, 41);
+        assertThat(patientsOf(first)).isEqualTo(42);
+        counters.afterSingletonsInstantiated();
+        assertThat(patientsOf(first)).isEqualTo(1);
+
+        // --- 5) The counter row goes with its hospital ---
+        stub.deleteHospital(DeleteHospitalRequest.newBuilder().setHospitalId(second).build());
+        assertThat(counterRepo.findById(second)).isEmpty();
+    }
+}
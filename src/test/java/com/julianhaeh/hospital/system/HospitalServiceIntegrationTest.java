@@ -3,27 +3,69 @@ package com.julianhaeh.hospital.system;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
 
 import com.google.protobuf.Empty;
+import com.google.protobuf.FieldMask;
+import com.julianhaeh.hospital.system.cache.CacheConfig;
+import com.julianhaeh.hospital.system.cache.EntityCache;
 import com.julianhaeh.hospital.system.entities.*;
 import com.julianhaeh.hospital.system.entities.RegistrationEntity.RegistrationId;
 import com.julianhaeh.hospital.system.grpc.*;
+import com.julianhaeh.hospital.system.idempotency.IdempotencyInterceptor;
+import com.julianhaeh.hospital.system.idempotency.IdempotencyStore;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+import com.julianhaeh.hospital.system.metrics.StatementCounter;
+import com.julianhaeh.hospital.system.replica.ReplicaRoutingDataSource;
 import com.julianhaeh.hospital.system.repository.*;
 
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.MetadataUtils;
 import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
  * Integrationtest for HospitalServiceImpl
  */
-@SpringBootTest
+@SpringBootTest(properties = {
+    "spring.jpa.properties.hibernate.generate_statistics=true",
+    "hospital.list.page-size=5",
+    "hospital.bulk.batch-size=4",
+    "hospital.list.encode-threshold=10",
+    "grpc.server.in-process-name=integration-test"
+})
 public class HospitalServiceIntegrationTest {
 
     @Autowired
@@ -38,6 +80,30 @@ public class HospitalServiceIntegrationTest {
     @Autowired
     private HospitalServiceImpl service;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private EntityCache cache;
+
+    @Autowired
+    private ProjectionRepository projectionRepo;
+
+    @Autowired
+    private ObjectProvider<ReplicaRoutingDataSource> replicas;
+
+    @Autowired
+    private RegistrationIndex registrationIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private DataSource dataSource;
+
     // Streamobserver, which collects a single response
     static class SingleResponseObserver<T> implements StreamObserver<T> {
         private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(1);
@@ -67,11 +133,35 @@ public class HospitalServiceIntegrationTest {
         }
     }
 
+    // Streamobserver, which collects all responses of a streaming call
+    static class CollectingObserver<T> implements StreamObserver<T> {
+        final List<T> values = new ArrayList<>();
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+    }
+
     @BeforeEach
     void cleanup() {
         registrationRepo.deleteAll();
     	patientRepo.deleteAll();
     	hospitalRepo.deleteAll();
+    	// the repositories bypass the index, so rebuild it from the (now empty) tables
+    	registrationIndex.reload();
     }
 
     @Test
@@ -372,5 +462,850 @@ public class HospitalServiceIntegrationTest {
 		assertThat(hospitalRepo.existsById(hospitalId)).isFalse();
 		assertThat(patientRepo.existsById(patientId)).isTrue();
 	}
-}
 
+	@Test
+	public void listPatientsOfHospitalUsesSingleStatement() throws Throwable {
+		HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+		for (int i = 0; i < 20; i++) {
+			PatientEntity patient = patientRepo.save(new PatientEntity("Max" + i, "Mustermann", LocalDate.of(1990, 1, 1)));
+			SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+			service.registerPatient(RegisterPatientRequest.newBuilder()
+					.setPatientId(patient.getId())
+					.setHospitalId(hospital.getId())
+					.build(),
+				regObs);
+			regObs.getResponse(1);
+			// registering warmed the cache, start cold to see the database access
+			cache.evictPatient(patient.getId());
+		}
+
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		stats.clear();
+
+		SingleResponseObserver<PatientList> listObs = new SingleResponseObserver<>();
+		service.listPatientsOfHospital(
+			ListPatientsRequest.newBuilder().setHospitalId(hospital.getId()).build(),
+			listObs);
+
+		PatientList listResp = listObs.getResponse(1);
+		assertThat(listResp.getPatientsCount()).isEqualTo(20);
+		// One join query, no per-registration lookups
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void streamAndPagePatientsOfHospital() throws Throwable {
+		HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+		for (int i = 0; i < 12; i++) {
+			PatientEntity patient = patientRepo.save(new PatientEntity("Max" + i, "Mustermann", LocalDate.of(1990, 1, 1)));
+			registrationRepo.save(new RegistrationEntity(patient, hospital));
+		}
+
+		// --- 1) Stream in chunks of the configured page size ---
+		CollectingObserver<PatientList> streamObs = new CollectingObserver<>();
+		service.streamPatientsOfHospital(
+			ListPatientsRequest.newBuilder().setHospitalId(hospital.getId()).build(),
+			streamObs);
+
+		assertThat(streamObs.error).isNull();
+		assertThat(streamObs.completed).isTrue();
+		assertThat(streamObs.values).extracting(PatientList::getPatientsCount).containsExactly(5, 5, 2);
+
+		// --- 2) Walk the unary pages with the returned tokens ---
+		List<Long> seen = new ArrayList<>();
+		String token = "";
+		do {
+			SingleResponseObserver<PatientPage> pageObs = new SingleResponseObserver<>();
+			service.listPatientsOfHospitalPage(
+				ListPatientsPageRequest.newBuilder()
+					.setHospitalId(hospital.getId())
+					.setPageSize(4)
+					.setPageToken(token)
+					.build(),
+				pageObs);
+			PatientPage page = pageObs.getResponse(1);
+			page.getPatientsList().forEach(p -> seen.add(p.getId()));
+			token = page.getNextPageToken();
+		} while (!token.isEmpty());
+
+		assertThat(seen).hasSize(12).doesNotHaveDuplicates().isSorted();
+	}
+
+	@Test
+	public void bulkCreatePatientsReportsBadRows() throws Throwable {
+		SingleResponseObserver<BulkSummary> summaryObs = new SingleResponseObserver<>();
+		StreamObserver<CreatePatientRequest> requests = service.bulkCreatePatients(summaryObs);
+		for (int i = 0; i < 10; i++) {
+			requests.onNext(CreatePatientRequest.newBuilder()
+				.setFirstName("Max" + i)
+				.setLastName("Mustermann")
+				// row 3 has an unparseable birth date
+				.setBirthDate(i == 3 ? "not-a-date" : LocalDate.of(1990, 1, 1 + i).toString())
+				.build());
+		}
+		requests.onCompleted();
+
+		BulkSummary summary = summaryObs.getResponse(1);
+		assertThat(summary.getReceived()).isEqualTo(10);
+		assertThat(summary.getSucceeded()).isEqualTo(9);
+		assertThat(summary.getCreatedIdsList()).hasSize(9).doesNotHaveDuplicates();
+		assertThat(summary.getErrorsList()).extracting(BulkRowError::getRow).containsExactly(3L);
+		assertThat(patientRepo.count()).isEqualTo(9);
+
+		// --- Registrations of a missing hospital fail per row, the rest are committed ---
+		HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+		SingleResponseObserver<BulkSummary> regObs = new SingleResponseObserver<>();
+		StreamObserver<RegisterPatientRequest> regs = service.bulkRegister(regObs);
+		for (long patientId : summary.getCreatedIdsList()) {
+			regs.onNext(RegisterPatientRequest.newBuilder()
+				.setPatientId(patientId)
+				.setHospitalId(hospital.getId())
+				.build());
+		}
+		regs.onNext(RegisterPatientRequest.newBuilder()
+			.setPatientId(summary.getCreatedIds(0))
+			.setHospitalId(hospital.getId() + 9999)
+			.build());
+		regs.onCompleted();
+
+		BulkSummary regSummary = regObs.getResponse(1);
+		assertThat(regSummary.getSucceeded()).isEqualTo(9);
+		assertThat(regSummary.getErrorsList()).extracting(BulkRowError::getRow).containsExactly(9L);
+		assertThat(registrationRepo.count()).isEqualTo(9);
+
+		// --- Existing registrations succeed, like the unary RegisterPatient ---
+		SingleResponseObserver<BulkSummary> againObs = new SingleResponseObserver<>();
+		StreamObserver<RegisterPatientRequest> again = service.bulkRegister(againObs);
+		for (long patientId : summary.getCreatedIdsList().subList(0, 5)) {
+			again.onNext(RegisterPatientRequest.newBuilder()
+				.setPatientId(patientId)
+				.setHospitalId(hospital.getId())
+				.build());
+		}
+		again.onCompleted();
+
+		BulkSummary againSummary = againObs.getResponse(1);
+		assertThat(againSummary.getSucceeded()).isEqualTo(5);
+		assertThat(againSummary.getErrorsList()).isEmpty();
+		assertThat(registrationRepo.count()).isEqualTo(9);
+	}
+
+	@Test
+	public void modifyAndDeleteInvalidateCache() throws Throwable {
+		PatientEntity patient = patientRepo.save(new PatientEntity("Max", "Mustermann", LocalDate.of(1990, 1, 1)));
+		long patientId = patient.getId();
+		assertThat(cache.findPatient(patientId)).map(Patient::getFirstName).hasValue("Max");
+
+		// --- 1) Modify evicts the cached patient ---
+		SingleResponseObserver<Patient> modifyObs = new SingleResponseObserver<>();
+		service.modifyPatient(ModifyPatientRequest.newBuilder()
+				.setPatientId(patientId)
+				.setFirstName("Moritz")
+				.setLastName("Mustermann")
+				.setBirthDate("1990-01-01")
+				.build(),
+			modifyObs);
+		modifyObs.getResponse(1);
+		assertThat(cache.findPatient(patientId)).map(Patient::getFirstName).hasValue("Moritz");
+
+		// --- 2) Delete evicts it as well ---
+		SingleResponseObserver<Empty> deleteObs = new SingleResponseObserver<>();
+		service.deletePatient(DeletePatientRequest.newBuilder().setPatientId(patientId).build(), deleteObs);
+		deleteObs.getResponse(1);
+		assertThat(cache.findPatient(patientId)).isEmpty();
+	}
+
+	@Test
+	public void loadRacingAModifyIsNotCached() throws Throwable {
+		PatientEntity patient = patientRepo.save(new PatientEntity("Max", "Mustermann", LocalDate.of(1990, 1, 1)));
+		long patientId = patient.getId();
+
+		// a cache of its own, whose loads see the old row and then a modify commit and evict
+		AtomicReference<EntityCache> racing = new AtomicReference<>();
+		AtomicInteger loads = new AtomicInteger();
+		PatientRepository modifiedWhileLoading = (PatientRepository) Proxy.newProxyInstance(
+			PatientRepository.class.getClassLoader(),
+			new Class<?>[] { PatientRepository.class },
+			(proxy, method, args) -> {
+				Object result = method.invoke(patientRepo, args);
+				if (method.getName().equals("findById") && loads.incrementAndGet() == 1) {
+					SingleResponseObserver<Patient> modifyObs = new SingleResponseObserver<>();
+					service.modifyPatient(ModifyPatientRequest.newBuilder()
+							.setPatientId(patientId)
+							.setFirstName("Moritz")
+							.setLastName("Mustermann")
+							.setBirthDate("1990-01-01")
+							.build(),
+						modifyObs);
+					modifyObs.getResponse(1);
+					racing.get().evictPatient(patientId);
+				}
+				return result;
+			});
+		racing.set(new EntityCache(modifiedWhileLoading, hospitalRepo, projectionRepo,
+			new ConcurrentMapCacheManager(CacheConfig.PATIENTS, CacheConfig.HOSPITALS), replicas));
+
+		// --- 1) The racing load returns the old row ... ---
+		assertThat(racing.get().findPatient(patientId)).map(Patient::getFirstName).hasValue("Max");
+
+		// --- 2) ... but does not cache it, the next read loads the modification ---
+		assertThat(racing.get().findPatient(patientId)).map(Patient::getFirstName).hasValue("Moritz");
+		assertThat(loads).hasValue(2);
+
+		// --- 3) A load after the eviction is cached again ---
+		assertThat(racing.get().findPatient(patientId)).map(Patient::getFirstName).hasValue("Moritz");
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	public void registrationIndexStaysConsistentUnderConcurrency() throws Throwable {
+		HospitalEntity first = hospitalRepo.save(new HospitalEntity("Klinik A", "Musterweg 1"));
+		HospitalEntity second = hospitalRepo.save(new HospitalEntity("Klinik B", "Musterweg 2"));
+		List<PatientEntity> patients = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			patients.add(patientRepo.save(new PatientEntity("Max" + i, "Mustermann", LocalDate.of(1990, 1, 1))));
+		}
+
+		// register every patient in both hospitals and unregister every third one from the first again
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (PatientEntity p : patients) {
+				futures.add(pool.submit(() -> {
+					try {
+						for (HospitalEntity h : List.of(first, second)) {
+							SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+							service.registerPatient(RegisterPatientRequest.newBuilder()
+									.setPatientId(p.getId())
+									.setHospitalId(h.getId())
+									.build(),
+								regObs);
+							regObs.getResponse(5);
+						}
+						if (p.getId() % 3 == 0) {
+							SingleResponseObserver<Empty> unregObs = new SingleResponseObserver<>();
+							service.unregisterPatient(RegisterPatientRequest.newBuilder()
+									.setPatientId(p.getId())
+									.setHospitalId(first.getId())
+									.build(),
+								unregObs);
+							unregObs.getResponse(5);
+						}
+					} catch (Throwable t) {
+						throw new RuntimeException(t);
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		for (HospitalEntity h : List.of(first, second)) {
+			long[] fromDb = registrationRepo.findPatientIdsByHospitalId(h.getId()).stream()
+				.mapToLong(Long::longValue).toArray();
+			assertThat(registrationIndex.patientsOf(h.getId())).containsExactly(fromDb);
+			for (long patientId : fromDb) {
+				assertThat(registrationIndex.contains(patientId, h.getId())).isTrue();
+			}
+		}
+		assertThat(registrationIndex.edgeCount()).isEqualTo(registrationRepo.count());
+		assertThat(registrationIndex.estimatedBytes()).isPositive();
+
+		// the list RPC answers from the index
+		SingleResponseObserver<PatientList> listObs = new SingleResponseObserver<>();
+		service.listPatientsOfHospital(ListPatientsRequest.newBuilder().setHospitalId(second.getId()).build(), listObs);
+		assertThat(listObs.getResponse(1).getPatientsList()).extracting(Patient::getId)
+			.containsExactlyElementsOf(Arrays.stream(registrationIndex.patientsOf(second.getId())).boxed().toList());
+	}
+
+	@Test
+	public void interceptorRecordsCallMetrics() {
+		ManagedChannel channel = InProcessChannelBuilder.forName("integration-test").directExecutor().build();
+		try {
+			HospitalServiceGrpc.HospitalServiceBlockingStub stub = HospitalServiceGrpc.newBlockingStub(channel);
+			String method = HospitalServiceGrpc.getCreateHospitalMethod().getFullMethodName();
+			Timer latency = meterRegistry.get("hospital.grpc.server.latency").tag("method", method).timer();
+			long before = latency.count();
+
+			stub.createHospital(CreateHospitalRequest.newBuilder()
+				.setName("Testklinik")
+				.setAddress("Musterweg 1")
+				.build());
+			assertThrows(io.grpc.StatusRuntimeException.class, () -> stub.deleteHospital(
+				DeleteHospitalRequest.newBuilder().setHospitalId(9999).build()));
+
+			assertThat(latency.count()).isEqualTo(before + 1);
+			assertThat(meterRegistry.get("hospital.grpc.server.calls")
+				.tag("method", HospitalServiceGrpc.getDeleteHospitalMethod().getFullMethodName())
+				.tag("status", "NOT_FOUND")
+				.counter().count()).isGreaterThanOrEqualTo(1);
+			assertThat(meterRegistry.get("hospital.grpc.server.db.statements")
+				.tag("method", method)
+				.summary().totalAmount()).isPositive();
+			assertThat(meterRegistry.get("hospital.grpc.server.in.flight")
+				.tag("method", method)
+				.gauge().value()).isZero();
+
+			// a handler that throws is recorded with the status the client gets
+			String createPatient = HospitalServiceGrpc.getCreatePatientMethod().getFullMethodName();
+			double unknownBefore = meterRegistry.get("hospital.grpc.server.calls")
+				.tag("method", createPatient).tag("status", "UNKNOWN").counter().count();
+			for (int i = 0; i < 3; i++) {
+				assertThrows(io.grpc.StatusRuntimeException.class, () -> stub.createPatient(CreatePatientRequest.newBuilder()
+					.setFirstName("Max")
+					.setLastName("Mustermann")
+					.setBirthDate("nope")
+					.build()));
+			}
+			assertThat(meterRegistry.get("hospital.grpc.server.calls")
+				.tag("method", createPatient).tag("status", "UNKNOWN").counter().count()).isEqualTo(unknownBefore + 3);
+			assertThat(meterRegistry.get("hospital.grpc.server.in.flight")
+				.tag("method", createPatient)
+				.gauge().value()).isZero();
+		} finally {
+			channel.shutdownNow();
+		}
+	}
+
+	@Test
+	public void plainJdbcStatementsAreCounted() {
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		StatementCounter.drain();
+		jdbc.queryForObject("select count(*) from patient", Long.class);
+		jdbc.queryForObject("select count(*) from hospital where id = ?", Long.class, 1L);
+		patientRepo.count();
+		assertThat(StatementCounter.drain()).isEqualTo(3);
+	}
+
+	@Test
+	public void conditionalWritesUseSingleStatements() throws Throwable {
+		HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+		PatientEntity patient = patientRepo.save(new PatientEntity("Max", "Mustermann", LocalDate.of(1990, 1, 1)));
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		// --- 1) Register inserts directly, twice is fine, a missing hospital is NOT_FOUND ---
+		RegisterPatientRequest regReq = RegisterPatientRequest.newBuilder()
+			.setPatientId(patient.getId())
+			.setHospitalId(hospital.getId())
+			.build();
+		stats.clear();
+		SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+		service.registerPatient(regReq, regObs);
+		assertThat(regObs.getResponse(1)).isNotNull();
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+
+		SingleResponseObserver<Registration> againObs = new SingleResponseObserver<>();
+		service.registerPatient(regReq, againObs);
+		assertThat(againObs.getResponse(1)).isNotNull();
+
+		SingleResponseObserver<Registration> missingObs = new SingleResponseObserver<>();
+		service.registerPatient(regReq.toBuilder().setHospitalId(hospital.getId() + 9999).build(), missingObs);
+		RuntimeException thrown = assertThrows(RuntimeException.class, () -> missingObs.getResponse(1));
+		assertThat(thrown.getCause()).hasMessageContaining("NOT_FOUND");
+
+		// --- 2) Modify and delete are one statement each ---
+		stats.clear();
+		SingleResponseObserver<Hospital> modifyObs = new SingleResponseObserver<>();
+		service.modifyHospital(ModifyHospitalRequest.newBuilder()
+				.setHospitalId(hospital.getId())
+				.setName("Neue Klinik")
+				.setAddress("Neuer Weg 2")
+				.build(),
+			modifyObs);
+		assertThat(modifyObs.getResponse(1).getName()).isEqualTo("Neue Klinik");
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+
+		stats.clear();
+		SingleResponseObserver<Empty> deleteObs = new SingleResponseObserver<>();
+		service.deletePatient(DeletePatientRequest.newBuilder().setPatientId(patient.getId()).build(), deleteObs);
+		assertThat(deleteObs.getResponse(1)).isNotNull();
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(registrationIndex.contains(patient.getId(), hospital.getId())).isFalse();
+	}
+
+	@Test
+	public void everyRpcRunsInOneTransaction() throws Throwable {
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		stats.clear();
+		SingleResponseObserver<Hospital> hospitalObs = new SingleResponseObserver<>();
+		service.createHospital(CreateHospitalRequest.newBuilder()
+				.setName("Testklinik")
+				.setAddress("Musterweg 1")
+				.build(),
+			hospitalObs);
+		long hospitalId = hospitalObs.getResponse(1).getId();
+		assertThat(stats.getTransactionCount()).isEqualTo(1);
+
+		List<Long> patientIds = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			SingleResponseObserver<Patient> patientObs = new SingleResponseObserver<>();
+			service.createPatient(CreatePatientRequest.newBuilder()
+					.setFirstName("Max" + i)
+					.setLastName("Mustermann")
+					.setBirthDate("1990-01-01")
+					.build(),
+				patientObs);
+			patientIds.add(patientObs.getResponse(1).getId());
+		}
+
+		stats.clear();
+		for (long patientId : patientIds) {
+			SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+			service.registerPatient(RegisterPatientRequest.newBuilder()
+					.setPatientId(patientId)
+					.setHospitalId(hospitalId)
+					.build(),
+				regObs);
+			regObs.getResponse(1);
+		}
+		assertThat(stats.getTransactionCount()).isEqualTo(5);
+
+		// --- Reads: one read-only transaction, no matter how many rows are loaded ---
+		for (long patientId : patientIds) {
+			cache.evictPatient(patientId);
+		}
+		stats.clear();
+		SingleResponseObserver<PatientList> listObs = new SingleResponseObserver<>();
+		service.listPatientsOfHospital(ListPatientsRequest.newBuilder().setHospitalId(hospitalId).build(), listObs);
+		assertThat(listObs.getResponse(1).getPatientsCount()).isEqualTo(5);
+		assertThat(stats.getTransactionCount()).isEqualTo(1);
+
+		registrationIndex.reload();
+		cache.evictHospital(hospitalId);
+		stats.clear();
+		SingleResponseObserver<HospitalList> hospitalsObs = new SingleResponseObserver<>();
+		service.listHospitalsOfPatient(ListHospitalsRequest.newBuilder().setPatientId(patientIds.get(0)).build(), hospitalsObs);
+		assertThat(hospitalsObs.getResponse(1).getHospitalsCount()).isEqualTo(1);
+		assertThat(stats.getTransactionCount()).isEqualTo(1);
+
+		stats.clear();
+		SingleResponseObserver<PatientPage> pageObs = new SingleResponseObserver<>();
+		service.listPatientsOfHospitalPage(ListPatientsPageRequest.newBuilder().setHospitalId(hospitalId).build(), pageObs);
+		assertThat(pageObs.getResponse(1).getPatientsCount()).isEqualTo(5);
+		assertThat(stats.getTransactionCount()).isEqualTo(1);
+
+		// --- Writes with index side effects ---
+		stats.clear();
+		SingleResponseObserver<Empty> unregObs = new SingleResponseObserver<>();
+		service.unregisterPatient(RegisterPatientRequest.newBuilder()
+				.setPatientId(patientIds.get(0))
+				.setHospitalId(hospitalId)
+				.build(),
+			unregObs);
+		unregObs.getResponse(1);
+		SingleResponseObserver<Empty> deleteObs = new SingleResponseObserver<>();
+		service.deleteHospital(DeleteHospitalRequest.newBuilder().setHospitalId(hospitalId).build(), deleteObs);
+		deleteObs.getResponse(1);
+		assertThat(stats.getTransactionCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void batchGetResolvesInRequestOrderWithOneQuery() throws Throwable {
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			ids.add(patientRepo.save(new PatientEntity("Max" + i, "Mustermann", LocalDate.of(1990, 1, 1))).getId());
+			cache.evictPatient(ids.get(i));
+		}
+		long missing = ids.get(5) + 1000;
+		List<Long> requested = List.of(ids.get(4), missing, ids.get(0), ids.get(2));
+
+		// --- 1) Cold cache: one IN query, request order, the missing id reported ---
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		stats.clear();
+		SingleResponseObserver<BatchGetPatientsResponse> batchObs = new SingleResponseObserver<>();
+		service.batchGetPatients(BatchGetPatientsRequest.newBuilder().addAllPatientIds(requested).build(), batchObs);
+		BatchGetPatientsResponse batch = batchObs.getResponse(1);
+		assertThat(batch.getPatientsList()).extracting(Patient::getId)
+			.containsExactly(ids.get(4), ids.get(0), ids.get(2));
+		assertThat(batch.getMissingIdsList()).containsExactly(missing);
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+
+		// --- 2) Warm cache: only the missing id goes to the database ---
+		stats.clear();
+		SingleResponseObserver<BatchGetPatientsResponse> warmObs = new SingleResponseObserver<>();
+		service.batchGetPatients(BatchGetPatientsRequest.newBuilder().addAllPatientIds(requested).build(), warmObs);
+		assertThat(warmObs.getResponse(1).getPatientsCount()).isEqualTo(3);
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(1);
+
+		// --- 3) Single lookups ---
+		SingleResponseObserver<Patient> getObs = new SingleResponseObserver<>();
+		service.getPatient(GetPatientRequest.newBuilder().setPatientId(ids.get(1)).build(), getObs);
+		assertThat(getObs.getResponse(1).getFirstName()).isEqualTo("Max1");
+
+		SingleResponseObserver<Hospital> missingObs = new SingleResponseObserver<>();
+		service.getHospital(GetHospitalRequest.newBuilder().setHospitalId(missing).build(), missingObs);
+		RuntimeException thrown = assertThrows(RuntimeException.class, () -> missingObs.getResponse(1));
+		assertThat(thrown.getCause()).hasMessageContaining("NOT_FOUND");
+	}
+
+	@Test
+	public void readMaskSelectsOnlyRequestedFields() throws Throwable {
+		HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			PatientEntity patient = patientRepo.save(new PatientEntity("Max" + i, "Mustermann", LocalDate.of(1990, 1, 1)));
+			SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+			service.registerPatient(RegisterPatientRequest.newBuilder()
+					.setPatientId(patient.getId())
+					.setHospitalId(hospital.getId())
+					.build(),
+				regObs);
+			regObs.getResponse(1);
+			ids.add(patient.getId());
+		}
+		assertThat(registrationIndex.isReady()).isTrue();
+
+		// --- 1) Only ids: answered by the registration index, no statement at all ---
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		stats.clear();
+		SingleResponseObserver<PatientList> listObs = new SingleResponseObserver<>();
+		service.listPatientsOfHospital(ListPatientsRequest.newBuilder()
+				.setHospitalId(hospital.getId())
+				.setReadMask(FieldMask.newBuilder().addPaths("id"))
+				.build(),
+			listObs);
+		PatientList list = listObs.getResponse(1);
+		assertThat(list.getPatientsList()).extracting(Patient::getId).containsExactlyInAnyOrderElementsOf(ids);
+		assertThat(list.getPatientsList()).extracting(Patient::getFirstName).containsOnly("");
+		assertThat(stats.getPrepareStatementCount()).isZero();
+
+		// --- 2) A page reads only the masked column, the others stay at their defaults ---
+		stats.clear();
+		SingleResponseObserver<PatientPage> pageObs = new SingleResponseObserver<>();
+		service.listPatientsOfHospitalPage(ListPatientsPageRequest.newBuilder()
+				.setHospitalId(hospital.getId())
+				.setPageSize(2)
+				.setReadMask(FieldMask.newBuilder().addPaths("first_name"))
+				.build(),
+			pageObs);
+		PatientPage page = pageObs.getResponse(1);
+		assertThat(page.getPatientsList()).extracting(Patient::getFirstName).containsExactly("Max0", "Max1");
+		assertThat(page.getPatientsList()).extracting(Patient::getId).containsOnly(0L);
+		assertThat(page.getPatientsList()).extracting(Patient::getBirthDate).containsOnly("");
+		assertThat(page.getNextPageToken()).isNotEmpty();
+		assertThat(stats.getQueries()).singleElement().asString()
+			.contains("p.firstName").doesNotContain("p.lastName", "p.birthDate");
+
+		// --- 3) Batch lookups still report missing ids without the id in the mask ---
+		long missing = ids.get(2) + 1000;
+		SingleResponseObserver<BatchGetPatientsResponse> batchObs = new SingleResponseObserver<>();
+		service.batchGetPatients(BatchGetPatientsRequest.newBuilder()
+				.addPatientIds(ids.get(1))
+				.addPatientIds(missing)
+				.setReadMask(FieldMask.newBuilder().addPaths("last_name"))
+				.build(),
+			batchObs);
+		BatchGetPatientsResponse batch = batchObs.getResponse(1);
+		assertThat(batch.getPatientsList()).containsExactly(Patient.newBuilder().setLastName("Mustermann").build());
+		assertThat(batch.getMissingIdsList()).containsExactly(missing);
+
+		// --- 4) Unknown paths are rejected ---
+		SingleResponseObserver<Patient> badObs = new SingleResponseObserver<>();
+		service.getPatient(GetPatientRequest.newBuilder()
+				.setPatientId(ids.get(0))
+				.setReadMask(FieldMask.newBuilder().addPaths("ssn"))
+				.build(),
+			badObs);
+		RuntimeException thrown = assertThrows(RuntimeException.class, () -> badObs.getResponse(1));
+		assertThat(thrown.getCause()).hasMessageContaining("INVALID_ARGUMENT");
+	}
+
+	@Test
+	public void countsAndStatsWithoutTransferringRows() throws Throwable {
+		HospitalEntity big = hospitalRepo.save(new HospitalEntity("Grosse Klinik", "Musterweg 1"));
+		HospitalEntity small = hospitalRepo.save(new HospitalEntity("Kleine Klinik", "Musterweg 2"));
+		List<RegistrationId> registrations = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			PatientEntity patient = patientRepo.save(new PatientEntity("Max" + i, "Mustermann", LocalDate.of(1990, 1, 1)));
+			registrations.add(new RegistrationId(patient.getId(), big.getId()));
+			if (i == 0) {
+				registrations.add(new RegistrationId(patient.getId(), small.getId()));
+			}
+		}
+		SingleResponseObserver<BulkSummary> bulkObs = new SingleResponseObserver<>();
+		StreamObserver<RegisterPatientRequest> bulk = service.bulkRegister(bulkObs);
+		registrations.forEach(r -> bulk.onNext(RegisterPatientRequest.newBuilder()
+			.setPatientId(r.getPatientId())
+			.setHospitalId(r.getHospitalId())
+			.build()));
+		bulk.onCompleted();
+		bulkObs.getResponse(1);
+
+		// --- 1) Counts come from the registration index, no statement ---
+		Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		stats.clear();
+		SingleResponseObserver<Count> patientsObs = new SingleResponseObserver<>();
+		service.countPatientsOfHospital(CountPatientsRequest.newBuilder().setHospitalId(big.getId()).build(), patientsObs);
+		assertThat(patientsObs.getResponse(1).getCount()).isEqualTo(4);
+		SingleResponseObserver<Count> hospitalsObs = new SingleResponseObserver<>();
+		service.countHospitalsOfPatient(
+			CountHospitalsRequest.newBuilder().setPatientId(registrations.get(0).getPatientId()).build(), hospitalsObs);
+		assertThat(hospitalsObs.getResponse(1).getCount()).isEqualTo(2);
+		assertThat(stats.getPrepareStatementCount()).isZero();
+
+		// --- 2) The repository counts with COUNT queries ---
+		assertThat(registrationRepo.countByHospitalId(big.getId())).isEqualTo(4);
+		assertThat(registrationRepo.countByPatientId(registrations.get(0).getPatientId())).isEqualTo(2);
+
+		// --- 3) Statistics: one GROUP BY query each ---
+		stats.clear();
+		SingleResponseObserver<HospitalStatsResponse> statsObs = new SingleResponseObserver<>();
+		service.hospitalStats(HospitalStatsRequest.newBuilder().setDays(7).build(), statsObs);
+		HospitalStatsResponse hospitalStats = statsObs.getResponse(1);
+		assertThat(hospitalStats.getRegistrationsPerDayList()).containsExactly(DailyRegistrations.newBuilder()
+			.setDate(LocalDate.now().toString())
+			.setRegistrations(5)
+			.build());
+		assertThat(hospitalStats.getTopHospitalsList()).extracting(HospitalPatientCount::getName)
+			.containsExactly("Grosse Klinik", "Kleine Klinik");
+		assertThat(hospitalStats.getTopHospitals(0).getPatients()).isEqualTo(4);
+		assertThat(stats.getPrepareStatementCount()).isEqualTo(2);
+	}
+
+	private long createPatient(String firstName, String lastName, String birthDate) throws Throwable {
+		SingleResponseObserver<Patient> obs = new SingleResponseObserver<>();
+		service.createPatient(CreatePatientRequest.newBuilder()
+				.setFirstName(firstName)
+				.setLastName(lastName)
+				.setBirthDate(birthDate)
+				.build(),
+			obs);
+		return obs.getResponse(1).getId();
+	}
+
+	private List<Long> search(SearchPatientsRequest req) {
+		CollectingObserver<PatientList> obs = new CollectingObserver<>();
+		service.searchPatients(req, obs);
+		assertThat(obs.error).isNull();
+		assertThat(obs.completed).isTrue();
+		return obs.values.stream()
+			.flatMap(list -> list.getPatientsList().stream())
+			.map(Patient::getId)
+			.toList();
+	}
+
+	@Test
+	public void searchPatientsByNameBirthDateAndHospital() throws Throwable {
+		long anna = createPatient("Anna", "Müller", "1980-05-01");
+		long hans = createPatient("Hans", "Mueller", "1985-01-01");
+		long max = createPatient("Max", "Schulz", "1990-01-01");
+		long annaS = createPatient("Anna", "Schmidt", "1980-06-01");
+		HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+		for (long patientId : new long[] { anna, max }) {
+			SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+			service.registerPatient(RegisterPatientRequest.newBuilder()
+					.setPatientId(patientId)
+					.setHospitalId(hospital.getId())
+					.build(),
+				regObs);
+			regObs.getResponse(1);
+		}
+
+		// --- 1) Prefix, ignoring case and accents ---
+		assertThat(search(SearchPatientsRequest.newBuilder().setLastName("MÜLL").build())).containsExactly(anna);
+
+		// --- 2) Fuzzy, a typo still finds both spellings ---
+		assertThat(search(SearchPatientsRequest.newBuilder().setLastName("Muler").setFuzzy(true).build()))
+			.containsExactly(anna, hans);
+
+		// --- 3) Birth date range, combined with a first name and the hospital ---
+		assertThat(search(SearchPatientsRequest.newBuilder()
+				.setBornFrom("1980-01-01")
+				.setBornTo("1980-12-31")
+				.build()))
+			.containsExactly(anna, annaS);
+		assertThat(search(SearchPatientsRequest.newBuilder()
+				.setFirstName("an")
+				.setHospitalId(hospital.getId())
+				.build()))
+			.containsExactly(anna);
+
+		// --- 4) The index follows modify and delete ---
+		SingleResponseObserver<Patient> modObs = new SingleResponseObserver<>();
+		service.modifyPatient(ModifyPatientRequest.newBuilder()
+				.setPatientId(max)
+				.setFirstName("Max")
+				.setLastName("Müllner")
+				.setBirthDate("1990-01-01")
+				.build(),
+			modObs);
+		modObs.getResponse(1);
+		SingleResponseObserver<Empty> delObs = new SingleResponseObserver<>();
+		service.deletePatient(DeletePatientRequest.newBuilder().setPatientId(anna).build(), delObs);
+		delObs.getResponse(1);
+		assertThat(search(SearchPatientsRequest.newBuilder().setLastName("müll").build())).containsExactly(max);
+
+		// --- 5) Without criteria the search is rejected ---
+		CollectingObserver<PatientList> emptyObs = new CollectingObserver<>();
+		service.searchPatients(SearchPatientsRequest.getDefaultInstance(), emptyObs);
+		assertThat(emptyObs.error).hasMessageContaining("INVALID_ARGUMENT");
+	}
+
+	// Stub sending the idempotency key, capturing the response headers
+	private static HospitalServiceGrpc.HospitalServiceBlockingStub withKey(ManagedChannel channel, String key,
+			AtomicReference<Metadata> responseHeaders) {
+		Metadata headers = new Metadata();
+		headers.put(IdempotencyInterceptor.IDEMPOTENCY_KEY_HEADER, key);
+		return HospitalServiceGrpc.newBlockingStub(channel).withInterceptors(
+			MetadataUtils.newAttachHeadersInterceptor(headers),
+			MetadataUtils.newCaptureMetadataInterceptor(responseHeaders, new AtomicReference<>()));
+	}
+
+	@Test
+	public void retriesWithIdempotencyKeyGetTheFirstResponse() throws Throwable {
+		ManagedChannel channel = InProcessChannelBuilder.forName("integration-test").directExecutor().build();
+		try {
+			AtomicReference<Metadata> responseHeaders = new AtomicReference<>();
+			CreatePatientRequest create = CreatePatientRequest.newBuilder()
+				.setFirstName("Ida")
+				.setLastName("Empotent")
+				.setBirthDate("1970-01-01")
+				.build();
+			long patientsBefore = patientRepo.count();
+			double replaysBefore = meterRegistry.get("hospital.idempotency.replays").counter().count();
+
+			// --- 1) The retry returns the first patient and creates none ---
+			Patient first = withKey(channel, "create-1", responseHeaders).createPatient(create);
+			assertThat(responseHeaders.get().get(IdempotencyInterceptor.REPLAYED_HEADER)).isNull();
+			Patient retry = withKey(channel, "create-1", responseHeaders).createPatient(create);
+			assertThat(retry).isEqualTo(first);
+			assertThat(responseHeaders.get().get(IdempotencyInterceptor.REPLAYED_HEADER)).isEqualTo("true");
+			assertThat(patientRepo.count()).isEqualTo(patientsBefore + 1);
+
+			// --- 2) The key with another request is rejected, not answered with the first patient ---
+			io.grpc.StatusRuntimeException reused = assertThrows(io.grpc.StatusRuntimeException.class,
+				() -> withKey(channel, "create-1", responseHeaders).createPatient(create.toBuilder().setFirstName("Ina").build()));
+			assertThat(reused.getStatus().getCode()).isEqualTo(io.grpc.Status.Code.INVALID_ARGUMENT);
+			assertThat(patientRepo.count()).isEqualTo(patientsBefore + 1);
+			assertThat(withKey(channel, "create-1", responseHeaders).createPatient(create)).isEqualTo(first);
+
+			// --- 3) Another key, or none, creates another patient ---
+			assertThat(withKey(channel, "create-2", responseHeaders).createPatient(create).getId())
+				.isNotEqualTo(first.getId());
+			HospitalServiceGrpc.newBlockingStub(channel).createPatient(create);
+			assertThat(patientRepo.count()).isEqualTo(patientsBefore + 3);
+
+			// --- 4) Replayed registrations don't reach the database ---
+			HospitalEntity hospital = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 1"));
+			RegisterPatientRequest register = RegisterPatientRequest.newBuilder()
+				.setPatientId(first.getId())
+				.setHospitalId(hospital.getId())
+				.build();
+			withKey(channel, "register-1", responseHeaders).registerPatient(register);
+			Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+			stats.clear();
+			assertThat(withKey(channel, "register-1", responseHeaders).registerPatient(register)).isEqualTo(
+				Registration.newBuilder().setPatientId(first.getId()).setHospitalId(hospital.getId()).build());
+			assertThat(stats.getPrepareStatementCount()).isZero();
+
+			// --- 5) Failures are not kept, the retry runs again ---
+			RegisterPatientRequest unknown = RegisterPatientRequest.newBuilder()
+				.setPatientId(first.getId())
+				.setHospitalId(999_999L)
+				.build();
+			for (int i = 0; i < 2; i++) {
+				io.grpc.StatusRuntimeException e = assertThrows(io.grpc.StatusRuntimeException.class,
+					() -> withKey(channel, "register-2", responseHeaders).registerPatient(unknown));
+				assertThat(e.getStatus().getCode()).isEqualTo(io.grpc.Status.Code.NOT_FOUND);
+			}
+			assertThat(meterRegistry.get("hospital.idempotency.replays").counter().count()).isEqualTo(replaysBefore + 3);
+
+			// --- 6) A snapshot brings the responses back after a restart ---
+			Path file = Files.createTempFile("idempotency", ".snapshot");
+			try {
+				idempotencyStore.snapshot(file);
+				IdempotencyStore restarted = new IdempotencyStore(100, Duration.ofHours(1), file,
+					Duration.ofHours(1), new SimpleMeterRegistry());
+				restarted.destroy();
+				IdempotencyStore.Entry replayed = restarted.putIfAbsent(
+					HospitalServiceGrpc.getCreatePatientMethod().getFullMethodName() + " create-1", new byte[0],
+					new CompletableFuture<>());
+				assertThat(replayed.requestHash()).hasSize(32);
+				assertThat(Patient.parseFrom(replayed.response().get())).isEqualTo(first);
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		} finally {
+			channel.shutdownNow();
+		}
+	}
+
+	@Test
+	public void retriesAfterAFailingHandlerRunAgain() {
+		ManagedChannel channel = InProcessChannelBuilder.forName("integration-test").directExecutor().build();
+		try {
+			AtomicReference<Metadata> responseHeaders = new AtomicReference<>();
+			// the handler throws on the date, the server closes the call without the interceptors
+			CreatePatientRequest invalid = CreatePatientRequest.newBuilder()
+				.setFirstName("Ida")
+				.setLastName("Empotent")
+				.setBirthDate("nope")
+				.build();
+			for (int i = 0; i < 2; i++) {
+				io.grpc.StatusRuntimeException e = assertThrows(io.grpc.StatusRuntimeException.class,
+					() -> withKey(channel, "failing-1", responseHeaders)
+						.withDeadlineAfter(5, TimeUnit.SECONDS)
+						.createPatient(invalid));
+				assertThat(e.getStatus().getCode()).isEqualTo(io.grpc.Status.Code.UNKNOWN);
+			}
+		} finally {
+			channel.shutdownNow();
+		}
+	}
+
+	@Test
+	public void largeListsAreEncodedFromTheRows() throws Throwable {
+		HospitalEntity big = hospitalRepo.save(new HospitalEntity("Großklinik", "Musterweg 1"));
+		HospitalEntity small = hospitalRepo.save(new HospitalEntity("Testklinik", "Musterweg 2"));
+		for (int i = 0; i < 12; i++) {
+			// an empty name is left out of the message, like the builders do
+			PatientEntity patient = patientRepo.save(new PatientEntity(i == 3 ? "" : "Jürgen" + i, "Mustermann", LocalDate.of(1990, 1, 1 + i)));
+			for (HospitalEntity hospital : i < 2 ? List.of(big, small) : List.of(big)) {
+				SingleResponseObserver<Registration> regObs = new SingleResponseObserver<>();
+				service.registerPatient(RegisterPatientRequest.newBuilder()
+						.setPatientId(patient.getId())
+						.setHospitalId(hospital.getId())
+						.build(),
+					regObs);
+				regObs.getResponse(1);
+			}
+		}
+
+		ManagedChannel channel = InProcessChannelBuilder.forName("integration-test").directExecutor().build();
+		try {
+			HospitalServiceGrpc.HospitalServiceBlockingStub stub = HospitalServiceGrpc.newBlockingStub(channel);
+			List<ListPatientsRequest> requests = List.of(
+				ListPatientsRequest.newBuilder().setHospitalId(big.getId()).build(),
+				ListPatientsRequest.newBuilder().setHospitalId(big.getId())
+					.setReadMask(FieldMask.newBuilder().addPaths("first_name").addPaths("birth_date")).build(),
+				ListPatientsRequest.newBuilder().setHospitalId(small.getId()).build());
+			// twice, the second round reuses the pooled buffers
+			for (int round = 0; round < 2; round++) {
+				for (ListPatientsRequest request : requests) {
+					SingleResponseObserver<PatientList> listObs = new SingleResponseObserver<>();
+					service.listPatientsOfHospital(request, listObs);
+					PatientList built = listObs.getResponse(1);
+
+					PatientList encoded = stub.listPatientsOfHospital(request);
+					assertThat(encoded).isEqualTo(built);
+					assertThat(encoded.toByteArray()).isEqualTo(built.toByteArray());
+				}
+			}
+			assertThat(stub.listPatientsOfHospital(requests.get(0)).getPatientsCount()).isEqualTo(12);
+
+			io.grpc.StatusRuntimeException e = assertThrows(io.grpc.StatusRuntimeException.class,
+				() -> stub.listPatientsOfHospital(ListPatientsRequest.newBuilder().setHospitalId(big.getId())
+					.setReadMask(FieldMask.newBuilder().addPaths("shoe_size")).build()));
+			assertThat(e.getStatus().getCode()).isEqualTo(io.grpc.Status.Code.INVALID_ARGUMENT);
+			assertThat(meterRegistry.get("hospital.grpc.server.response.size")
+				.tag("method", HospitalServiceGrpc.getListPatientsOfHospitalMethod().getFullMethodName())
+				.summary().max()).isPositive();
+		} finally {
+			channel.shutdownNow();
+		}
+	}
+}
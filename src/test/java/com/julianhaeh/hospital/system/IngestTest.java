@@ -0,0 +1,185 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Ingest of partner files, with chunks of a few lines and tiny batches so a file spans
+ * many of both, and progress after every chunk.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:ingest-test;DB_CLOSE_DELAY=-1",
+    "hospital.ingest.chunk-size=128B",
+    "hospital.ingest.parse-threads=3",
+    "hospital.ingest.batch-size=7",
+    "hospital.ingest.progress-interval=0s",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=ingest-test"
+})
+public class IngestTest {
+
+    private static final Path INGEST_DIR = createTempDirectory();
+
+    @DynamicPropertySource
+    static void ingestDir(DynamicPropertyRegistry registry) {
+        registry.add("hospital.ingest.dir", INGEST_DIR::toString);
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("ingest-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ManagedChannel channel;
+    private HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("ingest-test").directExecutor().build();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    private List<IngestProgress> ingest(String name) {
+        List<IngestProgress> progress = new ArrayList<>();
+        stub.ingestFile(IngestRequest.newBuilder().setName(name).build()).forEachRemaining(progress::add);
+        return progress;
+    }
+
+    private long hospital(String name) {
+        return stub.createHospital(CreateHospitalRequest.newBuilder()
+            .setName(name)
+            .setAddress("Musterweg 1")
+            .build()).getId();
+    }
+
+    private long patientsOf(long hospitalId) {
+        return stub.countPatientsOfHospital(CountPatientsRequest.newBuilder()
+            .setHospitalId(hospitalId).build()).getCount();
+    }
+
+    private List<Patient> search(String lastName) {
+        List<Patient> found = new ArrayList<>();
+        stub.searchPatients(SearchPatientsRequest.newBuilder().setLastName(lastName).build())
+            .forEachRemaining(list -> found.addAll(list.getPatientsList()));
+        return found;
+    }
+
+    @Test
+    public void rowsAreIngestedOnceAndPatientsMatchedByNameAndBirthDate() throws Exception {
+        long first = hospital("Ingestklinik 1");
+        long second = hospital("Ingestklinik 2");
+        stub.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Max")
+            .setLastName("Ingestmann")
+            .setBirthDate("1990-01-01")
+            .build());
+
+        List<String> lines = new ArrayList<>(List.of(
+            "first_name;last_name;birth_date;hospital_id",
+            "Max;Ingestmann;1990-01-01;" + first,
+            "Erika;Ingestfrau;19850315;" + first,
+            "Erika;Ingestfrau;1985-03-15;" + second,
+            "\"Anna \"\"Anni\"\"\";\"Ingest; Jr.\";2000-02-29;" + second,
+            " Erika ; Ingestfrau ;1985-03-15;" + first,
+            "",
+            "Bad;Ingestdate;1990-02-30;" + first,
+            "Foo;Ingestbar;1990-01-01;999999",
+            "Too;Ingestfew;1990-01-01"));
+        for (int i = 0; i < 200; i++) {
+            lines.add("Gen" + i + ";Ingestgen;2001-01-01;" + first);
+        }
+        Files.write(INGEST_DIR.resolve("admissions.csv"), lines);
+
+        // --- 1) New patients are created, existing ones and repeated rows are matched ---
+        List<IngestProgress> progress = ingest("admissions.csv");
+        IngestProgress done = progress.get(progress.size() - 1);
+        assertThat(progress).hasSizeGreaterThan(2);
+        assertThat(progress.subList(0, progress.size() - 1)).noneMatch(IngestProgress::getDone);
+        assertThat(done.getDone()).isTrue();
+        assertThat(done.getBytesRead()).isEqualTo(Files.size(INGEST_DIR.resolve("admissions.csv")));
+        assertThat(done.getLines()).isEqualTo(lines.size());
+        assertThat(done.getPatientsCreated()).isEqualTo(202);
+        assertThat(done.getPatientsMatched()).isEqualTo(3);
+        assertThat(done.getRegistrationsCreated()).isEqualTo(204);
+        assertThat(done.getAlreadyRegistered()).isEqualTo(1);
+        assertThat(done.getRejected()).isEqualTo(3);
+        // unknown hospitals are found when the batch is written, after the parse errors of its chunks
+        assertThat(done.getErrorsList()).extracting(e -> e.getLine() + ": " + e.getMessage()).containsExactlyInAnyOrder(
+            "8: Invalid birth_date: 1990-02-30",
+            "9: Unknown hospital 999999",
+            "10: Expected 4 columns, found 3");
+
+        assertThat(patientsOf(first)).isEqualTo(202);
+        assertThat(patientsOf(second)).isEqualTo(2);
+        assertThat(search("Ingestfrau")).hasSize(1);
+        assertThat(search("Ingestgen")).hasSize(200);
+        assertThat(search("Ingest; Jr.")).extracting(Patient::getFirstName).containsExactly("Anna \"Anni\"");
+
+        // --- 2) Ingesting the file again changes nothing ---
+        progress = ingest("admissions.csv");
+        done = progress.get(progress.size() - 1);
+        assertThat(done.getPatientsCreated()).isZero();
+        assertThat(done.getPatientsMatched()).isEqualTo(205);
+        assertThat(done.getRegistrationsCreated()).isZero();
+        assertThat(done.getAlreadyRegistered()).isEqualTo(205);
+        assertThat(done.getRejected()).isEqualTo(3);
+        assertThat(patientsOf(first)).isEqualTo(202);
+        assertThat(search("Ingestgen")).hasSize(200);
+    }
+
+    @Test
+    public void pipeSeparatedFilesWork() throws Exception {
+        long hospitalId = hospital("Pipeklinik");
+        Files.write(INGEST_DIR.resolve("admissions.hl7"), List.of(
+            "Hans|Pipemann|19700101|" + hospitalId,
+            "Grete|Pipemann|19720202|" + hospitalId));
+
+        List<IngestProgress> progress = ingest("admissions.hl7");
+        IngestProgress done = progress.get(progress.size() - 1);
+        assertThat(done.getDone()).isTrue();
+        assertThat(done.getPatientsCreated()).isEqualTo(2);
+        assertThat(done.getRegistrationsCreated()).isEqualTo(2);
+        assertThat(search("Pipemann")).extracting(Patient::getBirthDate).containsExactly("1970-01-01", "1972-02-02");
+    }
+
+    @Test
+    public void badNamesMissingFilesAndOverlongLinesFail() throws Exception {
+        Files.writeString(INGEST_DIR.resolve("long.csv"), "Max;" + "x".repeat(200) + ";1990-01-01;1\n");
+
+        assertThat(failureOf(() -> ingest("../admissions.csv"))).isEqualTo(Status.Code.INVALID_ARGUMENT);
+        assertThat(failureOf(() -> ingest("missing.csv"))).isEqualTo(Status.Code.NOT_FOUND);
+        assertThat(failureOf(() -> ingest("long.csv"))).isEqualTo(Status.Code.INTERNAL);
+    }
+
+    private Status.Code failureOf(Runnable call) {
+        return assertThrows(StatusRuntimeException.class, call::run).getStatus().getCode();
+    }
+}
@@ -0,0 +1,82 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.julianhaeh.hospital.system.entities.PatientEntity;
+import com.julianhaeh.hospital.system.repository.PatientRepository;
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Boots the prod profile against a file-backed H2 in a temporary directory,
+ * and the postgres profile against H2 in PostgreSQL mode
+ */
+public class ProductionProfileTest {
+
+    private static final String POSTGRES_STAND_IN =
+        "jdbc:h2:mem:postgres-profile-test;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH";
+
+    @TempDir
+    Path dataDir;
+
+    // Command line arguments, builder properties would lose against the profile files
+    private ConfigurableApplicationContext boot(String profiles, String... args) {
+        List<String> all = new ArrayList<>(List.of(args));
+        all.add("--hospital.data-dir=" + dataDir);
+        all.add("--grpc.server.port=-1");
+        all.add("--grpc.server.in-process-name=production-profile-test");
+        return new SpringApplicationBuilder(HospitalSystemApplication.class)
+            .web(WebApplicationType.NONE)
+            .profiles(profiles.split(","))
+            .run(all.toArray(String[]::new));
+    }
+
+    @Test
+    void dataSurvivesRestart() {
+        long id;
+        try (ConfigurableApplicationContext context = boot("prod")) {
+            PatientEntity p = new PatientEntity("Max", "Mustermann", LocalDate.of(1990, 1, 1));
+            id = context.getBean(PatientRepository.class).save(p).getId();
+        }
+
+        try (ConfigurableApplicationContext context = boot("prod")) {
+            assertThat(context.getBean(PatientRepository.class).findById(id))
+                .hasValueSatisfying(p -> assertThat(p.getLastName()).isEqualTo("Mustermann"));
+        }
+    }
+
+    @Test
+    void usesTunedPool() {
+        try (ConfigurableApplicationContext context = boot("prod")) {
+            HikariDataSource ds = context.getBean(HikariDataSource.class);
+            assertThat(ds.getJdbcUrl()).startsWith("jdbc:h2:file:" + dataDir);
+            assertThat(ds.getMaximumPoolSize()).isEqualTo(20);
+            assertThat(ds.getMinimumIdle()).isEqualTo(20);
+            assertThat(context.getEnvironment().getProperty("spring.jpa.open-in-view")).isEqualTo("false");
+        }
+    }
+
+    @Test
+    void postgresProfileConfiguresDriver() {
+        try (ConfigurableApplicationContext context = boot("prod,postgres",
+                "--spring.datasource.url=" + POSTGRES_STAND_IN)) {
+            HikariDataSource ds = context.getBean(HikariDataSource.class);
+            assertThat(ds.getDataSourceProperties())
+                .containsEntry("prepareThreshold", "1")
+                .containsEntry("reWriteBatchedInserts", "true");
+
+            PatientEntity p = new PatientEntity("Max", "Mustermann", LocalDate.of(1990, 1, 1));
+            assertThat(context.getBean(PatientRepository.class).save(p).getId()).isNotNull();
+        }
+    }
+}
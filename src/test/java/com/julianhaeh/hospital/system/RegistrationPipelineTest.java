@@ -0,0 +1,152 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.julianhaeh.hospital.system.grpc.*;
+import com.julianhaeh.hospital.system.service.RegistrationPipeline;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Registrations through the write-behind pipeline. max-delay is long enough that
+ * concurrent registrations end up in the same group commit.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:pipeline-test;DB_CLOSE_DELAY=-1",
+    "hospital.registration.write-behind.enabled=true",
+    "hospital.registration.write-behind.ack=COMMIT",
+    "hospital.registration.write-behind.batch-size=64",
+    "hospital.registration.write-behind.max-delay=50ms",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=pipeline-test"
+})
+public class RegistrationPipelineTest {
+
+    @Autowired
+    private RegistrationPipeline pipeline;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ManagedChannel channel;
+    private HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("pipeline-test").directExecutor().build();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    private long hospital() {
+        return stub.createHospital(CreateHospitalRequest.newBuilder()
+            .setName("Testklinik")
+            .setAddress("Musterweg 1")
+            .build()).getId();
+    }
+
+    private long patient() {
+        return stub.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Max")
+            .setLastName("Mustermann")
+            .setBirthDate("1990-01-01")
+            .build()).getId();
+    }
+
+    private void register(long patientId, long hospitalId) {
+        stub.registerPatient(RegisterPatientRequest.newBuilder()
+            .setPatientId(patientId)
+            .setHospitalId(hospitalId)
+            .build());
+    }
+
+    private long patientsOf(long hospitalId) {
+        return stub.countPatientsOfHospital(CountPatientsRequest.newBuilder()
+            .setHospitalId(hospitalId)
+            .build()).getCount();
+    }
+
+    @Test
+    public void concurrentRegistrationsAreCommittedInGroups() throws Exception {
+        long hospitalId = hospital();
+        List<Long> patientIds = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            patientIds.add(patient());
+        }
+        long flushesBefore = meterRegistry.get("hospital.registration.flush").timer().count();
+
+        ExecutorService clients = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<?>> calls = new ArrayList<>();
+            for (long patientId : patientIds) {
+                calls.add(clients.submit(() -> register(patientId, hospitalId)));
+            }
+            for (Future<?> call : calls) {
+                call.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            clients.shutdown();
+        }
+
+        // acknowledged means committed
+        assertThat(patientsOf(hospitalId)).isEqualTo(200);
+        long flushes = meterRegistry.get("hospital.registration.flush").timer().count() - flushesBefore;
+        assertThat(flushes).isPositive().isLessThan(200);
+        assertThat(meterRegistry.get("hospital.registration.queue.depth").gauge().value()).isZero();
+        // the group commits run on the flusher and are not charged to the calls
+        assertThat(meterRegistry.get("hospital.grpc.server.db.statements")
+            .tag("method", HospitalServiceGrpc.getRegisterPatientMethod().getFullMethodName())
+            .summary().totalAmount()).isZero();
+
+        // registering again is answered without queueing
+        register(patientIds.get(0), hospitalId);
+        assertThat(patientsOf(hospitalId)).isEqualTo(200);
+    }
+
+    @Test
+    public void duplicatesInOneBatchAreWrittenOnce() throws Exception {
+        long hospitalId = hospital();
+        long patientId = patient();
+
+        CompletableFuture<Void> first = pipeline.submit(patientId, hospitalId);
+        CompletableFuture<Void> second = pipeline.submit(patientId, hospitalId);
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+
+        assertThat(patientsOf(hospitalId)).isEqualTo(1);
+    }
+
+    @Test
+    public void unknownIdsAreRejectedBeforeQueueing() {
+        long hospitalId = hospital();
+        long patientId = patient();
+
+        assertThatThrownBy(() -> register(patientId, 999_999L))
+            .isInstanceOfSatisfying(StatusRuntimeException.class,
+                e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.NOT_FOUND));
+        assertThatThrownBy(() -> register(999_999L, hospitalId))
+            .isInstanceOfSatisfying(StatusRuntimeException.class,
+                e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.NOT_FOUND));
+    }
+}
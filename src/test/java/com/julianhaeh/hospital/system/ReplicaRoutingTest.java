@@ -0,0 +1,206 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.julianhaeh.hospital.system.grpc.*;
+import com.julianhaeh.hospital.system.replica.ReadYourWrites;
+import com.julianhaeh.hospital.system.replica.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Read replica routing against two in-memory H2 replicas. replicate() stands in for the
+ * database's replication by copying the whole primary into the replicas, and the test
+ * drives the heartbeat itself, so it decides how far the replicas are behind.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:replica-test-primary;DB_CLOSE_DELAY=-1",
+    "hospital.replica.urls=" + ReplicaRoutingTest.REPLICA_1 + "," + ReplicaRoutingTest.REPLICA_2,
+    "hospital.replica.max-lag=1s",
+    "hospital.replica.heartbeat-interval=1h",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=replica-test"
+})
+public class ReplicaRoutingTest {
+
+    static final String REPLICA_1 = "jdbc:h2:mem:replica-test-1;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_2 = "jdbc:h2:mem:replica-test-2;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private HikariDataSource primaryDataSource;
+
+    @Autowired
+    private ReplicaRoutingDataSource replicaRouting;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("replica-test").directExecutor().build();
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    private HospitalServiceGrpc.HospitalServiceBlockingStub client(String clientId) {
+        Metadata headers = new Metadata();
+        headers.put(ReadYourWrites.CLIENT_ID_HEADER, clientId);
+        return HospitalServiceGrpc.newBlockingStub(channel)
+            .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    // Copies schema and data of the primary into both replicas
+    private void replicate() throws SQLException {
+        List<String> script = new ArrayList<>();
+        try (Connection con = primaryDataSource.getConnection();
+             Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SCRIPT")) {
+            while (rs.next()) {
+                script.add(rs.getString(1));
+            }
+        }
+        for (String url : List.of(REPLICA_1, REPLICA_2)) {
+            try (Connection con = DriverManager.getConnection(url, "sa", "");
+                 Statement st = con.createStatement()) {
+                st.execute("DROP ALL OBJECTS");
+                for (String sql : script) {
+                    st.execute(sql);
+                }
+            }
+        }
+    }
+
+    // Heartbeat, replicate, measure: the replicas have caught up with everything until now
+    private void catchUp() throws SQLException {
+        replicaRouting.refresh();
+        replicate();
+        replicaRouting.refresh();
+    }
+
+    private double replicaConnections() {
+        return meterRegistry.get("hospital.replica.connections").counters().stream()
+            .filter(c -> c.getId().getTag("target").startsWith("replica"))
+            .mapToDouble(c -> c.count())
+            .sum();
+    }
+
+    private int patientsOnPage(HospitalServiceGrpc.HospitalServiceBlockingStub stub, long hospitalId) {
+        return stub.listPatientsOfHospitalPage(ListPatientsPageRequest.newBuilder()
+            .setHospitalId(hospitalId)
+            .build()).getPatientsCount();
+    }
+
+    @Test
+    public void readsGoToFreshReplicasExceptAfterOwnWrites() throws Exception {
+        HospitalServiceGrpc.HospitalServiceBlockingStub writer = client("writer");
+        HospitalServiceGrpc.HospitalServiceBlockingStub reader = client("reader");
+
+        long hospitalId = writer.createHospital(CreateHospitalRequest.newBuilder()
+            .setName("Testklinik")
+            .setAddress("Musterweg 1")
+            .build()).getId();
+        long patientId = writer.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Max")
+            .setLastName("Mustermann")
+            .setBirthDate("1990-01-01")
+            .build()).getId();
+        catchUp();
+
+        writer.registerPatient(RegisterPatientRequest.newBuilder()
+            .setPatientId(patientId)
+            .setHospitalId(hospitalId)
+            .build());
+
+        // --- 1) The writer reads its own write from the primary ---
+        assertThat(patientsOnPage(writer, hospitalId)).isEqualTo(1);
+
+        // --- 2) Another client reads from a replica, which is behind but within max-lag ---
+        double before = replicaConnections();
+        assertThat(patientsOnPage(reader, hospitalId)).isZero();
+        assertThat(replicaConnections()).isEqualTo(before + 1);
+
+        // --- 3) Replicas more than max-lag behind are skipped ---
+        Thread.sleep(1200);
+        replicaRouting.refresh();
+        assertThat(patientsOnPage(reader, hospitalId)).isEqualTo(1);
+        assertThat(replicaConnections()).isEqualTo(before + 1);
+
+        // --- 4) Caught up replicas serve the reads again ---
+        catchUp();
+        assertThat(patientsOnPage(reader, hospitalId)).isEqualTo(1);
+        assertThat(replicaConnections()).isEqualTo(before + 2);
+    }
+
+    private String hospitalName(HospitalServiceGrpc.HospitalServiceBlockingStub stub, long hospitalId) {
+        return stub.getHospital(GetHospitalRequest.newBuilder().setHospitalId(hospitalId).build()).getName();
+    }
+
+    private List<String> hospitalNamesOf(HospitalServiceGrpc.HospitalServiceBlockingStub stub, long patientId) {
+        return stub.listHospitalsOfPatient(ListHospitalsRequest.newBuilder().setPatientId(patientId).build())
+            .getHospitalsList().stream().map(Hospital::getName).toList();
+    }
+
+    @Test
+    public void staleReplicaReadsAreNotCachedAfterModify() throws Exception {
+        HospitalServiceGrpc.HospitalServiceBlockingStub writer = client("modifier");
+        HospitalServiceGrpc.HospitalServiceBlockingStub reader = client("other-reader");
+
+        long hospitalId = writer.createHospital(CreateHospitalRequest.newBuilder()
+            .setName("Altklinik")
+            .setAddress("Musterweg 1")
+            .build()).getId();
+        long patientId = writer.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Erika")
+            .setLastName("Musterfrau")
+            .setBirthDate("1985-03-15")
+            .build()).getId();
+        writer.registerPatient(RegisterPatientRequest.newBuilder()
+            .setPatientId(patientId)
+            .setHospitalId(hospitalId)
+            .build());
+        catchUp();
+        assertThat(hospitalName(reader, hospitalId)).isEqualTo("Altklinik");
+
+        writer.modifyHospital(ModifyHospitalRequest.newBuilder()
+            .setHospitalId(hospitalId)
+            .setName("Neuklinik")
+            .setAddress("Musterweg 1")
+            .build());
+
+        // --- 1) Another client may still read the old row from a replica within max-lag ---
+        assertThat(hospitalName(reader, hospitalId)).isEqualTo("Altklinik");
+        assertThat(hospitalNamesOf(reader, patientId)).containsExactly("Altklinik");
+
+        // --- 2) ... but that row is not cached, the writer reads its modification ---
+        assertThat(hospitalName(writer, hospitalId)).isEqualTo("Neuklinik");
+        assertThat(hospitalNamesOf(writer, patientId)).containsExactly("Neuklinik");
+
+        // --- 3) Once the replicas have caught up, everyone reads it ---
+        catchUp();
+        assertThat(hospitalName(reader, hospitalId)).isEqualTo("Neuklinik");
+        assertThat(hospitalNamesOf(reader, patientId)).containsExactly("Neuklinik");
+    }
+}
@@ -0,0 +1,172 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.julianhaeh.hospital.system.grpc.*;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Export and import of the whole dataset, with tiny row groups so every table spans
+ * several of them and the import loads them in parallel.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:snapshot-test;DB_CLOSE_DELAY=-1",
+    "hospital.snapshot.row-group-size=7",
+    "hospital.snapshot.import-threads=3",
+    "grpc.server.port=-1",
+    "grpc.server.in-process-name=snapshot-test"
+})
+public class SnapshotTest {
+
+    private static final Path SNAPSHOT_DIR = createTempDirectory();
+
+    @DynamicPropertySource
+    static void snapshotDir(DynamicPropertyRegistry registry) {
+        registry.add("hospital.snapshot.dir", SNAPSHOT_DIR::toString);
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("snapshot-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private ManagedChannel channel;
+    private HospitalServiceGrpc.HospitalServiceBlockingStub stub;
+
+    @BeforeEach
+    void openChannel() {
+        channel = InProcessChannelBuilder.forName("snapshot-test").directExecutor().build();
+        stub = HospitalServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void closeChannel() {
+        channel.shutdownNow();
+    }
+
+    private static SnapshotRequest named(String name) {
+        return SnapshotRequest.newBuilder().setName(name).build();
+    }
+
+    private Status.Code failureOf(Runnable call) {
+        return assertThrows(StatusRuntimeException.class, call::run).getStatus().getCode();
+    }
+
+    private List<String> rows(String sql) {
+        return jdbc.queryForList(sql).stream().map(Object::toString).toList();
+    }
+
+    @Test
+    public void exportedDataIsImportedIntoEmptyTables() throws Exception {
+        List<Long> hospitalIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            hospitalIds.add(stub.createHospital(CreateHospitalRequest.newBuilder()
+                .setName("Klinik " + i)
+                .setAddress("Musterweg " + i)
+                .build()).getId());
+        }
+        int registrations = 0;
+        for (int i = 0; i < 20; i++) {
+            long patientId = stub.createPatient(CreatePatientRequest.newBuilder()
+                .setFirstName(i == 0 ? "Zoë" : "Max" + i)
+                .setLastName("Mustermann")
+                .setBirthDate("19" + (50 + i) + "-02-0" + (1 + i % 9))
+                .build()).getId();
+            for (int h = 0; h <= i % 3; h++) {
+                stub.registerPatient(RegisterPatientRequest.newBuilder()
+                    .setPatientId(patientId)
+                    .setHospitalId(hospitalIds.get(h))
+                    .build());
+                registrations++;
+            }
+        }
+        String allRows = "select * from hospital order by id";
+        String allPatients = "select * from patient order by id";
+        String allRegistrations = "select * from registration order by patient_id, hospital_id";
+        List<String> hospitals = rows(allRows);
+        List<String> patients = rows(allPatients);
+        List<String> registered = rows(allRegistrations);
+        PatientList ofFirstHospital = stub.listPatientsOfHospital(ListPatientsRequest.newBuilder()
+            .setHospitalId(hospitalIds.get(0)).build());
+
+        // --- 1) Export ---
+        SnapshotSummary exported = stub.exportSnapshot(named("full.snap"));
+        assertThat(exported.getHospitals()).isEqualTo(3);
+        assertThat(exported.getPatients()).isEqualTo(20);
+        assertThat(exported.getRegistrations()).isEqualTo(registrations);
+        assertThat(exported.getBytes()).isEqualTo(Files.size(SNAPSHOT_DIR.resolve("full.snap")));
+        assertThat(SNAPSHOT_DIR.resolve("full.snap.partial")).doesNotExist();
+
+        // --- 2) Import refuses tables with rows, bad names, missing and damaged files ---
+        assertThat(failureOf(() -> stub.importSnapshot(named("full.snap")))).isEqualTo(Status.Code.FAILED_PRECONDITION);
+        assertThat(failureOf(() -> stub.importSnapshot(named("../full.snap")))).isEqualTo(Status.Code.INVALID_ARGUMENT);
+        assertThat(failureOf(() -> stub.importSnapshot(named("missing.snap")))).isEqualTo(Status.Code.NOT_FOUND);
+        byte[] damaged = Files.readAllBytes(SNAPSHOT_DIR.resolve("full.snap"));
+        damaged[20] ^= 0x55;
+        Files.write(SNAPSHOT_DIR.resolve("damaged.snap"), damaged);
+        Files.write(SNAPSHOT_DIR.resolve("garbage.snap"), new byte[100]);
+        assertThat(failureOf(() -> stub.importSnapshot(named("garbage.snap")))).isEqualTo(Status.Code.INTERNAL);
+
+        // --- 3) Into empty tables everything comes back as it was ---
+        jdbc.execute("delete from registration");
+        jdbc.execute("delete from patient");
+        jdbc.execute("delete from hospital");
+        assertThat(failureOf(() -> stub.importSnapshot(named("damaged.snap")))).isEqualTo(Status.Code.INTERNAL);
+        assertThat(rows(allRows)).isEmpty();
+
+        SnapshotSummary imported = stub.importSnapshot(named("full.snap"));
+        assertThat(imported.getHospitals()).isEqualTo(3);
+        assertThat(imported.getPatients()).isEqualTo(20);
+        assertThat(imported.getRegistrations()).isEqualTo(registrations);
+        assertThat(rows(allRows)).isEqualTo(hospitals);
+        assertThat(rows(allPatients)).isEqualTo(patients);
+        assertThat(rows(allRegistrations)).isEqualTo(registered);
+        // the registration index was reloaded
+        assertThat(stub.listPatientsOfHospital(ListPatientsRequest.newBuilder()
+            .setHospitalId(hospitalIds.get(0)).build())).isEqualTo(ofFirstHospital);
+        assertThat(stub.countPatientsOfHospital(CountPatientsRequest.newBuilder()
+            .setHospitalId(hospitalIds.get(0)).build()).getCount()).isEqualTo(20);
+
+        // the search index as well
+        List<Patient> found = new ArrayList<>();
+        stub.searchPatients(SearchPatientsRequest.newBuilder().setFirstName("zoe").build())
+            .forEachRemaining(list -> found.addAll(list.getPatientsList()));
+        assertThat(found).extracting(Patient::getFirstName).containsExactly("Zoë");
+
+        // --- 4) New ids come after the imported ones, and the references are enforced again ---
+        long maxPatientId = jdbc.queryForObject("select max(id) from patient", Long.class);
+        assertThat(stub.createPatient(CreatePatientRequest.newBuilder()
+            .setFirstName("Neu")
+            .setLastName("Mustermann")
+            .setBirthDate("2000-01-01")
+            .build()).getId()).isGreaterThan(maxPatientId);
+        assertThrows(Exception.class, () -> jdbc.update(
+            "insert into registration (patient_id, hospital_id, registered_at) values (999999, 999999, current_timestamp)"));
+    }
+}
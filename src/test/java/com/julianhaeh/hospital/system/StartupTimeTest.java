@@ -0,0 +1,127 @@
+package com.julianhaeh.hospital.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.julianhaeh.hospital.system.grpc.CreateHospitalRequest;
+import com.julianhaeh.hospital.system.grpc.Hospital;
+import com.julianhaeh.hospital.system.grpc.HospitalServiceGrpc;
+import com.julianhaeh.hospital.system.index.PatientSearchIndex;
+import com.julianhaeh.hospital.system.index.RegistrationIndex;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * The lazy profile: which beans it defers, and the time from starting a fresh JVM with it
+ * to the first served HospitalService call, against hospital.startup.threshold (a system property, -PstartupThreshold=... in
+ * the build). The default leaves room for a loaded CI machine; lower it where startup is
+ * measured on a known machine.
+ */
+public class StartupTimeTest {
+
+    private static final Duration THRESHOLD =
+        Duration.parse("PT" + System.getProperty("hospital.startup.threshold", "30s"));
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void lazyProfileDefersOnlyNonCriticalBeans() throws InterruptedException {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(HospitalSystemApplication.class)
+                .profiles("lazy")
+                .run("--spring.datasource.url=jdbc:h2:mem:lazy-profile-test",
+                     "--server.port=0",
+                     "--grpc.server.port=-1",
+                     "--grpc.server.in-process-name=lazy-profile-test")) {
+            assertThat(context.getBeanFactory().containsSingleton("requestMappingHandlerAdapter")).isFalse();
+            assertThat(context.getBeanFactory().containsSingleton("registrationIndex")).isTrue();
+            // the indexes load in the background once the application is ready
+            RegistrationIndex registrations = context.getBean(RegistrationIndex.class);
+            PatientSearchIndex search = context.getBean(PatientSearchIndex.class);
+            long deadline = System.nanoTime() + THRESHOLD.toNanos();
+            while (!registrations.isReady() || !search.isReady()) {
+                assertThat(System.nanoTime()).as("indexes loaded within %s", THRESHOLD).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    void lazyProfileServesFirstCallWithinThreshold() throws Exception {
+        int grpcPort = freePort();
+        Path log = dir.resolve("startup.log");
+        List<String> command = new ArrayList<>(List.of(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"),
+            HospitalSystemApplication.class.getName(),
+            "--spring.profiles.active=lazy",
+            "--spring.datasource.url=jdbc:h2:mem:startup-test",
+            "--server.port=0",
+            "--grpc.server.port=" + grpcPort));
+
+        long start = System.nanoTime();
+        Process app = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", grpcPort).usePlaintext().build();
+        try {
+            Hospital hospital = firstCall(channel, app, start, log);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            assertThat(hospital.getId()).isPositive();
+            assertThat(elapsed).as("time to the first call").isLessThan(THRESHOLD);
+        } finally {
+            channel.shutdownNow();
+            app.destroy();
+            if (!app.waitFor(30, TimeUnit.SECONDS)) {
+                app.destroyForcibly();
+            }
+        }
+    }
+
+    // Retries while the server isn't listening yet, without the channel's reconnect backoff
+    private Hospital firstCall(ManagedChannel channel, Process app, long start, Path log) throws Exception {
+        HospitalServiceGrpc.HospitalServiceBlockingStub stub = HospitalServiceGrpc.newBlockingStub(channel);
+        CreateHospitalRequest request = CreateHospitalRequest.newBuilder()
+            .setName("Startklinik")
+            .setAddress("Musterweg 1")
+            .build();
+        while (true) {
+            try {
+                return stub.withDeadlineAfter(THRESHOLD.toMillis(), TimeUnit.MILLISECONDS).createHospital(request);
+            } catch (StatusRuntimeException e) {
+                if (e.getStatus().getCode() != Status.Code.UNAVAILABLE) {
+                    throw e;
+                }
+            }
+            assertThat(app.isAlive()).as("application running, log:%n%s", output(log)).isTrue();
+            assertThat(Duration.ofNanos(System.nanoTime() - start))
+                .as("time to the first call, log:%n%s", output(log)).isLessThan(THRESHOLD);
+            Thread.sleep(20);
+            channel.resetConnectBackoff();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String output(Path log) throws IOException {
+        return Files.exists(log) ? Files.readString(log) : "";
+    }
+}